@@ -0,0 +1,57 @@
+/*
+ * Copyright (C) 2013 Schlichtherle IT Services.
+ * All rights reserved. Use is subject to license terms.
+ */
+package net.java.guicer.benchmark;
+
+import com.google.inject.Injector;
+import com.google.inject.spi.Element;
+import com.google.inject.spi.Elements;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Compares the bulk binding API {@code ModuleBuilder.bindAll(Iterable)} with
+ * one fluent {@code bind(..).to(..).inject()} chain per binding.
+ * Run with {@code -prof gc} to measure the allocations per operation, too.
+ *
+ * @author Christian Schlichtherle
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BulkBindingBenchmark {
+
+    @Param({ "10000", "100000" })
+    public int bindings;
+
+    /** Measures the fluent DSL up to the configuration of the module. */
+    @Benchmark
+    public List<Element> fluentConfigure() {
+        return Elements.getElements(
+                Shapes.guicerModuleBuilder(bindings).build());
+    }
+
+    /** Measures the bulk API up to the configuration of the module. */
+    @Benchmark
+    public List<Element> bulkConfigure() {
+        return Elements.getElements(
+                Shapes.guicerBulkModuleBuilder(bindings).build());
+    }
+
+    /** Measures the fluent DSL up to {@code InjectorBuilder.build()}. */
+    @Benchmark
+    public Injector fluentInjectorBuild() {
+        return Shapes.guicerInjectorBuilder(bindings).build();
+    }
+
+    /** Measures the bulk API up to {@code InjectorBuilder.build()}. */
+    @Benchmark
+    public Injector bulkInjectorBuild() {
+        return Shapes.guicerBulkModuleBuilder(bindings).inject().build();
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2013 Schlichtherle IT Services.
+ * All rights reserved. Use is subject to license terms.
+ */
+package net.java.guicer.benchmark;
+
+import com.google.inject.Injector;
+import static com.google.inject.name.Names.named;
+import java.util.concurrent.TimeUnit;
+import net.java.guicer.GuiceContext;
+import net.java.guicer.InjectorBuilder;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Compares the cost of creating a child injector for a tenant with the cost
+ * of creating a root injector with the same bindings.
+ *
+ * @author Christian Schlichtherle
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ChildInjectorBenchmark {
+
+    @Param({ "100", "1000", "10000" })
+    public int bindings;
+
+    private Injector base;
+
+    @Setup
+    public void setUp() {
+        base = Shapes.guicerInjectorBuilder(bindings).build();
+        base.getInstance(Shapes.Bar.class);
+    }
+
+    /** Creates a child injector of the shared base injector. */
+    @Benchmark
+    public Object childInjector() {
+        return tenant(new GuiceContext().injector().parent(base))
+                .build()
+                .getInstance(Shapes.Bar.class);
+    }
+
+    /** Creates a root injector with all bindings. */
+    @Benchmark
+    public Object rootInjector() {
+        return tenant(Shapes.guicerInjectorBuilder(bindings))
+                .build()
+                .getInstance(Shapes.Bar.class);
+    }
+
+    private static InjectorBuilder tenant(InjectorBuilder builder) {
+        return builder
+                .module()
+                    .bindConstant()
+                        .annotatedWith(named("tenant"))
+                        .to("tenant")
+                        .inject()
+                    .inject();
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2013 Schlichtherle IT Services.
+ * All rights reserved. Use is subject to license terms.
+ */
+package net.java.guicer.benchmark;
+
+import com.google.inject.AbstractModule;
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import com.google.inject.Key;
+import com.google.inject.Provider;
+import com.google.inject.TypeLiteral;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import net.java.guicer.GuiceContext;
+import net.java.guicer.InjectorBuilder;
+import net.java.guicer.MapBindingBuilderWithInjection;
+import net.java.guicer.ModuleBuilder;
+import net.java.guicer.SetBindingBuilderWithInjection;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Compares the set and map bindings of Guicer with the collections which a
+ * Guice multibinder provides:
+ * A multibinder copies all elements into a new {@link LinkedHashSet} or
+ * {@link LinkedHashMap} for each injection, which is emulated here with a
+ * provider so that the benchmarks don't depend on the multibindings
+ * extension.
+ *
+ * @author Christian Schlichtherle
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CollectionBindingBenchmark {
+
+    private static final Key<Set<Handler>> SET
+            = Key.get(new TypeLiteral<Set<Handler>>() { });
+    private static final Key<Map<String, Handler>> MAP
+            = Key.get(new TypeLiteral<Map<String, Handler>>() { });
+
+    @Param({ "100", "1000" })
+    public int elements;
+
+    private Injector guicer, multibinder;
+    private Set<Handler> guicerSet, multibinderSet;
+    private Map<String, Handler> guicerMap, multibinderMap;
+    private Handler probe;
+    private String probeName;
+
+    @Setup
+    public void setUp() {
+        final Handler[] handlers = new Handler[elements];
+        for (int i = 0; i < elements; i++)
+            handlers[i] = new Handler();
+        guicer = guicer(handlers);
+        multibinder = multibinder(handlers);
+        guicerSet = guicer.getInstance(SET);
+        multibinderSet = multibinder.getInstance(SET);
+        guicerMap = guicer.getInstance(MAP);
+        multibinderMap = multibinder.getInstance(MAP);
+        probe = handlers[elements / 2];
+        probeName = "handler" + elements / 2;
+    }
+
+    private static Injector guicer(final Handler[] handlers) {
+        final ModuleBuilder<InjectorBuilder> module =
+                new GuiceContext().injector().module();
+        SetBindingBuilderWithInjection<Handler, ModuleBuilder<InjectorBuilder>>
+                set = module.bindSet(Handler.class);
+        MapBindingBuilderWithInjection<String, Handler, ModuleBuilder<InjectorBuilder>>
+                map = module.bindMap(String.class, Handler.class);
+        for (int i = 0; i < handlers.length; i++) {
+            set = set.addInstance(handlers[i]);
+            map = map.putInstance("handler" + i, handlers[i]);
+        }
+        set.inject();
+        return map.inject().inject().build();
+    }
+
+    private static Injector multibinder(final Handler[] handlers) {
+        return Guice.createInjector(new AbstractModule() {
+            @Override protected void configure() {
+                bind(SET).toProvider(new Provider<Set<Handler>>() {
+                    @Override public Set<Handler> get() {
+                        final Set<Handler> set = new LinkedHashSet<Handler>();
+                        for (Handler handler : handlers) set.add(handler);
+                        return Collections.unmodifiableSet(set);
+                    }
+                });
+                bind(MAP).toProvider(new Provider<Map<String, Handler>>() {
+                    @Override public Map<String, Handler> get() {
+                        final Map<String, Handler> map =
+                                new LinkedHashMap<String, Handler>();
+                        for (int i = 0; i < handlers.length; i++)
+                            map.put("handler" + i, handlers[i]);
+                        return Collections.unmodifiableMap(map);
+                    }
+                });
+            }
+        });
+    }
+
+    /** Injects the set. */
+    @Benchmark
+    public Object guicerInject() { return guicer.getInstance(SET); }
+
+    @Benchmark
+    public Object multibinderInject() { return multibinder.getInstance(SET); }
+
+    /** Iterates an injected set. */
+    @Benchmark
+    public int guicerIterate() { return iterate(guicerSet); }
+
+    @Benchmark
+    public int multibinderIterate() { return iterate(multibinderSet); }
+
+    private static int iterate(final Set<Handler> set) {
+        int sum = 0;
+        for (Handler handler : set) sum += handler.id;
+        return sum;
+    }
+
+    /** Looks up an element of an injected set. */
+    @Benchmark
+    public boolean guicerContains() { return guicerSet.contains(probe); }
+
+    @Benchmark
+    public boolean multibinderContains() {
+        return multibinderSet.contains(probe);
+    }
+
+    /** Looks up a value of an injected map. */
+    @Benchmark
+    public Object guicerGet() { return guicerMap.get(probeName); }
+
+    @Benchmark
+    public Object multibinderGet() { return multibinderMap.get(probeName); }
+
+    static final class Handler {
+        private static int count;
+        final int id = count++;
+    }
+}
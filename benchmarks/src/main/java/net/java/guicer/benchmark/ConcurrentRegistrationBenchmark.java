@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2013 Schlichtherle IT Services.
+ * All rights reserved. Use is subject to license terms.
+ */
+package net.java.guicer.benchmark;
+
+import com.google.inject.name.Named;
+import static com.google.inject.name.Names.named;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import net.java.guicer.GuiceContext;
+import net.java.guicer.InjectorBuilder;
+import net.java.guicer.ModuleBuilder;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Measures the throughput of registering bindings in a module builder which
+ * is shared by all threads, as returned by
+ * {@code ModuleContainer.concurrentModule()}, compared to a module builder
+ * per thread, which is the upper bound for scaling.
+ * Run with {@code -t 1}, {@code -t 2}, {@code -t 4} etc. in order to
+ * measure the scaling across cores or run the main method of this class,
+ * which does this up to the number of available processors and prints the
+ * speedup over one thread.
+ *
+ * @author Christian Schlichtherle
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConcurrentRegistrationBenchmark {
+
+    /** The number of distinct binding annotations per thread. */
+    private static final int NAMES = 1024;
+
+    private static final AtomicInteger threads = new AtomicInteger();
+
+    /** A module builder which is shared by all threads. */
+    @State(Scope.Benchmark)
+    public static class Shared {
+        ModuleBuilder<InjectorBuilder> builder;
+
+        @Setup(Level.Iteration)
+        public void setUp() {
+            builder = new GuiceContext().injector().concurrentModule();
+        }
+    }
+
+    /** A module builder and binding annotations per thread. */
+    @State(Scope.Thread)
+    public static class Confined {
+        ModuleBuilder<InjectorBuilder> builder;
+        final Named[] names = new Named[NAMES];
+        int index;
+
+        @Setup(Level.Trial)
+        public void setUpNames() {
+            final int thread = threads.getAndIncrement();
+            for (int i = 0; i < NAMES; i++)
+                names[i] = named(thread + "-" + i);
+        }
+
+        @Setup(Level.Iteration)
+        public void setUp() {
+            builder = new GuiceContext().injector().module();
+        }
+
+        Named next() { return names[index++ & NAMES - 1]; }
+    }
+
+    /**
+     * Runs this benchmark with one, two, four etc. threads up to the number
+     * of available processors and prints the throughput and speedup over one
+     * thread for each benchmark method.
+     */
+    public static void main(final String[] args) throws RunnerException {
+        final int processors = Runtime.getRuntime().availableProcessors();
+        double shared1 = 0, confined1 = 0;
+        System.out.printf("%7s %12s %8s %12s %8s%n", "threads",
+                "shared", "speedup", "confined", "speedup");
+        for (int threads = 1; threads <= processors; threads *= 2) {
+            double shared = 0, confined = 0;
+            for (RunResult result : new Runner(new OptionsBuilder()
+                    .include(ConcurrentRegistrationBenchmark.class.getName())
+                    .threads(threads)
+                    .build()).run()) {
+                final double score = result.getPrimaryResult().getScore();
+                if (result.getParams().getBenchmark().endsWith(".shared"))
+                    shared = score;
+                else
+                    confined = score;
+            }
+            if (1 == threads) {
+                shared1 = shared;
+                confined1 = confined;
+            }
+            System.out.printf("%7d %12.3f %7.2fx %12.3f %7.2fx%n", threads,
+                    shared, shared / shared1, confined, confined / confined1);
+        }
+    }
+
+    /** Registers a binding in the shared module builder. */
+    @Benchmark
+    public Object shared(Shared shared, Confined confined) {
+        return shared.builder
+                .bind(Shapes.Foo.class)
+                    .annotatedWith(confined.next())
+                    .to(Shapes.FooImpl.class)
+                    .inject();
+    }
+
+    /** Registers a binding in the module builder of the current thread. */
+    @Benchmark
+    public Object confined(Confined confined) {
+        return confined.builder
+                .bind(Shapes.Foo.class)
+                    .annotatedWith(confined.next())
+                    .to(Shapes.FooImpl.class)
+                    .inject();
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2013 Schlichtherle IT Services.
+ * All rights reserved. Use is subject to license terms.
+ */
+package net.java.guicer.benchmark;
+
+import com.google.inject.Inject;
+import com.google.inject.Injector;
+import com.google.inject.Key;
+import com.google.inject.Provider;
+import static com.google.inject.name.Names.named;
+import java.lang.reflect.*;
+import java.util.concurrent.TimeUnit;
+import javax.inject.Named;
+import javax.inject.Singleton;
+import net.java.guicer.Assisted;
+import net.java.guicer.Factory;
+import net.java.guicer.GuiceContext;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Compares the per-call cost of a generated factory with a factory which
+ * dispatches through a {@link java.lang.reflect.Proxy} and calls the
+ * constructor reflectively, like assisted inject does.
+ * The assisted inject extension isn't a dependency, so the proxy factory is
+ * emulated here.
+ * Run with {@code -prof gc} in order to compare the allocation rates.
+ *
+ * @author Christian Schlichtherle
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FactoryBenchmark {
+
+    private RequestFactory generated, proxy;
+    private int id;
+
+    @Setup
+    public void setUp() throws NoSuchMethodException {
+        final Injector injector = new GuiceContext()
+                .injector()
+                    .module()
+                        .bindConstant()
+                            .annotatedWith(named("host"))
+                            .to("localhost")
+                            .inject()
+                        .bind(RequestFactory.class)
+                            .toFactory(RequestFactory.class)
+                            .in(Singleton.class)
+                            .inject()
+                        .inject()
+                    .build();
+        generated = injector.getInstance(RequestFactory.class);
+        proxy = proxy(injector.getProvider(Key.get(String.class, named("host"))));
+    }
+
+    private static RequestFactory proxy(final Provider<String> host)
+    throws NoSuchMethodException {
+        final Constructor<Request> constructor = Request.class
+                .getDeclaredConstructor(int.class, String.class, String.class);
+        return (RequestFactory) Proxy.newProxyInstance(
+                RequestFactory.class.getClassLoader(),
+                new Class<?>[] { RequestFactory.class },
+                new InvocationHandler() {
+                    @Override public Object invoke(
+                            Object proxy, Method method, Object[] args)
+                    throws Throwable {
+                        return constructor.newInstance(
+                                args[0], host.get(), args[1]);
+                    }
+                });
+    }
+
+    @Benchmark
+    public Request generated() { return generated.request(id++, "/"); }
+
+    @Benchmark
+    public Request proxy() { return proxy.request(id++, "/"); }
+
+    @Factory
+    public interface RequestFactory {
+        Request request(int id, String path);
+    }
+
+    public static final class Request {
+        final int id;
+        final String host, path;
+
+        @Inject Request(
+                @Assisted int id,
+                @Named("host") String host,
+                @Assisted String path) {
+            this.id = id;
+            this.host = host;
+            this.path = path;
+        }
+    }
+}
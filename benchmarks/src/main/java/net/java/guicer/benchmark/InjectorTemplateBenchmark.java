@@ -0,0 +1,48 @@
+/*
+ * Copyright (C) 2013 Schlichtherle IT Services.
+ * All rights reserved. Use is subject to license terms.
+ */
+package net.java.guicer.benchmark;
+
+import java.util.concurrent.TimeUnit;
+import net.java.guicer.InjectorTemplate;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Compares stamping out an injector from a template with building an
+ * injector with the same bindings from scratch.
+ *
+ * @author Christian Schlichtherle
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class InjectorTemplateBenchmark {
+
+    @Param({ "100", "1000", "10000" })
+    public int bindings;
+
+    private InjectorTemplate template;
+
+    @Setup
+    public void setUp() {
+        template = Shapes.guicerInjectorBuilder(bindings).buildTemplate();
+    }
+
+    /** Stamps out an injector from the template. */
+    @Benchmark
+    public Object template() {
+        return template.build().getInstance(Shapes.Bar.class);
+    }
+
+    /** Builds an injector from scratch. */
+    @Benchmark
+    public Object build() {
+        return Shapes.guicerInjectorBuilder(bindings)
+                .build()
+                .getInstance(Shapes.Bar.class);
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2013 Schlichtherle IT Services.
+ * All rights reserved. Use is subject to license terms.
+ */
+package net.java.guicer.benchmark;
+
+import com.google.inject.Injector;
+import com.google.inject.Key;
+import static com.google.inject.name.Names.named;
+import java.util.concurrent.TimeUnit;
+import javax.inject.Singleton;
+import net.java.guicer.GuiceContext;
+import net.java.guicer.InjectorBuilder;
+import net.java.guicer.ModuleBuilder;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Compares eager and lazy bindings when a process injects all services of a
+ * module, but uses only one of them, like a command line tool which shares
+ * the modules of a server.
+ * Run with {@code -prof gc} to compare the allocations per operation, too.
+ *
+ * @author Christian Schlichtherle
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class LazyBindingBenchmark {
+
+    /** The number of services per injector. */
+    private static final int SERVICES = 16;
+
+    /** The amount of work for constructing a service. */
+    private static final long TOKENS = 10000;
+
+    /** The size of the state of a service in bytes. */
+    private static final int STATE = 64 * 1024;
+
+    @Param({ "false", "true" })
+    public boolean lazy;
+
+    private Key<?>[] keys;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        keys = new Key<?>[SERVICES];
+        for (int i = 0; i < SERVICES; i++)
+            keys[i] = Key.get(Service.class, named("service" + i));
+    }
+
+    /**
+     * Builds an injector, injects all services and uses the first one.
+     */
+    @Benchmark
+    public int injectAllUseOne(Blackhole blackhole) {
+        ModuleBuilder<InjectorBuilder> builder = new GuiceContext()
+                .injector()
+                    .module();
+        for (int i = 0; i < SERVICES; i++)
+            builder = lazy
+                    ? builder
+                        .bind(Service.class)
+                            .annotatedWith(named("service" + i))
+                            .lazy()
+                            .to(ServiceImpl.class)
+                            .in(Singleton.class)
+                            .inject()
+                    : builder
+                        .bind(Service.class)
+                            .annotatedWith(named("service" + i))
+                            .to(ServiceImpl.class)
+                            .in(Singleton.class)
+                            .inject();
+        final Injector injector = builder.inject().build();
+        for (Key<?> key : keys)
+            blackhole.consume(injector.getInstance(key));
+        return ((Service) injector.getInstance(keys[0])).size();
+    }
+
+    public interface Service {
+        int size();
+    }
+
+    public static class ServiceImpl implements Service {
+        private final byte[] state = new byte[STATE];
+
+        public ServiceImpl() { Blackhole.consumeCPU(TOKENS); }
+
+        @Override public int size() { return state.length; }
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2013 Schlichtherle IT Services.
+ * All rights reserved. Use is subject to license terms.
+ */
+package net.java.guicer.benchmark;
+
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import com.google.inject.Key;
+import com.google.inject.Module;
+import com.google.inject.PrivateModule;
+import static com.google.inject.name.Names.named;
+import java.util.concurrent.TimeUnit;
+import net.java.guicer.GuiceContext;
+import net.java.guicer.InjectorBuilder;
+import net.java.guicer.ModuleBuilder;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Compares a chain of nested private modules which expose all of their
+ * bindings with the same chain built by Guicer, which flattens it into
+ * plain modules.
+ * Each module in the chain binds {@code @Named("foo" + level) Foo} and
+ * exposes it together with all keys exposed by its nested module.
+ *
+ * @author Christian Schlichtherle
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PrivateModuleBenchmark {
+
+    @Param({ "1", "8", "32" })
+    public int depth;
+
+    private Key<Shapes.Foo> innermost;
+    private Injector guice, guicer;
+
+    @Setup
+    public void setUp() {
+        innermost = key(depth - 1);
+        guice = Guice.createInjector(guiceModule(0, depth));
+        guicer = Guice.createInjector(guicerModule(0, depth));
+    }
+
+    private static Key<Shapes.Foo> key(int level) {
+        return Key.get(Shapes.Foo.class, named("foo" + level));
+    }
+
+    static Module guiceModule(final int level, final int depth) {
+        return new PrivateModule() {
+            @Override protected void configure() {
+                for (int i = level; i < depth; i++) expose(key(i));
+                bind(key(level)).to(Shapes.FooImpl.class);
+                if (level + 1 < depth) install(guiceModule(level + 1, depth));
+            }
+        };
+    }
+
+    static Module guicerModule(final int level, final int depth) {
+        ModuleBuilder<InjectorBuilder> builder = new GuiceContext()
+                .injector()
+                    .module()
+                        .exposeAndBind(key(level))
+                            .to(Shapes.FooImpl.class)
+                            .inject();
+        for (int i = level + 1; i < depth; i++)
+            builder = builder.expose(key(i)).inject();
+        if (level + 1 < depth)
+            builder = builder.module(guicerModule(level + 1, depth));
+        return builder.build();
+    }
+
+    /** Creates an injector with the chain of private modules. */
+    @Benchmark
+    public Injector guiceBuild() {
+        return Guice.createInjector(guiceModule(0, depth));
+    }
+
+    /** Creates an injector with the flattened chain. */
+    @Benchmark
+    public Injector guicerBuild() {
+        return Guice.createInjector(guicerModule(0, depth));
+    }
+
+    /** Looks up the innermost binding through the chain of private modules. */
+    @Benchmark
+    public Object guiceLookup() { return guice.getInstance(innermost); }
+
+    /** Looks up the innermost binding in the flattened chain. */
+    @Benchmark
+    public Object guicerLookup() { return guicer.getInstance(innermost); }
+}
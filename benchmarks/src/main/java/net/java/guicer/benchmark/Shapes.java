@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2013 Schlichtherle IT Services.
+ * All rights reserved. Use is subject to license terms.
+ */
+package net.java.guicer.benchmark;
+
+import com.google.inject.AbstractModule;
+import com.google.inject.Inject;
+import com.google.inject.Key;
+import com.google.inject.Module;
+import static com.google.inject.name.Names.named;
+import java.util.ArrayList;
+import java.util.List;
+import javax.inject.Named;
+import javax.inject.Singleton;
+import net.java.guicer.BindingSpec;
+import net.java.guicer.GuiceContext;
+import net.java.guicer.InjectorBuilder;
+import net.java.guicer.ModuleBuilder;
+
+/**
+ * The module shapes from {@code ModuleBuilderTest}, scaled to a given number
+ * of generated bindings.
+ * Each shape binds {@code Bar} to {@code BarImpl} in singleton scope and
+ * {@code Foo} annotated with {@code @Named("foo" + i)} to {@code FooImpl}
+ * for every {@code i} in {@code [0, bindings)}.
+ *
+ * @author Christian Schlichtherle
+ */
+final class Shapes {
+
+    static Module guicerModule(int bindings) {
+        return guicerModuleBuilder(bindings).build();
+    }
+
+    static InjectorBuilder guicerInjectorBuilder(int bindings) {
+        return guicerModuleBuilder(bindings).inject();
+    }
+
+    static ModuleBuilder<InjectorBuilder> guicerModuleBuilder(final int bindings) {
+        ModuleBuilder<InjectorBuilder> builder = new GuiceContext()
+                .injector()
+                    .module()
+                        .bind(Bar.class)
+                            .to(BarImpl.class)
+                            .in(Singleton.class)
+                            .inject();
+        for (int i = 0; i < bindings; i++)
+            builder = builder
+                        .bind(Foo.class)
+                            .annotatedWith(named("foo" + i))
+                            .to(FooImpl.class)
+                            .inject();
+        return builder;
+    }
+
+    /** Like {@link #guicerModuleBuilder}, but uses the bulk binding API. */
+    static ModuleBuilder<InjectorBuilder> guicerBulkModuleBuilder(final int bindings) {
+        final List<BindingSpec<?>> specs = new ArrayList<BindingSpec<?>>(bindings + 1);
+        specs.add(new BindingSpec<Bar>(Key.get(Bar.class), BarImpl.class, Singleton.class));
+        for (int i = 0; i < bindings; i++)
+            specs.add(new BindingSpec<Foo>(
+                    Key.get(Foo.class, named("foo" + i)), FooImpl.class, null));
+        return new GuiceContext()
+                .injector()
+                    .module()
+                        .bindAll(specs);
+    }
+
+    static Module guiceModule(final int bindings) {
+        return new AbstractModule() {
+            @Override protected void configure() {
+                bind(Bar.class).to(BarImpl.class).in(Singleton.class);
+                for (int i = 0; i < bindings; i++)
+                    bind(Foo.class).annotatedWith(named("foo" + i)).to(FooImpl.class);
+            }
+        };
+    }
+
+    interface Foo { }
+
+    static class FooImpl implements Foo { }
+
+    interface Bar { }
+
+    static class BarImpl implements Bar {
+        @Inject BarImpl(@Named("foo0") Foo foo) { }
+    }
+
+    private Shapes() { }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2013 Schlichtherle IT Services.
+ * All rights reserved. Use is subject to license terms.
+ */
+package net.java.guicer.benchmark;
+
+import com.google.inject.Injector;
+import com.google.inject.Key;
+import com.google.inject.Scopes;
+import static com.google.inject.name.Names.named;
+import java.util.concurrent.TimeUnit;
+import net.java.guicer.GuiceContext;
+import net.java.guicer.GuicerScopes;
+import net.java.guicer.InjectorBuilder;
+import net.java.guicer.ModuleBuilder;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Compares the throughput of {@link Scopes#SINGLETON} with
+ * {@link GuicerScopes#CONCURRENT_SINGLETON} when multiple threads first use
+ * unrelated singletons and when they provide constructed singletons.
+ * Each thread has its own injector, so any contention is caused by the
+ * scope.
+ *
+ * @author Christian Schlichtherle
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+@State(Scope.Thread)
+public class SingletonScopeBenchmark {
+
+    /** The number of singletons per injector. */
+    private static final int SINGLETONS = 16;
+
+    /** The amount of work for constructing a singleton. */
+    private static final long TOKENS = 1000;
+
+    @Param({ "SINGLETON", "CONCURRENT_SINGLETON" })
+    public String scope;
+
+    private Injector injector;
+    private Key<?>[] keys;
+
+    @Setup(Level.Trial)
+    public void setUpKeys() {
+        keys = new Key<?>[SINGLETONS];
+        for (int i = 0; i < SINGLETONS; i++)
+            keys[i] = Key.get(Expensive.class, named("expensive" + i));
+    }
+
+    @Setup(Level.Iteration)
+    public void setUpInjector() { injector = injector(); }
+
+    Injector injector() {
+        final com.google.inject.Scope singleton = "SINGLETON".equals(scope)
+                ? Scopes.SINGLETON
+                : GuicerScopes.CONCURRENT_SINGLETON;
+        ModuleBuilder<InjectorBuilder> builder = new GuiceContext()
+                .injector()
+                    .module();
+        for (int i = 0; i < SINGLETONS; i++)
+            builder = builder
+                    .bind(Expensive.class)
+                        .annotatedWith(named("expensive" + i))
+                        .to(Expensive.class)
+                        .in(singleton)
+                        .inject();
+        return builder.inject().build();
+    }
+
+    /** Provides an injector for each invocation. */
+    @State(Scope.Thread)
+    public static class FreshInjector {
+        Injector injector;
+
+        @Setup(Level.Invocation)
+        public void setUp(SingletonScopeBenchmark benchmark) {
+            injector = benchmark.injector();
+        }
+    }
+
+    /** Constructs all singletons of a fresh injector. */
+    @Benchmark
+    public void firstUse(FreshInjector fresh, Blackhole blackhole) {
+        for (Key<?> key : keys)
+            blackhole.consume(fresh.injector.getInstance(key));
+    }
+
+    /** Provides the constructed singletons. */
+    @Benchmark
+    public void provide(Blackhole blackhole) {
+        for (Key<?> key : keys)
+            blackhole.consume(injector.getInstance(key));
+    }
+
+    public static class Expensive {
+        public Expensive() { Blackhole.consumeCPU(TOKENS); }
+    }
+}
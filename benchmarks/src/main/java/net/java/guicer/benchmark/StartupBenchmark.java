@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2013 Schlichtherle IT Services.
+ * All rights reserved. Use is subject to license terms.
+ */
+package net.java.guicer.benchmark;
+
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import com.google.inject.Module;
+import com.google.inject.spi.Element;
+import com.google.inject.spi.Elements;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import net.java.guicer.InjectorBuilder;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Compares the startup cost of the Guicer DSL with the original Guice DSL.
+ * Run with {@code -prof gc} to measure the allocation rate, too.
+ *
+ * @author Christian Schlichtherle
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class StartupBenchmark {
+
+    @Param({ "100", "1000", "10000" })
+    public int bindings;
+
+    /** Measures the Guicer DSL up to {@code ModuleBuilder.build()}. */
+    @Benchmark
+    public Module guicerModuleBuild() {
+        return Shapes.guicerModule(bindings);
+    }
+
+    /** Measures the Guicer DSL up to the configuration of the module. */
+    @Benchmark
+    public List<Element> guicerModuleConfigure() {
+        return Elements.getElements(Shapes.guicerModule(bindings));
+    }
+
+    /** Measures the original Guice DSL up to the configuration of the module. */
+    @Benchmark
+    public List<Element> guiceModuleConfigure() {
+        return Elements.getElements(Shapes.guiceModule(bindings));
+    }
+
+    /** Measures the Guicer DSL up to {@code InjectorBuilder.build()}. */
+    @Benchmark
+    public Injector guicerInjectorBuild() {
+        return Shapes.guicerInjectorBuilder(bindings).build();
+    }
+
+    /** Measures the original Guice DSL up to {@code Guice.createInjector()}. */
+    @Benchmark
+    public Injector guiceInjectorBuild() {
+        return Guice.createInjector(Shapes.guiceModule(bindings));
+    }
+
+    /** Measures the first {@code getInstance} from a Guicer built injector. */
+    @Benchmark
+    public Object guicerFirstGetInstance(FreshInjectors injectors) {
+        return injectors.guicer.getInstance(Shapes.Bar.class);
+    }
+
+    /** Measures the first {@code getInstance} from a Guice built injector. */
+    @Benchmark
+    public Object guiceFirstGetInstance(FreshInjectors injectors) {
+        return injectors.guice.getInstance(Shapes.Bar.class);
+    }
+
+    /** Provides a fresh pair of injectors for each benchmark invocation. */
+    @State(Scope.Thread)
+    public static class FreshInjectors {
+
+        @Param({ "100", "1000", "10000" })
+        public int bindings;
+
+        Injector guicer, guice;
+
+        @Setup(Level.Invocation)
+        public void setUp() {
+            final InjectorBuilder builder = Shapes.guicerInjectorBuilder(bindings);
+            guicer = builder.build();
+            guice = Guice.createInjector(Shapes.guiceModule(bindings));
+        }
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2013 Schlichtherle IT Services.
+ * All rights reserved. Use is subject to license terms.
+ */
+package net.java.guicer;
+
+import java.util.*;
+
+/**
+ * An immutable map which is backed by an {@link ArraySet} of its keys and
+ * an array of its values with the same indices.
+ * The key set can get shared by many maps, so each map needs only one
+ * array.
+ * This class is thread-safe.
+ *
+ * @param  <K> the type of the keys.
+ * @param  <V> the type of the values.
+ * @author Christian Schlichtherle
+ */
+final class ArrayMap<K, V> extends AbstractMap<K, V> {
+
+    private final ArraySet<K> keys;
+    private final Object[] values;
+
+    /**
+     * Constructs a map with the given keys and values.
+     * The array gets retained, so it must not get modified anymore.
+     */
+    ArrayMap(final ArraySet<K> keys, final Object[] values) {
+        assert keys.size() == values.length;
+        this.keys = keys;
+        this.values = values;
+    }
+
+    @Override public int size() { return values.length; }
+
+    @Override public boolean containsKey(Object key) {
+        return keys.contains(key);
+    }
+
+    @Override @SuppressWarnings("unchecked")
+    public V get(final Object key) {
+        final int index = keys.indexOf(key);
+        return 0 > index ? null : (V) values[index];
+    }
+
+    @Override public Set<K> keySet() { return keys; }
+
+    @Override @SuppressWarnings("unchecked")
+    public Collection<V> values() {
+        return Collections.unmodifiableList(Arrays.asList((V[]) values));
+    }
+
+    @Override public Set<Entry<K, V>> entrySet() {
+        return new AbstractSet<Entry<K, V>>() {
+            @Override public int size() { return values.length; }
+
+            @Override public Iterator<Entry<K, V>> iterator() {
+                return new Iterator<Entry<K, V>>() {
+                    int index;
+
+                    @Override public boolean hasNext() {
+                        return index < values.length;
+                    }
+
+                    @Override @SuppressWarnings("unchecked")
+                    public Entry<K, V> next() {
+                        if (index >= values.length)
+                            throw new NoSuchElementException();
+                        final int i = index++;
+                        return new SimpleImmutableEntry<K, V>(
+                                keys.get(i), (V) values[i]);
+                    }
+
+                    @Override public void remove() {
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            }
+        };
+    }
+}
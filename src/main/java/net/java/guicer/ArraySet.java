@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2013 Schlichtherle IT Services.
+ * All rights reserved. Use is subject to license terms.
+ */
+package net.java.guicer;
+
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * An immutable set which is backed by an array of its elements in
+ * insertion order and an open addressing hash table of their indices.
+ * Unlike a {@link java.util.LinkedHashSet}, this set doesn't need an entry
+ * object per element.
+ * This class is thread-safe.
+ *
+ * @param  <E> the type of the elements.
+ * @author Christian Schlichtherle
+ */
+final class ArraySet<E> extends AbstractSet<E> {
+
+    private final Object[] elements;
+
+    /** The indices of the elements plus one, or zero for empty slots. */
+    private final int[] table;
+
+    /**
+     * Constructs a set with the given elements.
+     * The array gets retained, so it must not get modified anymore.
+     *
+     * @throws NullPointerException if any element is {@code null}.
+     * @throws IllegalArgumentException if any element is duplicated.
+     */
+    ArraySet(final Object[] elements) {
+        this.elements = elements;
+        int capacity = 2;
+        while (capacity < elements.length * 2) capacity <<= 1;
+        final int[] table = this.table = new int[capacity];
+        final int mask = capacity - 1;
+        for (int i = 0; i < elements.length; i++) {
+            final Object element = elements[i];
+            int slot = hash(element) & mask;
+            for (int index; 0 != (index = table[slot]); slot = slot + 1 & mask)
+                if (element.equals(elements[index - 1]))
+                    throw new IllegalArgumentException(
+                            "Duplicate element: " + element);
+            table[slot] = i + 1;
+        }
+    }
+
+    private static int hash(final Object element) {
+        final int h = element.hashCode();
+        return h ^ h >>> 16;
+    }
+
+    /** Returns the index of the given object or -1 if it's not an element. */
+    int indexOf(final Object o) {
+        if (null == o) return -1;
+        final int[] table = this.table;
+        final int mask = table.length - 1;
+        for (int slot = hash(o) & mask, index;
+                0 != (index = table[slot]);
+                slot = slot + 1 & mask)
+            if (o.equals(elements[index - 1])) return index - 1;
+        return -1;
+    }
+
+    /** Returns the element with the given index. */
+    @SuppressWarnings("unchecked")
+    E get(int index) { return (E) elements[index]; }
+
+    @Override public boolean contains(Object o) { return 0 <= indexOf(o); }
+
+    @Override public int size() { return elements.length; }
+
+    @Override public Object[] toArray() { return elements.clone(); }
+
+    @Override public Iterator<E> iterator() {
+        return new Iterator<E>() {
+            int index;
+
+            @Override public boolean hasNext() {
+                return index < elements.length;
+            }
+
+            @Override public E next() {
+                if (index >= elements.length)
+                    throw new NoSuchElementException();
+                return get(index++);
+            }
+
+            @Override public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+}
@@ -0,0 +1,21 @@
+/*
+ * Copyright (C) 2013 Schlichtherle IT Services.
+ * All rights reserved. Use is subject to license terms.
+ */
+package net.java.guicer;
+
+import java.lang.annotation.*;
+
+/**
+ * Indicates that the annotated constructor parameter gets passed a
+ * parameter of a method of a {@link Factory} interface.
+ * The assisted parameters of a constructor get matched with the parameters
+ * of the method in order, so they must have the same types.
+ *
+ * @author Christian Schlichtherle
+ */
+@Documented
+@Retention(RetentionPolicy.CLASS)
+@Target(ElementType.PARAMETER)
+public @interface Assisted {
+}
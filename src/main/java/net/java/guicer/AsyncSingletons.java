@@ -0,0 +1,293 @@
+/*
+ * Copyright (C) 2013 Schlichtherle IT Services.
+ * All rights reserved. Use is subject to license terms.
+ */
+package net.java.guicer;
+
+import com.google.inject.*;
+import com.google.inject.spi.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Constructs the bindings which have been marked with
+ * {@code asEagerSingletonAsync()} after an injector has been created by an
+ * {@link InjectorBuilder}.
+ * These bindings are in the {@link #SCOPE}, which works like
+ * {@link GuicerScopes#CONCURRENT_SINGLETON}.
+ * The bindings in this scope get looked up in the binding graph of the
+ * created injector and constructed in waves:
+ * Each wave contains the bindings which don't depend on any binding in a
+ * later wave, so the bindings in a wave can get constructed concurrently.
+ * If the bindings have circular dependencies, then the remaining bindings
+ * get constructed sequentially.
+ * Bindings in private modules which don't expose any binding cannot get
+ * looked up, so they get constructed on first use.
+ *
+ * @author Christian Schlichtherle
+ */
+final class AsyncSingletons {
+
+    /** The scope for bindings which have been marked with {@code asEagerSingletonAsync()}. */
+    static final Scope SCOPE = new Scope() {
+        @Override
+        public <T> Provider<T> scope(Key<T> key, Provider<T> unscoped) {
+            return GuicerScopes.CONCURRENT_SINGLETON.scope(key, unscoped);
+        }
+
+        @Override public String toString() {
+            return "AsyncSingletons.SCOPE";
+        }
+    };
+
+    private AsyncSingletons() { }
+
+    /**
+     * Constructs the bindings of the given injector in the {@link #SCOPE} on
+     * the given executor and waits until all of them are done.
+     * If the executor is {@code null}, then the bindings get constructed on
+     * the current thread.
+     *
+     * @throws ProvisionException if constructing any binding has failed.
+     *         The exception has the error messages of all failures.
+     */
+    static void construct(final Injector injector, final Executor executor) {
+        final Graph graph = new Graph(injector);
+        if (graph.scoped.isEmpty()) return;
+        final List<Message> errors = new ArrayList<Message>();
+        for (Collection<Provider<?>> wave : graph.waves()) {
+            final List<FutureTask<Object>> tasks =
+                    new ArrayList<FutureTask<Object>>(wave.size());
+            for (final Provider<?> provider : wave) {
+                final FutureTask<Object> task = new FutureTask<Object>(
+                        new Callable<Object>() {
+                            @Override public Object call() {
+                                return provider.get();
+                            }
+                        });
+                if (null != executor && 1 < wave.size()) executor.execute(task);
+                tasks.add(task);
+            }
+            for (FutureTask<Object> task : tasks) {
+                // Run the task on this thread unless it has already been
+                // started in order to prevent starvation.
+                task.run();
+                errors.addAll(errors(task));
+            }
+        }
+        if (!errors.isEmpty()) throw new ProvisionException(errors);
+    }
+
+    private static List<Message> errors(final Future<?> future) {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    future.get();
+                    return Collections.emptyList();
+                } catch (InterruptedException ex) {
+                    interrupted = true;
+                } catch (ExecutionException ex) {
+                    final Throwable cause = ex.getCause();
+                    if (cause instanceof ProvisionException)
+                        return new ArrayList<Message>(
+                                ((ProvisionException) cause).getErrorMessages());
+                    return Collections.singletonList(new Message(
+                            Collections.emptyList(), cause.toString(), cause));
+                }
+            }
+        } finally {
+            if (interrupted) Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Returns true if the given module may configure any binding in the
+     * {@link #SCOPE}.
+     * This is conservative for modules which haven't been built by a
+     * {@link ModuleBuilder}.
+     */
+    static boolean isUsedBy(final Module module) {
+        if (module instanceof CompiledModule) {
+            final CompiledModule compiled = (CompiledModule) module;
+            for (BindingDefinition definition : compiled.definitions)
+                if (SCOPE == definition.scope)
+                    return true;
+            for (Module nested : compiled.modules)
+                if (isUsedBy(nested))
+                    return true;
+            return false;
+        } else if (module instanceof ParallelModule) {
+            for (Module nested : ((ParallelModule) module).modules)
+                if (isUsedBy(nested))
+                    return true;
+            return false;
+        } else if (module instanceof BulkModule) {
+            return ((BulkModule) module).isIn(SCOPE);
+        } else {
+            return !(module instanceof ConstantsModule
+                    || module instanceof CollectionModule);
+        }
+    }
+
+    /**
+     * Returns true if the given element is or contains a binding in the
+     * {@link #SCOPE}.
+     */
+    static boolean isUsedBy(final Element element) {
+        if (element instanceof Binding)
+            return isAsync((Binding<?>) element);
+        if (element instanceof PrivateElements)
+            for (Element nested : ((PrivateElements) element).getElements())
+                if (isUsedBy(nested))
+                    return true;
+        return false;
+    }
+
+    private static boolean isAsync(final Binding<?> binding) {
+        return binding.acceptScopingVisitor(
+                new DefaultBindingScopingVisitor<Boolean>() {
+                    @Override
+                    public Boolean visitScope(Scope scope) {
+                        return SCOPE == scope;
+                    }
+
+                    @Override
+                    protected Boolean visitOther() { return false; }
+                });
+    }
+
+    /**
+     * The binding graph of an injector, including the private environments
+     * which expose any bindings.
+     */
+    private static final class Graph {
+
+        /**
+         * The nodes of the bindings by environment and key.
+         * The same key may be bound in different private environments.
+         */
+        private final Map<Injector, Map<Key<?>, Node>>
+                nodes = new HashMap<Injector, Map<Key<?>, Node>>();
+
+        /** The nodes of the bindings in the {@link #SCOPE}. */
+        final List<Node> scoped = new ArrayList<Node>();
+
+        Graph(final Injector injector) {
+            for (Injector environment : BindingGraph.injectors(injector)) {
+                final Map<Key<?>, Node> bindings = new HashMap<Key<?>, Node>();
+                for (Binding<?> binding : environment.getAllBindings().values()) {
+                    if (binding instanceof ExposedBinding) continue;
+                    final Node node = new Node(binding, environment);
+                    bindings.put(binding.getKey(), node);
+                    if (isAsync(binding)) scoped.add(node);
+                }
+                nodes.put(environment, bindings);
+            }
+        }
+
+        /** Sorts the providers of the scoped bindings into waves. */
+        List<Collection<Provider<?>>> waves() {
+            final Map<Node, Set<Node>> dependencies = dependencies();
+            final List<Collection<Provider<?>>> waves =
+                    new ArrayList<Collection<Provider<?>>>();
+            final Set<Node> done = new HashSet<Node>();
+            while (done.size() < scoped.size()) {
+                final List<Node> wave = new ArrayList<Node>();
+                for (Map.Entry<Node, Set<Node>> entry : dependencies.entrySet())
+                    if (!done.contains(entry.getKey())
+                            && done.containsAll(entry.getValue()))
+                        wave.add(entry.getKey());
+                if (wave.isEmpty()) {
+                    // Circular dependencies - construct them sequentially.
+                    for (Node node : scoped)
+                        if (!done.contains(node))
+                            waves.add(Collections.<Provider<?>>singleton(
+                                    node.binding.getProvider()));
+                    break;
+                }
+                final List<Provider<?>> providers =
+                        new ArrayList<Provider<?>>(wave.size());
+                for (Node node : wave)
+                    providers.add(node.binding.getProvider());
+                waves.add(providers);
+                done.addAll(wave);
+            }
+            return waves;
+        }
+
+        /**
+         * Returns the dependencies of each scoped node on other scoped
+         * nodes, including indirect dependencies via nodes which are not
+         * scoped.
+         */
+        private Map<Node, Set<Node>> dependencies() {
+            final Set<Node> scoped = new HashSet<Node>(this.scoped);
+            final Map<Node, Set<Node>> dependencies =
+                    new LinkedHashMap<Node, Set<Node>>();
+            for (Node node : this.scoped) {
+                final Set<Node> found = new HashSet<Node>();
+                final Set<Node> visited = new HashSet<Node>();
+                visited.add(node);
+                final Deque<Node> stack = new ArrayDeque<Node>();
+                stack.push(node);
+                while (!stack.isEmpty()) {
+                    final Node next = stack.pop();
+                    for (Key<?> dependency : BindingGraph.dependencies(next.binding)) {
+                        final Node child = node(dependency, next.injector);
+                        if (null == child || !visited.add(child)) continue;
+                        if (scoped.contains(child)) found.add(child);
+                        else stack.push(child);
+                    }
+                }
+                dependencies.put(node, found);
+            }
+            return dependencies;
+        }
+
+        /**
+         * Returns the node of the binding for the given key which is visible
+         * in the given environment or {@code null} if there is none.
+         */
+        private Node node(final Key<?> key, final Injector environment) {
+            for (Injector i = environment; null != i; i = i.getParent()) {
+                final Map<Key<?>, Node> bindings = nodes.get(i);
+                if (null == bindings) continue;
+                final Node node = bindings.get(key);
+                if (null != node) return node;
+            }
+            final Binding<?> binding = environment.getExistingBinding(key);
+            if (null == binding) return null;
+            if (binding instanceof ExposedBinding) {
+                final Injector exposing = ((ExposedBinding<?>) binding)
+                        .getPrivateElements().getInjector();
+                if (exposing != environment) return node(key, exposing);
+            }
+            return new Node(binding, environment);
+        }
+    }
+
+    /** A binding in its environment, which is equal by environment and key. */
+    private static final class Node {
+        final Binding<?> binding;
+        final Injector injector;
+
+        Node(final Binding<?> binding, final Injector injector) {
+            this.binding = binding;
+            this.injector = injector;
+        }
+
+        @Override public boolean equals(final Object obj) {
+            if (this == obj) return true;
+            if (!(obj instanceof Node)) return false;
+            final Node that = (Node) obj;
+            return this.injector == that.injector
+                    && this.binding.getKey().equals(that.binding.getKey());
+        }
+
+        @Override public int hashCode() {
+            return 31 * System.identityHashCode(injector)
+                    + binding.getKey().hashCode();
+        }
+    }
+}
@@ -0,0 +1,462 @@
+/*
+ * Copyright (C) 2013 Schlichtherle IT Services.
+ * All rights reserved. Use is subject to license terms.
+ */
+package net.java.guicer;
+
+import com.google.inject.*;
+import com.google.inject.binder.ConstantBindingBuilder;
+import com.google.inject.binder.LinkedBindingBuilder;
+import com.google.inject.binder.ScopedBindingBuilder;
+import com.google.inject.spi.Dependency;
+import com.google.inject.spi.HasDependencies;
+import com.google.inject.util.Types;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.*;
+import java.security.AccessController;
+import java.security.PrivilegedAction;
+import java.util.Collections;
+import java.util.Set;
+
+/**
+ * An immutable definition of a binding and/or an exposing.
+ * Each chain of configuration steps in a {@link ModuleBuilder} gets compiled
+ * into one instance of this class when calling {@link Injection#inject()}.
+ *
+ * @author Christian Schlichtherle
+ */
+final class BindingDefinition {
+
+    /** The kind of the target of a binding. */
+    enum Target {
+        NONE, KEY, INSTANCE, PROVIDER, PROVIDER_KEY, CONSTRUCTOR, CONSTANT
+    }
+
+    /** The bound and/or exposed key or {@code null} for constant bindings. */
+    final Key<?> key;
+
+    /**
+     * The annotation or annotation type for constant bindings or
+     * {@code null}.
+     */
+    final Object annotation;
+
+    final Target target;
+
+    /**
+     * The target key, instance, provider, provider key, constructor or
+     * constant value, depending on {@link #target}.
+     */
+    final Object value;
+
+    /** The type to construct for {@link Target#CONSTRUCTOR} targets. */
+    final TypeLiteral<?> constructed;
+
+    /** The scope or scope annotation type or {@code null}. */
+    final Object scope;
+
+    final boolean eager, exposed, bound;
+
+    /** Whether the key gets bound to a proxy which provides the target lazily. */
+    final boolean lazy;
+
+    /** The metrics for metering the provisions or {@code null}. */
+    final ProvisionMetrics metrics;
+
+    /** The maximum size of the bound {@link Pool} or zero. */
+    final int pool;
+
+    BindingDefinition(final Draft draft) {
+        this.key = draft.key();
+        this.annotation = draft.annotation;
+        this.target = draft.target;
+        this.value = draft.value;
+        this.constructed = draft.constructed;
+        this.scope = draft.scope;
+        this.eager = draft.eager;
+        this.exposed = draft.exposed;
+        this.bound = draft.bound;
+        this.lazy = draft.lazy;
+        this.metrics = draft.metrics;
+        this.pool = draft.pool;
+    }
+
+    boolean isConstant() { return null == key; }
+
+    boolean isSingleton() { return isSingleton(scope); }
+
+    /** Returns true if and only if the given scope is a singleton scope. */
+    static boolean isSingleton(final Object scope) {
+        return Singleton.class == scope
+                || javax.inject.Singleton.class == scope
+                || Scopes.SINGLETON == scope;
+    }
+
+    /** Returns true if and only if a startup report should time this binding. */
+    private boolean isTimed() {
+        return isSingleton()
+                || GuicerScopes.LAZY_SINGLETON == scope
+                || GuicerScopes.CONCURRENT_SINGLETON == scope;
+    }
+
+    /** Returns a copy of this definition with the given scope. */
+    BindingDefinition withScope(Object scope) {
+        final Draft draft = new Draft(this);
+        draft.scope = scope;
+        return draft.toDefinition();
+    }
+
+    /** Returns a copy of this definition with the given exposing. */
+    BindingDefinition withExposed(boolean exposed) {
+        final Draft draft = new Draft(this);
+        draft.exposed = exposed;
+        return draft.toDefinition();
+    }
+
+    /** Returns a copy of this definition with the given metrics. */
+    BindingDefinition withMetrics(ProvisionMetrics metrics) {
+        final Draft draft = new Draft(this);
+        draft.metrics = metrics;
+        return draft.toDefinition();
+    }
+
+    /** Returns true if and only if this definition can get metered. */
+    boolean isMeterable() {
+        return bound && !isConstant() && Target.INSTANCE != target;
+    }
+
+    /**
+     * Returns true if and only if the given definition installs the same
+     * binding and/or exposing.
+     * Instances, providers and metrics get compared with their
+     * {@code equals} method.
+     * This is not {@link #equals(Object)} because Guice would skip
+     * installing equal modules.
+     */
+    boolean sameAs(final BindingDefinition that) {
+        return equal(this.key, that.key)
+                && equal(this.annotation, that.annotation)
+                && this.target == that.target
+                && equal(this.value, that.value)
+                && equal(this.constructed, that.constructed)
+                && equal(this.scope, that.scope)
+                && this.eager == that.eager
+                && this.exposed == that.exposed
+                && this.bound == that.bound
+                && this.lazy == that.lazy
+                && equal(this.metrics, that.metrics)
+                && this.pool == that.pool;
+    }
+
+    private static boolean equal(final Object a, final Object b) {
+        return a == b || null != a && a.equals(b);
+    }
+
+    void installTo(final Binder binder) {
+        if (exposed) ((PrivateBinder) binder).expose(key);
+        if (isConstant()) bindConstant(binder);
+        else if (bound) bind(binder);
+        if (0 < pool) bindPool(binder);
+    }
+
+    /** Returns the key of the pool for the bound key. */
+    @SuppressWarnings("unchecked")
+    Key<Pool<?>> poolKey() {
+        final TypeLiteral<Pool<?>> type = (TypeLiteral<Pool<?>>) TypeLiteral.get(
+                Types.newParameterizedType(Pool.class, key.getTypeLiteral().getType()));
+        if (null != key.getAnnotation())
+            return Key.get(type, key.getAnnotation());
+        else if (null != key.getAnnotationType())
+            return Key.get(type, key.getAnnotationType());
+        else
+            return Key.get(type);
+    }
+
+    private void bindPool(final Binder binder) {
+        final Key<Pool<?>> poolKey = poolKey();
+        if (exposed) ((PrivateBinder) binder).expose(poolKey);
+        binder.bind(poolKey)
+                .toProvider(new PoolProvider(key, binder.getProvider(key), pool))
+                .in(Scopes.SINGLETON);
+    }
+
+    /** Provides a new pool for each injector. */
+    private static final class PoolProvider
+    implements Provider<Pool<?>>, HasDependencies {
+        private final Key<?> key;
+        private final Provider<?> provider;
+        private final int maxSize;
+
+        PoolProvider(
+                final Key<?> key,
+                final Provider<?> provider,
+                final int maxSize) {
+            this.key = key;
+            this.provider = provider;
+            this.maxSize = maxSize;
+        }
+
+        @Override public Pool<?> get() {
+            return new Pool<Object>(provider, maxSize);
+        }
+
+        @Override public Set<Dependency<?>> getDependencies() {
+            return Collections.<Dependency<?>>singleton(Dependency.get(key));
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void bind(Binder binder) {
+        final Key<?> bound;
+        if (lazy) {
+            if (!key.getTypeLiteral().getRawType().isInterface()) {
+                binder.addError("Lazy binding of %s requires an interface.", key);
+                return;
+            }
+            if (Target.NONE == target) {
+                binder.addError("Lazy binding of %s requires a target.", key);
+                return;
+            }
+            bound = UniqueKeys.next(key.getTypeLiteral());
+            final Binder hidden = binder.withSource(key);
+            binder.bind((Key<Object>) key).toProvider(new LazyProvider(
+                    key.getTypeLiteral().getRawType(), bound,
+                    hidden.getProvider(bound)));
+            // Recording the source of each binding is expensive, so the
+            // hidden binding reuses the key as its source.
+            binder = hidden;
+        } else {
+            bound = key;
+        }
+        final LinkedBindingBuilder<Object> linked =
+                (LinkedBindingBuilder<Object>) binder.bind(bound);
+        final ScopedBindingBuilder scoped;
+        if (null != metrics) scoped = metrics.bind(binder, linked, this);
+        else switch (target) {
+            case KEY:
+                scoped = linked.to((Key<Object>) value);
+                break;
+            case INSTANCE:
+                linked.toInstance(value);
+                return;
+            case PROVIDER:
+                scoped = linked.toProvider((Provider<Object>) value);
+                break;
+            case PROVIDER_KEY:
+                scoped = linked.toProvider(
+                        (Key<javax.inject.Provider<Object>>) value);
+                break;
+            case CONSTRUCTOR:
+                scoped = linked.toConstructor((Constructor<Object>) value,
+                        (TypeLiteral<Object>) constructed);
+                break;
+            default:
+                scoped = linked;
+        }
+        final StartupReport report = StartupReport.current();
+        if (null != report && (eager || isTimed()))
+            report.singleton(binder, bound, scoped, eager ? null : scope);
+        else if (eager) scoped.asEagerSingleton();
+        else if (scope instanceof Scope) scoped.in((Scope) scope);
+        else if (null != scope)
+            scoped.in((Class<? extends Annotation>) scope);
+    }
+
+    /**
+     * Provides a new proxy for the interface of a lazy binding.
+     * Each proxy provides its target on the first method call.
+     */
+    private static final class LazyProvider
+    implements Provider<Object>, HasDependencies {
+        private final Constructor<?> constructor;
+        private final Key<?> key;
+        private final Provider<?> provider;
+
+        LazyProvider(
+                final Class<?> type,
+                final Key<?> key,
+                final Provider<?> provider) {
+            try {
+                // The proxy class isn't public if the interface isn't public.
+                this.constructor = accessible(Proxy
+                        .getProxyClass(type.getClassLoader(), type)
+                        .getConstructor(InvocationHandler.class));
+            } catch (NoSuchMethodException ex) {
+                throw new AssertionError(ex);
+            }
+            this.key = key;
+            this.provider = provider;
+        }
+
+        @Override public Object get() {
+            try {
+                return constructor.newInstance(new LazyHandler(provider));
+            } catch (InvocationTargetException ex) {
+                throw new ProvisionException(ex.getCause().toString(), ex.getCause());
+            } catch (Exception ex) {
+                throw new AssertionError(ex);
+            }
+        }
+
+        @Override public Set<Dependency<?>> getDependencies() {
+            return Collections.<Dependency<?>>singleton(Dependency.get(key));
+        }
+    }
+
+    /**
+     * Delegates all method calls to a target which gets provided once.
+     * Lazy proxies get unwrapped when comparing them with {@code equals}, so
+     * that a proxy is equal to itself and to any other proxy for an equal
+     * target.
+     */
+    private static final class LazyHandler implements InvocationHandler {
+        private static final Method EQUALS;
+
+        static {
+            try {
+                EQUALS = Object.class.getMethod("equals", Object.class);
+            } catch (NoSuchMethodException ex) {
+                throw new AssertionError(ex);
+            }
+        }
+
+        private Provider<?> provider;
+        private volatile Object target;
+
+        LazyHandler(final Provider<?> provider) { this.provider = provider; }
+
+        private Object target() {
+            Object target = this.target;
+            if (null == target) {
+                synchronized (this) {
+                    target = this.target;
+                    if (null == target) {
+                        this.target = target = provider.get();
+                        provider = null;
+                    }
+                }
+            }
+            return target;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args)
+        throws Throwable {
+            // The proxy class passes the same method objects on each call,
+            // so this makes the methods of non-public interfaces accessible
+            // only once.
+            if (EQUALS.equals(method))
+                return proxy == args[0] || target().equals(unwrap(args[0]));
+            if (!method.isAccessible()) accessible(method);
+            try {
+                return method.invoke(target(), args);
+            } catch (InvocationTargetException ex) {
+                throw ex.getCause();
+            }
+        }
+
+        /** Returns the target of the given object if it's a lazy proxy. */
+        private static Object unwrap(final Object object) {
+            if (null != object && Proxy.isProxyClass(object.getClass())) {
+                final InvocationHandler handler =
+                        Proxy.getInvocationHandler(object);
+                if (handler instanceof LazyHandler)
+                    return ((LazyHandler) handler).target();
+            }
+            return object;
+        }
+    }
+
+    private static <T extends AccessibleObject> T accessible(final T object) {
+        return AccessController.doPrivileged(new PrivilegedAction<T>() {
+            @Override public T run() {
+                object.setAccessible(true);
+                return object;
+            }
+        });
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private void bindConstant(final Binder binder) {
+        final ConstantBindingBuilder builder;
+        if (annotation instanceof Annotation)
+            builder = binder.bindConstant().annotatedWith((Annotation) annotation);
+        else if (null != annotation)
+            builder = binder.bindConstant().annotatedWith(
+                    (Class<? extends Annotation>) annotation);
+        else {
+            binder.bindConstant();
+            return;
+        }
+        if (Target.CONSTANT != target) return;
+        if (value instanceof String) builder.to((String) value);
+        else if (value instanceof Integer) builder.to((Integer) value);
+        else if (value instanceof Long) builder.to((Long) value);
+        else if (value instanceof Boolean) builder.to((Boolean) value);
+        else if (value instanceof Double) builder.to((Double) value);
+        else if (value instanceof Float) builder.to((Float) value);
+        else if (value instanceof Short) builder.to((Short) value);
+        else if (value instanceof Character) builder.to((Character) value);
+        else if (value instanceof Byte) builder.to((Byte) value);
+        else if (value instanceof Class) builder.to((Class<?>) value);
+        else builder.to((Enum) value);
+    }
+
+    /**
+     * A mutable draft of a binding definition.
+     * Each configuration step in a chain contributes to the draft.
+     */
+    static final class Draft {
+        /** The class, type literal or key to bind or expose. */
+        Object source;
+        Object annotation;
+        Target target = Target.NONE;
+        Object value;
+        TypeLiteral<?> constructed;
+        Object scope;
+        boolean eager, exposed, bound, constant, lazy;
+        ProvisionMetrics metrics;
+        int pool;
+
+        Draft() { }
+
+        /** Creates a draft from the properties of the given definition. */
+        Draft(final BindingDefinition definition) {
+            this.source = definition.key;
+            this.annotation = definition.annotation;
+            this.target = definition.target;
+            this.value = definition.value;
+            this.constructed = definition.constructed;
+            this.scope = definition.scope;
+            this.eager = definition.eager;
+            this.exposed = definition.exposed;
+            this.bound = definition.bound;
+            this.constant = definition.isConstant();
+            this.lazy = definition.lazy;
+            this.metrics = definition.metrics;
+            this.pool = definition.pool;
+        }
+
+        void target(final Target target, final Object value) {
+            this.target = target;
+            this.value = value;
+        }
+
+        @SuppressWarnings("unchecked")
+        Key<?> key() {
+            if (constant) return null;
+            if (source instanceof Key) return (Key<?>) source;
+            final TypeLiteral<?> literal = source instanceof TypeLiteral
+                    ? (TypeLiteral<?>) source
+                    : TypeLiteral.get((Class<?>) source);
+            if (annotation instanceof Annotation)
+                return Key.get(literal, (Annotation) annotation);
+            else if (null != annotation)
+                return Key.get(literal, (Class<? extends Annotation>) annotation);
+            else
+                return Key.get(literal);
+        }
+
+        BindingDefinition toDefinition() { return new BindingDefinition(this); }
+    }
+}
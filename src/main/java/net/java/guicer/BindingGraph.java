@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2013 Schlichtherle IT Services.
+ * All rights reserved. Use is subject to license terms.
+ */
+package net.java.guicer;
+
+import com.google.inject.Binding;
+import com.google.inject.Injector;
+import com.google.inject.Key;
+import com.google.inject.spi.*;
+import java.util.*;
+
+/**
+ * Utility methods for walking the binding graph of an injector.
+ *
+ * @author Christian Schlichtherle
+ */
+final class BindingGraph {
+
+    /**
+     * Returns the given injector and the injectors of all private
+     * environments which expose any bindings to it, directly or indirectly.
+     */
+    static List<Injector> injectors(final Injector injector) {
+        final Set<Injector> injectors = Collections.newSetFromMap(
+                new IdentityHashMap<Injector, Boolean>());
+        final List<Injector> list = new ArrayList<Injector>();
+        final Deque<Injector> stack = new ArrayDeque<Injector>();
+        stack.push(injector);
+        while (!stack.isEmpty()) {
+            final Injector next = stack.pop();
+            if (!injectors.add(next)) continue;
+            list.add(next);
+            for (Binding<?> binding : next.getAllBindings().values())
+                if (binding instanceof ExposedBinding)
+                    stack.push(((ExposedBinding<?>) binding)
+                            .getPrivateElements().getInjector());
+        }
+        return list;
+    }
+
+    /** Returns the keys which the given binding directly depends on. */
+    static Collection<Key<?>> dependencies(final Binding<?> binding) {
+        if (binding instanceof LinkedKeyBinding)
+            return Collections.<Key<?>>singleton(
+                    ((LinkedKeyBinding<?>) binding).getLinkedKey());
+        if (binding instanceof ProviderKeyBinding)
+            return Collections.<Key<?>>singleton(
+                    ((ProviderKeyBinding<?>) binding).getProviderKey());
+        if (binding instanceof HasDependencies) {
+            final Set<Dependency<?>> dependencies =
+                    ((HasDependencies) binding).getDependencies();
+            final List<Key<?>> keys = new ArrayList<Key<?>>(dependencies.size());
+            for (Dependency<?> dependency : dependencies)
+                keys.add(dependency.getKey());
+            return keys;
+        }
+        return Collections.emptySet();
+    }
+
+    private BindingGraph() { }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2013 Schlichtherle IT Services.
+ * All rights reserved. Use is subject to license terms.
+ */
+package net.java.guicer;
+
+import java.io.*;
+import java.lang.annotation.Annotation;
+import java.net.URL;
+import java.util.*;
+
+/**
+ * Reads the binding index which gets written by the {@link IndexedProcessor}.
+ *
+ * @author Christian Schlichtherle
+ */
+final class BindingIndex {
+
+    /** An entry of the binding index. */
+    static final class Entry {
+        final Class<?> type, implementation;
+
+        /** The scope annotation type or {@code null}. */
+        final Class<? extends Annotation> scope;
+
+        /** The name for {@code @Named} or {@code null}. */
+        final String name;
+
+        Entry(
+                final Class<?> type,
+                final Class<?> implementation,
+                final Class<? extends Annotation> scope,
+                final String name) {
+            this.type = type;
+            this.implementation = implementation;
+            this.scope = scope;
+            this.name = name;
+        }
+    }
+
+    /**
+     * Reads all binding index resources which are visible to the given class
+     * loader.
+     * Entries which are listed more than once are returned only once.
+     */
+    static List<Entry> read(final ClassLoader loader)
+    throws IOException, ClassNotFoundException {
+        final Set<String> lines = new LinkedHashSet<String>();
+        for (final Enumeration<URL> e = loader.getResources(IndexedProcessor.INDEX);
+                e.hasMoreElements(); ) {
+            final BufferedReader in = new BufferedReader(new InputStreamReader(
+                    e.nextElement().openStream(), "UTF-8"));
+            try {
+                for (String line; null != (line = in.readLine()); )
+                    if (!line.isEmpty()) lines.add(line);
+            } finally {
+                in.close();
+            }
+        }
+        final List<Entry> entries = new ArrayList<Entry>(lines.size());
+        for (String line : lines) {
+            final String[] fields = line.split("\t", -1);
+            if (4 != fields.length)
+                throw new IOException("Malformed binding index entry: " + line);
+            entries.add(new Entry(
+                    load(fields[0], loader),
+                    load(fields[1], loader),
+                    fields[2].isEmpty()
+                        ? null
+                        : load(fields[2], loader).asSubclass(Annotation.class),
+                    fields[3].isEmpty() ? null : fields[3]));
+        }
+        return entries;
+    }
+
+    private static Class<?> load(String name, ClassLoader loader)
+    throws ClassNotFoundException {
+        return Class.forName(name, false, loader);
+    }
+
+    private BindingIndex() { }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2013 Schlichtherle IT Services.
+ * All rights reserved. Use is subject to license terms.
+ */
+package net.java.guicer;
+
+import com.google.inject.Key;
+import java.lang.annotation.Annotation;
+
+/**
+ * An immutable specification of a binding of a key to an implementation
+ * class in a scope.
+ * Use this with {@link ModuleBuilder#bindAll(Iterable)} in order to add
+ * many bindings which have been generated from metadata.
+ *
+ * @param  <Type> the bound type.
+ * @author Christian Schlichtherle
+ */
+public final class BindingSpec<Type> {
+
+    private final Key<Type> key;
+    private final Class<? extends Type> implementation;
+    private final Class<? extends Annotation> scope;
+
+    /**
+     * Specifies a binding of the given type to the given implementation
+     * without a scope.
+     */
+    public BindingSpec(
+            final Class<Type> type,
+            final Class<? extends Type> implementation) {
+        this(Key.get(type), implementation, null);
+    }
+
+    /**
+     * Specifies a binding of the given key to the given implementation in the
+     * given scope.
+     *
+     * @param scope the scope annotation or {@code null} for no scope.
+     */
+    public BindingSpec(
+            final Key<Type> key,
+            final Class<? extends Type> implementation,
+            final Class<? extends Annotation> scope) {
+        if (null == key) throw new NullPointerException();
+        if (null == implementation) throw new NullPointerException();
+        this.key = key;
+        this.implementation = implementation;
+        this.scope = scope;
+    }
+
+    /** Returns the bound key. */
+    public Key<Type> key() { return key; }
+
+    /** Returns the implementation class. */
+    public Class<? extends Type> implementation() { return implementation; }
+
+    /** Returns the scope annotation or {@code null} for no scope. */
+    public Class<? extends Annotation> scope() { return scope; }
+
+    @Override public String toString() {
+        return "BindingSpec[key=" + key + ", implementation="
+                + implementation.getName() + ", scope="
+                + (null == scope ? null : scope.getName()) + "]";
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2013 Schlichtherle IT Services.
+ * All rights reserved. Use is subject to license terms.
+ */
+package net.java.guicer;
+
+import com.google.inject.*;
+import com.google.inject.binder.ScopedBindingBuilder;
+import java.lang.annotation.Annotation;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import net.java.guicer.BindingDefinition.Draft;
+import net.java.guicer.BindingDefinition.Target;
+
+/**
+ * A module which binds keys to implementation classes in scopes.
+ * The bindings are stored in parallel arrays and get configured in one pass
+ * with a single source for all of them, so recording many bindings doesn't
+ * require any stack traces.
+ *
+ * @see ModuleBuilder#bindAll(Iterable)
+ * @author Christian Schlichtherle
+ */
+final class BulkModule implements Module {
+
+    private final Object source;
+    private final Key<?>[] keys;
+    private final Class<?>[] implementations;
+
+    /** The scopes or scope annotation types or {@code null} for no scopes. */
+    private final Object[] scopes;
+
+    BulkModule(
+            final Object source,
+            final Key<?>[] keys,
+            final Class<?>[] implementations,
+            final Object[] scopes) {
+        assert keys.length == implementations.length;
+        assert null == scopes || keys.length == scopes.length;
+        this.source = source;
+        this.keys = keys;
+        this.implementations = implementations;
+        this.scopes = scopes;
+    }
+
+    /** Returns the number of bindings in this module. */
+    int size() { return keys.length; }
+
+    /** Returns the key of the binding with the given index. */
+    Key<?> key(int index) { return keys[index]; }
+
+    /** Returns true if and only if any binding in this module is in the given scope. */
+    boolean isIn(final Object scope) {
+        if (null != scopes)
+            for (Object s : scopes)
+                if (scope == s)
+                    return true;
+        return false;
+    }
+
+    /**
+     * Returns a module with the {@link GuicerScopes#LAZY_SINGLETON} scope
+     * instead of the singleton scopes.
+     */
+    BulkModule withLazySingletons() {
+        Object[] scopes = null;
+        if (null != this.scopes)
+            for (int i = 0; i < this.scopes.length; i++)
+                if (BindingDefinition.isSingleton(this.scopes[i])) {
+                    if (null == scopes) scopes = this.scopes.clone();
+                    scopes[i] = GuicerScopes.LAZY_SINGLETON;
+                }
+        return null == scopes
+                ? this
+                : new BulkModule(source, keys, implementations, scopes);
+    }
+
+    /**
+     * Returns a compiled module with an equivalent binding definition for
+     * each binding in this module.
+     * This is used for saving or generating this module.
+     */
+    CompiledModule compile() {
+        final List<BindingDefinition> definitions =
+                new ArrayList<BindingDefinition>(keys.length);
+        for (int i = 0; i < keys.length; i++) {
+            final Draft draft = new Draft();
+            draft.source = keys[i];
+            draft.bound = true;
+            draft.target(Target.KEY, Key.get(implementations[i]));
+            if (null != scopes) draft.scope = scopes[i];
+            definitions.add(draft.toDefinition());
+        }
+        return new CompiledModule(definitions,
+                Collections.<Module>emptyList());
+    }
+
+    @Override
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    public void configure(Binder binder) {
+        binder = binder.withSource(source);
+        final Key<?>[] keys = this.keys;
+        final Class<?>[] implementations = this.implementations;
+        final Object[] scopes = this.scopes;
+        for (int i = 0; i < keys.length; i++) {
+            final ScopedBindingBuilder scoped =
+                    binder.bind((Key) keys[i]).to((Class) implementations[i]);
+            final Object scope = null == scopes ? null : scopes[i];
+            if (scope instanceof Scope) scoped.in((Scope) scope);
+            else if (null != scope)
+                scoped.in((Class<? extends Annotation>) scope);
+        }
+    }
+
+    /**
+     * Returns true if and only if the given module has the same bindings in
+     * the same order.
+     */
+    boolean sameAs(final BulkModule that) {
+        return Arrays.equals(this.keys, that.keys)
+                && Arrays.equals(this.implementations, that.implementations)
+                && Arrays.equals(this.scopes, that.scopes);
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright (C) 2013 Schlichtherle IT Services.
+ * All rights reserved. Use is subject to license terms.
+ */
+package net.java.guicer;
+
+import com.google.inject.Key;
+import com.google.inject.Provider;
+import com.google.inject.Scope;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A scope which caches the provided instances for a time to live (TTL).
+ * Each binding in this scope has one entry per injector.
+ * An instance expires when its TTL has passed, so the next provision
+ * provides a new instance.
+ * If there are more than the maximum number of entries in this scope, then
+ * the entries which have been cached first get evicted.
+ * <p>
+ * When an instance is provided after 80 percent of its TTL, it gets
+ * refreshed ahead of its expiration:
+ * The first thread which notices this provides a new instance while all
+ * other threads keep getting the cached instance without blocking.
+ * Only threads which find no valid instance have to wait for a new one.
+ * If refreshing fails, then the cached instance is kept until it expires.
+ * <p>
+ * Unlike singletons, cached instances never get constructed eagerly.
+ * You can share an instance of this class between many bindings, e.g. with
+ * {@code in(cache)}, or use {@code cached(ttl, unit)} in a
+ * {@link ModuleBuilder} for a single binding.
+ * This class is thread-safe.
+ *
+ * @author Christian Schlichtherle
+ */
+public final class CachingScope implements Scope {
+
+    private final long ttlNanos, refreshNanos;
+    private final int maxEntries;
+    private final Queue<CachingProvider<?>>
+            entries = new ConcurrentLinkedQueue<CachingProvider<?>>();
+    private final AtomicInteger size = new AtomicInteger();
+    private final AtomicLong
+            hits = new AtomicLong(),
+            misses = new AtomicLong(),
+            evictions = new AtomicLong();
+
+    /**
+     * Constructs a caching scope.
+     *
+     * @param ttl the time to live for cached instances.
+     * @param unit the unit of {@code ttl}.
+     * @param maxEntries the maximum number of entries in this scope.
+     * @throws IllegalArgumentException if {@code ttl} or {@code maxEntries}
+     *         is not positive.
+     */
+    public CachingScope(
+            final long ttl,
+            final TimeUnit unit,
+            final int maxEntries) {
+        if (0 >= ttl) throw new IllegalArgumentException("ttl = " + ttl);
+        if (0 >= maxEntries)
+            throw new IllegalArgumentException("maxEntries = " + maxEntries);
+        this.ttlNanos = unit.toNanos(ttl);
+        this.refreshNanos = ttlNanos - ttlNanos / 5;
+        this.maxEntries = maxEntries;
+    }
+
+    @Override
+    public <T> Provider<T> scope(Key<T> key, Provider<T> unscoped) {
+        return new CachingProvider<T>(unscoped);
+    }
+
+    /** Returns the number of provisions of cached instances. */
+    public long hits() { return hits.get(); }
+
+    /** Returns the number of provisions which provided a new instance. */
+    public long misses() { return misses.get(); }
+
+    /**
+     * Returns the number of entries which have been evicted because there
+     * were too many entries.
+     */
+    public long evictions() { return evictions.get(); }
+
+    /** Returns the current number of entries in this scope. */
+    public int size() { return size.get(); }
+
+    @Override public String toString() {
+        return String.format(
+                "CachingScope[ttl=%dms, maxEntries=%d, size=%d, hits=%d, misses=%d, evictions=%d]",
+                TimeUnit.NANOSECONDS.toMillis(ttlNanos), maxEntries, size(),
+                hits(), misses(), evictions());
+    }
+
+    private void added(final CachingProvider<?> provider) {
+        entries.add(provider);
+        size.incrementAndGet();
+        while (size.get() > maxEntries) {
+            final CachingProvider<?> victim = entries.poll();
+            if (null == victim) break;
+            if (victim.evict()) {
+                evictions.incrementAndGet();
+                size.decrementAndGet();
+            }
+        }
+    }
+
+    /** A cached instance. */
+    private static final class Entry {
+        final Object instance;
+        final long created;
+
+        Entry(final Object instance, final long created) {
+            this.instance = instance;
+            this.created = created;
+        }
+    }
+
+    private final class CachingProvider<T> implements Provider<T> {
+        private final Provider<T> unscoped;
+        private final AtomicReference<Entry> entry = new AtomicReference<Entry>();
+        private final AtomicBoolean refreshing = new AtomicBoolean();
+        private final Lock lock = new ReentrantLock();
+
+        CachingProvider(final Provider<T> unscoped) {
+            this.unscoped = unscoped;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public T get() {
+            Entry entry = this.entry.get();
+            final long now = System.nanoTime();
+            if (null != entry && now - entry.created < ttlNanos) {
+                if (now - entry.created >= refreshNanos
+                        && refreshing.compareAndSet(false, true)) {
+                    try {
+                        final Entry refreshed = create();
+                        // Don't resurrect an evicted entry.
+                        if (this.entry.compareAndSet(entry, refreshed))
+                            entry = refreshed;
+                    } catch (RuntimeException ex) {
+                        // The cached instance is still valid, so keep it.
+                        // Failing again on expiration reports the error.
+                    } finally {
+                        refreshing.set(false);
+                    }
+                } else {
+                    hits.incrementAndGet();
+                }
+                return (T) entry.instance;
+            }
+            lock.lock();
+            try {
+                entry = this.entry.get();
+                if (null == entry || System.nanoTime() - entry.created >= ttlNanos) {
+                    final Entry created = create();
+                    if (null == this.entry.getAndSet(created))
+                        added(this);
+                    entry = created;
+                } else {
+                    hits.incrementAndGet();
+                }
+                return (T) entry.instance;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private Entry create() {
+            misses.incrementAndGet();
+            return new Entry(unscoped.get(), System.nanoTime());
+        }
+
+        boolean evict() { return null != entry.getAndSet(null); }
+
+        @Override public String toString() {
+            return unscoped + "[" + CachingScope.this + "]";
+        }
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2013 Schlichtherle IT Services.
+ * All rights reserved. Use is subject to license terms.
+ */
+package net.java.guicer;
+
+import com.google.inject.*;
+import com.google.inject.spi.Dependency;
+import com.google.inject.spi.HasDependencies;
+import java.util.*;
+
+/**
+ * A module which binds an immutable set or map of elements.
+ * Each element is either provided by the binding for a key or an instance.
+ * The collection gets built once per injector and is backed by arrays, so
+ * injecting it doesn't copy it.
+ *
+ * @see ModuleBuilder#bindSet(Key)
+ * @see ModuleBuilder#bindMap(TypeLiteral, Key)
+ * @author Christian Schlichtherle
+ */
+final class CollectionModule implements Module {
+
+    private final Object source;
+
+    /** The key of the set or map. */
+    final Key<?> key;
+
+    /** The keys of the map or {@code null} for a set. */
+    final ArraySet<?> mapKeys;
+
+    /** The keys of the elements or {@code null} for instances. */
+    final Key<?>[] targets;
+
+    /** The instances or {@code null} for keys. */
+    final Object[] instances;
+
+    final Object scope;
+
+    CollectionModule(
+            final Object source,
+            final Key<?> key,
+            final ArraySet<?> mapKeys,
+            final Key<?>[] targets,
+            final Object[] instances,
+            final Object scope) {
+        assert targets.length == instances.length;
+        assert null == mapKeys || mapKeys.size() == targets.length;
+        this.source = source;
+        this.key = key;
+        this.mapKeys = mapKeys;
+        this.targets = targets;
+        this.instances = instances;
+        this.scope = scope;
+    }
+
+    /** Returns a module which binds the collection in the given scope. */
+    CollectionModule withScope(Object scope) {
+        return new CollectionModule(source, key, mapKeys, targets, instances,
+                scope);
+    }
+
+    /**
+     * Returns true if and only if the given map key is a string, a boxed
+     * primitive, an enum or a class, so that it can get saved or generated
+     * as a constant.
+     */
+    static boolean isConstant(final Object key) {
+        return key instanceof String || key instanceof Integer
+                || key instanceof Long || key instanceof Boolean
+                || key instanceof Double || key instanceof Float
+                || key instanceof Short || key instanceof Byte
+                || key instanceof Character || key instanceof Enum
+                || key instanceof Class;
+    }
+
+    @Override
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    public void configure(Binder binder) {
+        binder = binder.withSource(source);
+        final Key<?>[] targets = this.targets;
+        final Provider<?>[] providers = new Provider<?>[targets.length];
+        for (int i = 0; i < targets.length; i++) {
+            if (null != targets[i]) providers[i] = binder.getProvider(targets[i]);
+            else binder.requestInjection(instances[i]);
+        }
+        binder.bind((Key) key)
+                .toProvider(new CollectionProvider(this, providers))
+                .in((Scope) scope);
+    }
+
+    private static final class CollectionProvider
+    implements Provider<Object>, HasDependencies {
+        final CollectionModule module;
+        final Provider<?>[] providers;
+
+        CollectionProvider(
+                final CollectionModule module,
+                final Provider<?>[] providers) {
+            this.module = module;
+            this.providers = providers;
+        }
+
+        @Override
+        @SuppressWarnings({ "unchecked", "rawtypes" })
+        public Object get() {
+            final Provider<?>[] providers = this.providers;
+            final Object[] elements = new Object[providers.length];
+            for (int i = 0; i < providers.length; i++) {
+                final Object element = null == providers[i]
+                        ? module.instances[i]
+                        : providers[i].get();
+                if (null == element)
+                    throw new ProvisionException(
+                            "Null element #" + i + " for " + module.key);
+                elements[i] = element;
+            }
+            if (null != module.mapKeys)
+                return new ArrayMap(module.mapKeys, elements);
+            try {
+                return new ArraySet<Object>(elements);
+            } catch (IllegalArgumentException ex) {
+                throw new ProvisionException(
+                        ex.getMessage() + " for " + module.key, ex);
+            }
+        }
+
+        @Override public Set<Dependency<?>> getDependencies() {
+            final Set<Dependency<?>> dependencies = new HashSet<Dependency<?>>();
+            for (Key<?> target : module.targets)
+                if (null != target) dependencies.add(Dependency.get(target));
+            return dependencies;
+        }
+    }
+}
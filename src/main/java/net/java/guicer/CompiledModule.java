@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2013 Schlichtherle IT Services.
+ * All rights reserved. Use is subject to license terms.
+ */
+package net.java.guicer;
+
+import com.google.inject.Binder;
+import com.google.inject.Key;
+import com.google.inject.Module;
+import java.util.*;
+
+/**
+ * A module which has been compiled from a {@link ModuleBuilder}.
+ * The binding definitions and modules are fixed at construction time, so
+ * this module configures the same bindings each time it's installed.
+ * If any binding definition exposes its key, then this module configures a
+ * private environment like a {@link com.google.inject.PrivateModule}.
+ * <p>
+ * However, if the private environment would expose all of its bindings,
+ * then it doesn't hide anything and only adds a level of indirection to
+ * every lookup.
+ * In this case, the exposings get removed and this module configures its
+ * bindings like a plain {@link com.google.inject.AbstractModule}.
+ * Because nested modules get compiled first, this flattens whole chains of
+ * nested private environments.
+ *
+ * @author Christian Schlichtherle
+ */
+final class CompiledModule implements Module {
+
+    final BindingDefinition[] definitions;
+    final Module[] modules;
+    final boolean exposing;
+
+    CompiledModule(
+            final List<BindingDefinition> definitions,
+            final List<Module> modules) {
+        final BindingDefinition[] array = definitions.toArray(
+                new BindingDefinition[definitions.size()]);
+        this.modules = modules.toArray(new Module[modules.size()]);
+        final boolean exposing = exposes(array);
+        if (exposing && exposesAll(array, this.modules)) {
+            this.definitions = unexposed(array);
+            this.exposing = false;
+        } else {
+            this.definitions = array;
+            this.exposing = exposing;
+        }
+    }
+
+    private static boolean exposes(final BindingDefinition[] definitions) {
+        for (BindingDefinition definition : definitions)
+            if (definition.exposed)
+                return true;
+        return false;
+    }
+
+    /**
+     * Returns true if and only if the given definitions expose each key
+     * which gets bound in the private environment of the given definitions
+     * and modules and only these keys.
+     * Exposing an unbound key must still fail like in a private module.
+     * Internal bindings for unique keys are ignored because they cannot
+     * collide with any other binding.
+     */
+    private static boolean exposesAll(
+            final BindingDefinition[] definitions,
+            final Module[] modules) {
+        final Set<Key<?>> exposed = new HashSet<Key<?>>();
+        final Set<Key<?>> bound = new HashSet<Key<?>>();
+        for (BindingDefinition definition : definitions) {
+            if (definition.exposed) add(exposed, definition);
+            if (definition.isConstant()) return false;
+            if (definition.bound) add(bound, definition);
+        }
+        return bound(bound, modules) && bound.equals(exposed);
+    }
+
+    /** Adds the keys which the given definition binds to the given set. */
+    private static void add(
+            final Set<Key<?>> keys,
+            final BindingDefinition definition) {
+        keys.add(definition.key);
+        if (0 < definition.pool) keys.add(definition.poolKey());
+    }
+
+    /**
+     * Adds the keys which the given modules bind to the given set.
+     * Returns false if any of the modules can bind unknown keys.
+     */
+    private static boolean bound(final Set<Key<?>> keys, final Module[] modules) {
+        for (Module module : modules) {
+            if (module instanceof CompiledModule) {
+                final CompiledModule compiled = (CompiledModule) module;
+                for (BindingDefinition definition : compiled.definitions) {
+                    if (compiled.exposing) {
+                        if (definition.exposed) add(keys, definition);
+                    } else {
+                        if (definition.isConstant()) return false;
+                        if (definition.bound) add(keys, definition);
+                    }
+                }
+                if (!compiled.exposing && !bound(keys, compiled.modules))
+                    return false;
+            } else if (module instanceof BulkModule) {
+                final BulkModule bulk = (BulkModule) module;
+                for (int i = 0; i < bulk.size(); i++)
+                    keys.add(bulk.key(i));
+            } else if (module instanceof ParallelModule) {
+                if (!bound(keys, ((ParallelModule) module).modules))
+                    return false;
+            } else {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the given definitions without their exposings.
+     * Definitions which only expose a key get removed.
+     */
+    private static BindingDefinition[] unexposed(
+            final BindingDefinition[] definitions) {
+        final List<BindingDefinition> unexposed =
+                new ArrayList<BindingDefinition>(definitions.length);
+        for (BindingDefinition definition : definitions)
+            if (!definition.exposed) unexposed.add(definition);
+            else if (definition.bound) unexposed.add(definition.withExposed(false));
+        return unexposed.toArray(new BindingDefinition[unexposed.size()]);
+    }
+
+    @Override public void configure(Binder binder) {
+        binder = binder.skipSources(CompiledModule.class, BindingDefinition.class);
+        if (exposing) binder = binder.newPrivateBinder();
+        for (BindingDefinition definition : definitions)
+            definition.installTo(binder);
+        for (Module module : modules)
+            binder.install(module);
+    }
+
+    /**
+     * Returns true if and only if the given modules configure the same
+     * bindings.
+     * Modules which have been built by a {@link ModuleBuilder} get compared
+     * structurally and any other modules with their {@code equals} method.
+     * This is used for finding the changed layers of a
+     * {@link ReloadableInjector}.
+     * These modules don't override {@link #equals(Object)} because Guice
+     * would skip installing equal modules, which would hide duplicate
+     * bindings.
+     */
+    static boolean same(final Module a, final Module b) {
+        if (a == b) return true;
+        if (a instanceof CompiledModule && b instanceof CompiledModule) {
+            final CompiledModule x = (CompiledModule) a, y = (CompiledModule) b;
+            if (x.exposing != y.exposing
+                    || x.definitions.length != y.definitions.length)
+                return false;
+            for (int i = 0; i < x.definitions.length; i++)
+                if (!x.definitions[i].sameAs(y.definitions[i]))
+                    return false;
+            return same(x.modules, y.modules);
+        }
+        if (a instanceof ParallelModule && b instanceof ParallelModule)
+            return same(((ParallelModule) a).modules,
+                    ((ParallelModule) b).modules);
+        if (a instanceof BulkModule && b instanceof BulkModule)
+            return ((BulkModule) a).sameAs((BulkModule) b);
+        if (a instanceof ConstantsModule && b instanceof ConstantsModule)
+            return ((ConstantsModule) a).sameAs((ConstantsModule) b);
+        return a.equals(b);
+    }
+
+    private static boolean same(final Module[] a, final Module[] b) {
+        if (a.length != b.length) return false;
+        for (int i = 0; i < a.length; i++)
+            if (!same(a[i], b[i]))
+                return false;
+        return true;
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2013 Schlichtherle IT Services.
+ * All rights reserved. Use is subject to license terms.
+ */
+package net.java.guicer;
+
+import com.google.inject.Binder;
+import com.google.inject.Module;
+import com.google.inject.name.Names;
+import java.io.*;
+import java.util.Arrays;
+
+/**
+ * A module which binds properties as constants which are annotated with
+ * {@link com.google.inject.name.Named}.
+ * The properties get either streamed from a file each time this module gets
+ * configured or have been parsed into a compact array before.
+ *
+ * @see ModuleBuilder#bindConstants(File)
+ * @author Christian Schlichtherle
+ */
+final class ConstantsModule implements Module {
+
+    private final Object source;
+
+    /** The file to read or {@code null} for the properties. */
+    final File file;
+
+    /** The alternating keys and values or {@code null} to read the file. */
+    final String[] properties;
+
+    ConstantsModule(final Object source, final File file) {
+        this.source = source;
+        this.file = file;
+        this.properties = null;
+    }
+
+    ConstantsModule(final Object source, final String[] properties) {
+        this.source = source;
+        this.file = null;
+        this.properties = properties;
+    }
+
+    /**
+     * Parses the properties from the given reader into a compact array.
+     * The reader doesn't get closed.
+     */
+    static String[] parse(final Reader in) throws IOException {
+        final ArrayBuilder builder = new ArrayBuilder();
+        PropertiesParser.parse(in, builder);
+        return builder.toArray();
+    }
+
+    @Override public void configure(Binder binder) {
+        final Binder constants = binder.withSource(source);
+        if (null == file) {
+            for (int i = 0; i < properties.length; i += 2)
+                bind(constants, properties[i], properties[i + 1]);
+            return;
+        }
+        try {
+            final Reader in = new InputStreamReader(
+                    new FileInputStream(file), "ISO-8859-1");
+            try {
+                PropertiesParser.parse(in, new PropertiesParser.Handler() {
+                    @Override public void property(String key, String value) {
+                        bind(constants, key, value);
+                    }
+                });
+            } finally {
+                in.close();
+            }
+        } catch (IOException ex) {
+            constants.addError(ex);
+        } catch (IllegalArgumentException ex) {
+            constants.addError("Cannot parse %s: %s", file, ex.getMessage());
+        }
+    }
+
+    /**
+     * Returns true if and only if the given module is this module or has
+     * parsed the same properties in the same order.
+     * A module which reads a file is only the same as itself because the
+     * contents of the file may change at any time.
+     */
+    boolean sameAs(final ConstantsModule that) {
+        return this == that
+                || null == this.file && null == that.file
+                    && Arrays.equals(this.properties, that.properties);
+    }
+
+    private static void bind(
+            final Binder binder,
+            final String key,
+            final String value) {
+        binder.bindConstant().annotatedWith(Names.named(key)).to(value);
+    }
+
+    private static final class ArrayBuilder
+    implements PropertiesParser.Handler {
+        private String[] properties = new String[32];
+        private int size;
+
+        @Override public void property(String key, String value) {
+            if (size + 2 > properties.length) {
+                final String[] grown = new String[properties.length * 2];
+                System.arraycopy(properties, 0, grown, 0, size);
+                properties = grown;
+            }
+            properties[size++] = key;
+            properties[size++] = value;
+        }
+
+        String[] toArray() {
+            final String[] array = new String[size];
+            System.arraycopy(properties, 0, array, 0, size);
+            return array;
+        }
+    }
+}
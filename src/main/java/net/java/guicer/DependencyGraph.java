@@ -0,0 +1,322 @@
+/*
+ * Copyright (C) 2013 Schlichtherle IT Services.
+ * All rights reserved. Use is subject to license terms.
+ */
+package net.java.guicer;
+
+import com.google.inject.*;
+import com.google.inject.spi.ExposedBinding;
+import java.util.*;
+import java.util.logging.Logger;
+import static net.java.guicer.StartupReport.string;
+
+/**
+ * An immutable snapshot of the binding dependency graph of an injector,
+ * including the private environments which expose any bindings.
+ * Each node is a bound key in its environment with its direct dependencies
+ * and, if a {@link StartupReport} has been given, the self time for
+ * constructing it.
+ * Exposed keys resolve to the nodes of their bindings in the private
+ * environments.
+ * <p>
+ * The critical path is the chain of dependencies with the largest sum of
+ * self times.
+ * The singletons on this path can only get constructed one after another,
+ * so it's the lower bound for constructing all singletons, even if they
+ * get constructed concurrently with {@code asEagerSingletonAsync()}.
+ * Making the bindings on this path lazy or cheaper reduces the startup time.
+ * <p>
+ * Use {@link #toDot()} in order to render the graph with Graphviz or
+ * {@link #toJson()} in order to process it with other tools.
+ *
+ * @author Christian Schlichtherle
+ */
+public final class DependencyGraph {
+
+    private final Injector injector;
+    private final List<Node> nodes;
+    private final Map<Injector, Map<Key<?>, Node>> bound;
+    private final Map<Injector, Map<Key<?>, Injector>> exposed;
+    private final List<Node> criticalPath;
+
+    private DependencyGraph(final Injector injector, final StartupReport report) {
+        final List<Injector> environments = BindingGraph.injectors(injector);
+        final Map<Injector, Map<Key<?>, Node>> bound =
+                new IdentityHashMap<Injector, Map<Key<?>, Node>>();
+        final Map<Injector, Map<Key<?>, Injector>> exposed =
+                new IdentityHashMap<Injector, Map<Key<?>, Injector>>();
+        final Map<Node, Binding<?>> bindings = new HashMap<Node, Binding<?>>();
+        final List<Node> nodes = new ArrayList<Node>();
+        for (int i = 0; i < environments.size(); i++) {
+            final Injector environment = environments.get(i);
+            final Map<Key<?>, Node> keys = new HashMap<Key<?>, Node>();
+            final Map<Key<?>, Injector> exposing =
+                    new HashMap<Key<?>, Injector>();
+            for (Binding<?> binding : environment.getAllBindings().values()) {
+                final Key<?> key = binding.getKey();
+                if (isBuiltIn(key)) continue;
+                if (binding instanceof ExposedBinding) {
+                    // Resolve the exposed key to the binding in the private
+                    // environment.
+                    exposing.put(key, ((ExposedBinding<?>) binding)
+                            .getPrivateElements().getInjector());
+                    continue;
+                }
+                final Node node = new Node(key, i,
+                        null == report ? -1 : report.selfNanos(key));
+                keys.put(key, node);
+                bindings.put(node, binding);
+                nodes.add(node);
+            }
+            bound.put(environment, keys);
+            exposed.put(environment, exposing);
+        }
+        this.injector = injector;
+        this.bound = bound;
+        this.exposed = exposed;
+        for (Node node : nodes) {
+            final Injector environment = environments.get(node.environment);
+            final List<Node> dependencies = new ArrayList<Node>();
+            for (Key<?> key : BindingGraph.dependencies(bindings.get(node))) {
+                final Node dependency = resolve(key, environment);
+                if (null != dependency && node != dependency
+                        && !dependencies.contains(dependency))
+                    dependencies.add(dependency);
+            }
+            node.dependencies = Collections.unmodifiableList(dependencies);
+        }
+        Collections.sort(nodes, new Comparator<Node>() {
+            @Override public int compare(Node o1, Node o2) {
+                final int c = o1.key.toString().compareTo(o2.key.toString());
+                return 0 != c ? c : o1.environment - o2.environment;
+            }
+        });
+        this.nodes = Collections.unmodifiableList(nodes);
+        this.criticalPath = Collections.unmodifiableList(longestPath());
+    }
+
+    /**
+     * Returns the node of the binding for the given key which is visible in
+     * the given environment or {@code null} if there is none in this graph.
+     */
+    private Node resolve(final Key<?> key, final Injector environment) {
+        for (Injector i = environment; null != i; i = i.getParent()) {
+            final Map<Key<?>, Node> keys = bound.get(i);
+            if (null == keys) break;
+            final Node node = keys.get(key);
+            if (null != node) return node;
+            final Injector exposing = exposed.get(i).get(key);
+            if (null != exposing) return resolve(key, exposing);
+        }
+        return null;
+    }
+
+    private static boolean isBuiltIn(final Key<?> key) {
+        final Class<?> type = key.getTypeLiteral().getRawType();
+        return null == key.getAnnotationType()
+                && (Injector.class == type
+                    || Stage.class == type
+                    || Logger.class == type);
+    }
+
+    /** Returns the dependency graph of the given injector without timings. */
+    public static DependencyGraph of(Injector injector) {
+        return new DependencyGraph(injector, null);
+    }
+
+    /**
+     * Returns the dependency graph of the given injector with the timings
+     * from the given report.
+     * The report should have profiled building the injector.
+     */
+    public static DependencyGraph of(Injector injector, StartupReport report) {
+        return new DependencyGraph(injector, report);
+    }
+
+    /**
+     * Returns the nodes, ordered by the string representation of their keys
+     * and then by their environment.
+     */
+    public List<Node> nodes() { return nodes; }
+
+    /**
+     * Returns the node of the binding for the given key in the injector or
+     * {@code null} if there is none.
+     * If the key is exposed by a private environment, then this is the node
+     * of the binding in the private environment.
+     */
+    public Node node(Key<?> key) { return resolve(key, injector); }
+
+    /**
+     * Returns the critical path, starting with the node which depends on the
+     * others.
+     * The path is empty if no node has been timed.
+     */
+    public List<Node> criticalPath() { return criticalPath; }
+
+    /** Returns the sum of the self times on the critical path in nanoseconds. */
+    public long criticalPathNanos() {
+        long nanos = 0;
+        for (Node node : criticalPath)
+            nanos += Math.max(node.nanos(), 0);
+        return nanos;
+    }
+
+    private List<Node> longestPath() {
+        final Map<Node, Long> costs = new HashMap<Node, Long>();
+        final Map<Node, Node> next = new HashMap<Node, Node>();
+        Node start = null;
+        long max = 0;
+        for (Node node : nodes) {
+            final long cost = cost(node, costs, next, new HashSet<Node>());
+            if (cost > max) {
+                max = cost;
+                start = node;
+            }
+        }
+        final List<Node> path = new ArrayList<Node>();
+        for (Node node = start; null != node; node = next.get(node))
+            path.add(node);
+        return path;
+    }
+
+    /**
+     * Returns the largest sum of self times on any path from the given node.
+     * Dependencies which are currently visited are ignored in order to break
+     * cycles.
+     */
+    private long cost(
+            final Node node,
+            final Map<Node, Long> costs,
+            final Map<Node, Node> next,
+            final Set<Node> visiting) {
+        final Long cached = costs.get(node);
+        if (null != cached) return cached;
+        if (!visiting.add(node)) return 0;
+        long max = 0;
+        Node best = null;
+        for (Node dependency : node.dependencies()) {
+            if (visiting.contains(dependency)) continue;
+            final long cost = cost(dependency, costs, next, visiting);
+            if (cost > max) {
+                max = cost;
+                best = dependency;
+            }
+        }
+        visiting.remove(node);
+        if (null != best) next.put(node, best);
+        final long cost = Math.max(node.nanos(), 0) + max;
+        costs.put(node, cost);
+        return cost;
+    }
+
+    /** Returns this graph in the DOT language of Graphviz. */
+    public String toDot() {
+        final Set<Node> critical = new HashSet<Node>(criticalPath);
+        final StringBuilder dot = new StringBuilder(64 * nodes.size() + 32)
+                .append("digraph injector {\n")
+                .append("  node [shape=box];\n");
+        for (Node node : nodes) {
+            final String name = string(node.toString());
+            dot.append("  ").append(name);
+            if (0 <= node.nanos())
+                dot.append(" [label=").append(name, 0, name.length() - 1)
+                        .append(String.format("\\n%.3f ms\"",
+                            millis(node.nanos())))
+                        .append(critical.contains(node)
+                            ? ", color=red, penwidth=2" : "")
+                        .append(']');
+            dot.append(";\n");
+            for (Node dependency : node.dependencies())
+                dot.append("  ").append(name).append(" -> ")
+                        .append(string(dependency.toString())).append(";\n");
+        }
+        return dot.append("}\n").toString();
+    }
+
+    /** Returns this graph as a JSON object. */
+    public String toJson() {
+        final StringBuilder json = new StringBuilder(64 * nodes.size() + 64)
+                .append("{\"criticalPathNanos\":").append(criticalPathNanos())
+                .append(",\"criticalPath\":[");
+        String separator = "";
+        for (Node node : criticalPath) {
+            json.append(separator).append(string(node.toString()));
+            separator = ",";
+        }
+        json.append("],\"nodes\":[");
+        separator = "";
+        for (Node node : nodes) {
+            json.append(separator)
+                    .append("{\"name\":").append(string(node.toString()))
+                    .append(",\"key\":").append(string(node.key().toString()))
+                    .append(",\"environment\":").append(node.environment())
+                    .append(",\"nanos\":").append(node.nanos())
+                    .append(",\"dependencies\":[");
+            String comma = "";
+            for (Node dependency : node.dependencies()) {
+                json.append(comma).append(string(dependency.toString()));
+                comma = ",";
+            }
+            json.append("]}");
+            separator = ",";
+        }
+        return json.append("]}").toString();
+    }
+
+    @Override public String toString() {
+        final StringBuilder text = new StringBuilder(256);
+        text.append(String.format("Critical path: %.3f ms%n",
+                millis(criticalPathNanos())));
+        for (Node node : criticalPath)
+            text.append(String.format("  %10.3f ms  %s%n",
+                    millis(node.nanos()), node));
+        return text.toString();
+    }
+
+    private static double millis(long nanos) { return nanos / 1e6; }
+
+    /**
+     * A bound key in its environment in a dependency graph.
+     * The same key may be bound in different private environments.
+     */
+    public static final class Node {
+        private final Key<?> key;
+        private final int environment;
+        private final long nanos;
+        private List<Node> dependencies;
+
+        Node(final Key<?> key, final int environment, final long nanos) {
+            this.key = key;
+            this.environment = environment;
+            this.nanos = nanos;
+        }
+
+        public Key<?> key() { return key; }
+
+        /**
+         * Returns the index of the environment of this node: zero for the
+         * injector and a positive number for a private environment.
+         */
+        public int environment() { return environment; }
+
+        /**
+         * Returns the self time for constructing this node in nanoseconds
+         * or -1 if it hasn't been timed.
+         */
+        public long nanos() { return nanos; }
+
+        /** Returns the nodes which this node directly depends on. */
+        public List<Node> dependencies() { return dependencies; }
+
+        /**
+         * Returns the string representation of the key, followed by the
+         * index of the private environment if any.
+         */
+        @Override public String toString() {
+            return 0 == environment
+                    ? key.toString()
+                    : key + " in private environment " + environment;
+        }
+    }
+}
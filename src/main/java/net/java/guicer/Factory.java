@@ -0,0 +1,36 @@
+/*
+ * Copyright (C) 2013 Schlichtherle IT Services.
+ * All rights reserved. Use is subject to license terms.
+ */
+package net.java.guicer;
+
+import java.lang.annotation.*;
+
+/**
+ * Indicates that a factory class should get generated for the annotated
+ * interface.
+ * At compile time, the {@link FactoryProcessor} generates a class which
+ * implements each method of the annotated interface by calling the
+ * constructor of its return type directly, so no reflection or proxy is
+ * involved at runtime.
+ * Bind the interface to the generated class with
+ * {@code bind(type).toFactory(type)}.
+ * <p>
+ * The return type of each method must be a concrete class with a
+ * constructor which is annotated with {@code @Inject} or with a single
+ * constructor.
+ * The parameters of this constructor which are annotated with
+ * {@link Assisted} get passed the parameters of the method in order.
+ * All other parameters get provided by the injector for each call, so
+ * their scopes get respected.
+ * Note that the constructed objects don't get any fields or methods
+ * injected.
+ *
+ * @see LinkedBindingBuilderWithInjection#toFactory(Class)
+ * @author Christian Schlichtherle
+ */
+@Documented
+@Retention(RetentionPolicy.CLASS)
+@Target(ElementType.TYPE)
+public @interface Factory {
+}
@@ -0,0 +1,239 @@
+/*
+ * Copyright (C) 2013 Schlichtherle IT Services.
+ * All rights reserved. Use is subject to license terms.
+ */
+package net.java.guicer;
+
+import java.io.*;
+import java.util.*;
+import javax.annotation.processing.*;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.*;
+import javax.lang.model.type.*;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+
+/**
+ * Generates a factory class for each interface which is annotated with
+ * {@link Factory}.
+ * The generated class is named like the binary name of the interface plus
+ * {@value #SUFFIX} and is in the same package.
+ * It gets a {@link com.google.inject.Provider} injected for each distinct
+ * non-assisted constructor parameter of the constructed classes.
+ *
+ * @author Christian Schlichtherle
+ */
+@SupportedAnnotationTypes("net.java.guicer.Factory")
+public class FactoryProcessor extends AbstractProcessor {
+
+    /** The suffix of the binary name of a generated factory class. */
+    static final String SUFFIX = "$$GuicerFactory";
+
+    @Override public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(
+            final Set<? extends TypeElement> annotations,
+            final RoundEnvironment round) {
+        for (Element element : round.getElementsAnnotatedWith(Factory.class))
+            if (element instanceof TypeElement)
+                generate((TypeElement) element);
+        return true;
+    }
+
+    private void generate(final TypeElement factory) {
+        if (ElementKind.INTERFACE != factory.getKind()
+                || !factory.getTypeParameters().isEmpty()
+                || factory.getModifiers().contains(Modifier.PRIVATE)) {
+            error("A factory must be a non-private, non-generic interface.",
+                    factory);
+            return;
+        }
+        // Maps each provider parameter declaration to its field name and type.
+        final Map<String, String[]> providers = new LinkedHashMap<String, String[]>();
+        final StringBuilder methods = new StringBuilder();
+        for (ExecutableElement method : ElementFilter.methodsIn(
+                processingEnv.getElementUtils().getAllMembers(factory)))
+            if (method.getModifiers().contains(Modifier.ABSTRACT)
+                    && !method(factory, method, providers, methods))
+                return;
+        final String pkg = processingEnv.getElementUtils()
+                .getPackageOf(factory).getQualifiedName().toString();
+        final String binaryName = processingEnv.getElementUtils()
+                .getBinaryName(factory).toString() + SUFFIX;
+        final String name = pkg.isEmpty()
+                ? binaryName
+                : binaryName.substring(pkg.length() + 1);
+        final StringBuilder source = new StringBuilder(1024);
+        if (!pkg.isEmpty())
+            source.append("package ").append(pkg).append(";\n\n");
+        source.append("/** Generated by ").append(getClass().getName())
+                .append(" - don't edit. */\n")
+                .append("final class ").append(name).append(" implements ")
+                .append(factory.getQualifiedName()).append(" {\n\n");
+        for (String[] provider : providers.values())
+            source.append("    private final ").append(provider[1])
+                    .append(' ').append(provider[0]).append(";\n");
+        source.append("\n    @com.google.inject.Inject\n    ")
+                .append(name).append('(');
+        String separator = "";
+        for (Map.Entry<String, String[]> provider : providers.entrySet()) {
+            source.append(separator).append("\n            ")
+                    .append(provider.getKey()).append(' ')
+                    .append(provider.getValue()[0]);
+            separator = ",";
+        }
+        source.append(") {\n");
+        for (String[] provider : providers.values())
+            source.append("        this.").append(provider[0]).append(" = ")
+                    .append(provider[0]).append(";\n");
+        source.append("    }\n").append(methods).append("}\n");
+        write(pkg.isEmpty() ? name : pkg + '.' + name, source, factory);
+    }
+
+    /**
+     * Appends the implementation of the given factory method.
+     * Returns false if the method is not supported.
+     */
+    private boolean method(
+            final TypeElement factory,
+            final ExecutableElement method,
+            final Map<String, String[]> providers,
+            final StringBuilder methods) {
+        final javax.lang.model.util.Types types = processingEnv.getTypeUtils();
+        final ExecutableType type = (ExecutableType) types.asMemberOf(
+                (DeclaredType) factory.asType(), method);
+        final TypeMirror result = type.getReturnType();
+        final Element implementation = types.asElement(result);
+        if (!method.getTypeParameters().isEmpty()
+                || TypeKind.DECLARED != result.getKind()
+                || ElementKind.CLASS != implementation.getKind()
+                || implementation.getModifiers().contains(Modifier.ABSTRACT)) {
+            error("A factory method must return a concrete class and must not have type parameters.",
+                    method);
+            return false;
+        }
+        final ExecutableElement constructor =
+                constructor((TypeElement) implementation);
+        if (null == constructor
+                || constructor.getModifiers().contains(Modifier.PRIVATE)) {
+            error(implementation + " must have a non-private constructor which is annotated with @Inject or a single constructor.",
+                    method);
+            return false;
+        }
+        final List<? extends TypeMirror> assisted = type.getParameterTypes();
+        final List<? extends TypeMirror> parameters = ((ExecutableType) types
+                .asMemberOf((DeclaredType) result, constructor))
+                .getParameterTypes();
+        final StringBuilder arguments = new StringBuilder();
+        int index = 0;
+        for (int i = 0; i < parameters.size(); i++) {
+            final VariableElement parameter = constructor.getParameters().get(i);
+            final TypeMirror parameterType = parameters.get(i);
+            if (0 < i) arguments.append(", ");
+            if (null != mirror(parameter, Assisted.class.getName())) {
+                if (index >= assisted.size()
+                        || !types.isSameType(parameterType, assisted.get(index))) {
+                    error("The assisted parameter " + parameter + " of " + implementation + " doesn't match the parameters of this method.",
+                            method);
+                    return false;
+                }
+                arguments.append('p').append(index++);
+            } else {
+                final String provider = "com.google.inject.Provider<"
+                        + boxed(parameterType) + ">";
+                final String declaration =
+                        qualifiers(parameter) + "final " + provider;
+                String[] field = providers.get(declaration);
+                if (null == field) {
+                    field = new String[] {
+                        "provider" + providers.size(), provider };
+                    providers.put(declaration, field);
+                }
+                arguments.append(field[0]).append(".get()");
+            }
+        }
+        if (index != assisted.size()) {
+            error(implementation + " doesn't have an assisted parameter for each parameter of this method.",
+                    method);
+            return false;
+        }
+        methods.append("\n    @Override public ").append(result).append(' ')
+                .append(method.getSimpleName()).append('(');
+        for (int i = 0; i < assisted.size(); i++)
+            methods.append(0 < i ? ", " : "").append("final ")
+                    .append(assisted.get(i)).append(" p").append(i);
+        methods.append(')');
+        final List<? extends TypeMirror> thrown = type.getThrownTypes();
+        for (int i = 0; i < thrown.size(); i++)
+            methods.append(0 < i ? ", " : " throws ").append(thrown.get(i));
+        methods.append(" {\n        return new ").append(result).append('(')
+                .append(arguments).append(");\n    }\n");
+        return true;
+    }
+
+    private static ExecutableElement constructor(final TypeElement type) {
+        final List<ExecutableElement> constructors =
+                ElementFilter.constructorsIn(type.getEnclosedElements());
+        for (ExecutableElement constructor : constructors)
+            if (null != mirror(constructor, "com.google.inject.Inject")
+                    || null != mirror(constructor, "javax.inject.Inject"))
+                return constructor;
+        return 1 == constructors.size() ? constructors.get(0) : null;
+    }
+
+    /** Returns the binding annotations of the given parameter as source. */
+    private static String qualifiers(final VariableElement parameter) {
+        final StringBuilder qualifiers = new StringBuilder();
+        for (AnnotationMirror mirror : parameter.getAnnotationMirrors()) {
+            final Element type = mirror.getAnnotationType().asElement();
+            if (null != mirror(type, "javax.inject.Qualifier")
+                    || null != mirror(type, "com.google.inject.BindingAnnotation"))
+                qualifiers.append(mirror).append(' ');
+        }
+        return qualifiers.toString();
+    }
+
+    private String boxed(final TypeMirror type) {
+        return type.getKind().isPrimitive()
+                ? processingEnv.getTypeUtils()
+                    .boxedClass((PrimitiveType) type)
+                    .getQualifiedName().toString()
+                : type.toString();
+    }
+
+    private static AnnotationMirror mirror(
+            final Element element,
+            final String annotationType) {
+        for (AnnotationMirror mirror : element.getAnnotationMirrors())
+            if (annotationType.equals(((TypeElement) mirror
+                    .getAnnotationType().asElement())
+                    .getQualifiedName().toString()))
+                return mirror;
+        return null;
+    }
+
+    private void error(final String message, final Element element) {
+        processingEnv.getMessager().printMessage(
+                Diagnostic.Kind.ERROR, message, element);
+    }
+
+    private void write(
+            final String name,
+            final CharSequence source,
+            final TypeElement factory) {
+        try {
+            final Writer out = processingEnv.getFiler()
+                    .createSourceFile(name, factory).openWriter();
+            try {
+                out.append(source);
+            } finally {
+                out.close();
+            }
+        } catch (IOException ex) {
+            error("Cannot write " + name + ": " + ex, factory);
+        }
+    }
+}
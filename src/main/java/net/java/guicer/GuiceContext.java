@@ -5,6 +5,7 @@
 package net.java.guicer;
 
 import com.google.inject.Injector;
+import com.google.inject.Stage;
 
 /**
  * Provides an alternative, simple Domain Specific Language (DSL) for
@@ -14,4 +15,8 @@ import com.google.inject.Injector;
  */
 public class GuiceContext {
     public final InjectorBuilder injector() { return new InjectorBuilder(); }
+
+    public final InjectorBuilder injector(Stage stage) {
+        return injector().stage(stage);
+    }
 }
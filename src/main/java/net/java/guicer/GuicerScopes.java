@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2013 Schlichtherle IT Services.
+ * All rights reserved. Use is subject to license terms.
+ */
+package net.java.guicer;
+
+import com.google.inject.*;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Provides scopes in addition to the built-in scopes in {@link Scopes}.
+ *
+ * @author Christian Schlichtherle
+ */
+public final class GuicerScopes {
+
+    /**
+     * Like {@link Scopes#SINGLETON}, but Guice never constructs the instance
+     * eagerly, not even in {@link Stage#PRODUCTION}.
+     * The instance gets constructed when it's first provided.
+     */
+    public static final Scope LAZY_SINGLETON = new Scope() {
+        @Override
+        public <T> Provider<T> scope(Key<T> key, Provider<T> unscoped) {
+            return Scopes.SINGLETON.scope(key, unscoped);
+        }
+
+        @Override public String toString() {
+            return "GuicerScopes.LAZY_SINGLETON";
+        }
+    };
+
+    /**
+     * Like {@link #LAZY_SINGLETON}, but the construction of the instance only
+     * locks the scoped binding, not all singletons.
+     * In contrast, {@link Scopes#SINGLETON} uses a global lock, so it
+     * serializes the construction of unrelated singletons on all threads.
+     * Once the instance has been constructed, providing it doesn't lock.
+     * <p>
+     * Because each binding has its own lock, a circular dependency between
+     * concurrent singletons may deadlock if their construction gets started
+     * concurrently by different threads.
+     */
+    public static final Scope CONCURRENT_SINGLETON = new Scope() {
+        @Override
+        public <T> Provider<T> scope(Key<T> key, Provider<T> unscoped) {
+            return new ConcurrentSingletonProvider<T>(unscoped);
+        }
+
+        @Override public String toString() {
+            return "GuicerScopes.CONCURRENT_SINGLETON";
+        }
+    };
+
+    private GuicerScopes() { }
+
+    private static final class ConcurrentSingletonProvider<T>
+    implements Provider<T> {
+        private static final Object NULL = new Object();
+
+        private final Lock lock = new ReentrantLock();
+        private final Provider<T> unscoped;
+        private volatile Object instance;
+
+        ConcurrentSingletonProvider(final Provider<T> unscoped) {
+            this.unscoped = unscoped;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public T get() {
+            Object instance = this.instance;
+            if (null == instance) {
+                lock.lock();
+                try {
+                    instance = this.instance;
+                    if (null == instance) {
+                        final T provided = unscoped.get();
+                        final Object providedOrNull = null == provided
+                                ? NULL
+                                : provided;
+                        // A circular dependency may have re-entered.
+                        if (null != this.instance
+                                && this.instance != providedOrNull)
+                            throw new ProvisionException(
+                                    "Provider was reentrant while creating a singleton");
+                        this.instance = instance = providedOrNull;
+                    }
+                } finally {
+                    lock.unlock();
+                }
+            }
+            return NULL == instance ? null : (T) instance;
+        }
+
+        @Override public String toString() {
+            return unscoped + "[" + CONCURRENT_SINGLETON + "]";
+        }
+    }
+}
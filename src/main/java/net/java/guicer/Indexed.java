@@ -0,0 +1,33 @@
+/*
+ * Copyright (C) 2013 Schlichtherle IT Services.
+ * All rights reserved. Use is subject to license terms.
+ */
+package net.java.guicer;
+
+import java.lang.annotation.*;
+
+/**
+ * Indicates that the annotated implementation class should get bound to the
+ * given type by {@link ModuleBuilder#bindIndexed()}.
+ * At compile time, the {@link IndexedProcessor} adds the annotated class to
+ * the binding index in {@code META-INF/guicer/index}, so that no classpath
+ * scanning is required at runtime.
+ * If the annotated class is annotated with a scope annotation, then the
+ * binding gets scoped with it.
+ *
+ * @author Christian Schlichtherle
+ */
+@Documented
+@Retention(RetentionPolicy.CLASS)
+@Target(ElementType.TYPE)
+public @interface Indexed {
+
+    /** The type to bind to the annotated class. */
+    Class<?> value();
+
+    /**
+     * The name for annotating the binding with {@code @Named}.
+     * The default is an empty string for an unannotated binding.
+     */
+    String named() default "";
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright (C) 2013 Schlichtherle IT Services.
+ * All rights reserved. Use is subject to license terms.
+ */
+package net.java.guicer;
+
+import java.io.*;
+import java.util.*;
+import javax.annotation.processing.*;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.*;
+import javax.lang.model.type.*;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+
+/**
+ * Writes the binding index for all classes which are annotated with
+ * {@link Indexed}.
+ * Each line of the index has the tab separated binary names of the bound
+ * type, the implementation class and the scope annotation plus the name for
+ * annotating the binding with {@code @Named}.
+ * Empty fields indicate the absence of a scope annotation or name.
+ * <p>
+ * On an incremental compilation, the entries of the existing index get
+ * merged with the entries for the compiled classes.
+ * Entries of classes which have been deleted or are no longer annotated get
+ * dropped and an index without entries gets deleted or emptied.
+ * Therefore, this processor processes all compilations, even if no class is
+ * annotated with {@link Indexed}, but it doesn't claim any annotations.
+ *
+ * @author Christian Schlichtherle
+ */
+@SupportedAnnotationTypes("*")
+public class IndexedProcessor extends AbstractProcessor {
+
+    /** The resource name of the binding index. */
+    static final String INDEX = "META-INF/guicer/index";
+
+    private final Set<String> entries = new TreeSet<String>();
+
+    /** The binary names of the annotated classes in this compilation. */
+    private final Set<String> implementations = new HashSet<String>();
+
+    @Override public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(
+            final Set<? extends TypeElement> annotations,
+            final RoundEnvironment round) {
+        for (Element element : round.getElementsAnnotatedWith(Indexed.class))
+            if (element instanceof TypeElement)
+                index((TypeElement) element);
+        if (round.processingOver()) write();
+        return false;
+    }
+
+    private void index(final TypeElement implementation) {
+        final Messager messager = processingEnv.getMessager();
+        final AnnotationMirror indexed = mirror(implementation, Indexed.class.getName());
+        TypeMirror type = null;
+        String named = "";
+        for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry
+                : indexed.getElementValues().entrySet()) {
+            final String name = entry.getKey().getSimpleName().toString();
+            final Object value = entry.getValue().getValue();
+            if ("value".equals(name)) type = (TypeMirror) value;
+            else if ("named".equals(name)) named = (String) value;
+        }
+        implementations.add(binaryName(implementation));
+        final javax.lang.model.util.Types types = processingEnv.getTypeUtils();
+        if (implementation.getKind() != ElementKind.CLASS
+                || implementation.getModifiers().contains(Modifier.ABSTRACT)) {
+            messager.printMessage(Diagnostic.Kind.ERROR,
+                    "An indexed implementation must be a concrete class.",
+                    implementation, indexed);
+            return;
+        }
+        if (!types.isAssignable(types.erasure(implementation.asType()),
+                types.erasure(type))) {
+            messager.printMessage(Diagnostic.Kind.ERROR,
+                    "The indexed implementation is not a subtype of " + type + ".",
+                    implementation, indexed);
+            return;
+        }
+        entries.add(binaryName(types.asElement(type))
+                + '\t' + binaryName(implementation)
+                + '\t' + scope(implementation)
+                + '\t' + named);
+    }
+
+    private String scope(final TypeElement implementation) {
+        for (AnnotationMirror mirror : implementation.getAnnotationMirrors()) {
+            final Element type = mirror.getAnnotationType().asElement();
+            if (null != mirror(type, "javax.inject.Scope")
+                    || null != mirror(type, "com.google.inject.ScopeAnnotation"))
+                return binaryName(type);
+        }
+        return "";
+    }
+
+    private static AnnotationMirror mirror(
+            final Element element,
+            final String annotationType) {
+        for (AnnotationMirror mirror : element.getAnnotationMirrors())
+            if (annotationType.equals(((TypeElement) mirror
+                    .getAnnotationType().asElement())
+                    .getQualifiedName().toString()))
+                return mirror;
+        return null;
+    }
+
+    private String binaryName(final Element type) {
+        return processingEnv.getElementUtils()
+                .getBinaryName((TypeElement) type).toString();
+    }
+
+    /**
+     * Adds the entries of the existing index unless their class has been
+     * indexed in this compilation, deleted or is no longer annotated.
+     * Returns the existing index or {@code null} if there is none.
+     */
+    private FileObject merge() {
+        final FileObject index;
+        final BufferedReader in;
+        try {
+            index = processingEnv.getFiler().getResource(
+                    StandardLocation.CLASS_OUTPUT, "", INDEX);
+            in = new BufferedReader(new InputStreamReader(
+                    index.openInputStream(), "UTF-8"));
+        } catch (IOException ex) {
+            return null; // no existing index
+        }
+        try {
+            try {
+                for (String line; null != (line = in.readLine()); ) {
+                    final String[] fields = line.split("\t", -1);
+                    if (4 == fields.length && !implementations.contains(fields[1])
+                            && isIndexed(fields[1]))
+                        entries.add(line);
+                }
+            } finally {
+                in.close();
+            }
+        } catch (IOException ex) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING,
+                    "Cannot read " + INDEX + ": " + ex);
+        }
+        return index;
+    }
+
+    /**
+     * Returns true if and only if the class with the given binary name
+     * exists and is annotated with {@link Indexed}.
+     */
+    private boolean isIndexed(final String binaryName) {
+        final TypeElement type = processingEnv.getElementUtils()
+                .getTypeElement(binaryName.replace('$', '.'));
+        return null != type && null != mirror(type, Indexed.class.getName());
+    }
+
+    private void write() {
+        final FileObject existing = merge();
+        // The filer may not support deleting the existing index, so it gets
+        // emptied instead.
+        if (entries.isEmpty() && (null == existing || existing.delete()))
+            return;
+        try {
+            final FileObject index = processingEnv.getFiler().createResource(
+                    StandardLocation.CLASS_OUTPUT, "", INDEX);
+            final PrintWriter out = new PrintWriter(new OutputStreamWriter(
+                    index.openOutputStream(), "UTF-8"));
+            try {
+                for (String entry : entries)
+                    out.println(entry);
+            } finally {
+                out.close();
+            }
+        } catch (IOException ex) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                    "Cannot write " + INDEX + ": " + ex);
+        }
+    }
+}
@@ -5,6 +5,8 @@
 package net.java.guicer;
 
 import com.google.inject.*;
+import java.util.List;
+import java.util.concurrent.Executor;
 
 /**
  * A builder for an {@link Injector}.
@@ -14,7 +16,106 @@ import com.google.inject.*;
 public class InjectorBuilder
 extends ModuleContainer<InjectorBuilder>
 implements Builder<Injector> {
+
+    private Stage stage = Stage.DEVELOPMENT;
+    private Injector parent;
+    private StartupReport report;
+    private Executor asyncExecutor;
+
+    /**
+     * Sets the stage for the injector.
+     * The default is {@link Stage#DEVELOPMENT}.
+     */
+    public InjectorBuilder stage(final Stage stage) {
+        this.stage = stage;
+        return this;
+    }
+
+    /**
+     * Sets the parent injector.
+     * If set, the built injector is a child of the given injector, so it
+     * inherits its bindings, singletons and stage.
+     * The stage of this builder is ignored then.
+     */
+    public InjectorBuilder parent(final Injector parent) {
+        this.parent = parent;
+        return this;
+    }
+
+    /**
+     * Records the startup of the injector in the given report.
+     * This has some overhead, so it should only be used for profiling.
+     */
+    public InjectorBuilder profile(final StartupReport report) {
+        this.report = report;
+        return this;
+    }
+
+    /**
+     * Sets the executor for constructing the bindings which have been marked
+     * with {@code asEagerSingletonAsync()}.
+     * Independent bindings get constructed concurrently on this executor.
+     * If no executor is set, then they get constructed on the thread which
+     * builds the injector.
+     *
+     * @see ScopedBindingBuilderWithInjection#asEagerSingletonAsync()
+     */
+    public InjectorBuilder asyncExecutor(final Executor executor) {
+        this.asyncExecutor = executor;
+        return this;
+    }
+
     @Override public Injector build() {
-        return Guice.createInjector(swapModules());
+        final List<Module> modules = swapModules();
+        if (null != report) return report.profile(this, modules);
+        boolean async = false;
+        for (Module module : modules)
+            async |= AsyncSingletons.isUsedBy(module);
+        return create(modules, async);
+    }
+
+    /**
+     * Builds a template for stamping out many injectors with the same
+     * bindings.
+     * The template creates a shared parent injector right away, so any
+     * eager singletons get constructed now.
+     * The startup gets not profiled.
+     *
+     * @see InjectorTemplate
+     */
+    public InjectorTemplate buildTemplate() {
+        return new InjectorTemplate(this, swapModules(), asyncExecutor);
+    }
+
+    /**
+     * Builds the base injector of a handle which can reload layers of
+     * modules in child injectors.
+     * The handle has no layers initially.
+     *
+     * @see ReloadableInjector
+     */
+    public ReloadableInjector buildReloadable() {
+        return new ReloadableInjector(build(), Stage.TOOL != currentStage(),
+                asyncExecutor);
+    }
+
+    /**
+     * Creates the injector for the given modules.
+     * If {@code async} is true, then the bindings in the
+     * {@link AsyncSingletons#SCOPE} get constructed unless the stage is
+     * {@link Stage#TOOL}.
+     */
+    Injector create(final List<Module> modules, final boolean async) {
+        final Injector injector = null == parent
+                ? Guice.createInjector(stage, modules)
+                : parent.createChildInjector(modules);
+        if (async && Stage.TOOL != currentStage())
+            AsyncSingletons.construct(injector, asyncExecutor);
+        return injector;
+    }
+
+    /** Returns the stage of the injector to build. */
+    Stage currentStage() {
+        return null == parent ? stage : parent.getInstance(Stage.class);
     }
 }
@@ -0,0 +1,350 @@
+/*
+ * Copyright (C) 2013 Schlichtherle IT Services.
+ * All rights reserved. Use is subject to license terms.
+ */
+package net.java.guicer;
+
+import com.google.inject.*;
+import com.google.inject.spi.*;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.util.*;
+import java.util.concurrent.Executor;
+
+/**
+ * A template for stamping out many injectors with the same bindings.
+ * The modules get recorded only once.
+ * All bindings which can get shared - singletons, instances, constants,
+ * unscoped bindings and private modules - get frozen in a shared parent
+ * injector, so their singletons get constructed only once.
+ * The remaining bindings are the ones in other scopes and the ones which
+ * depend on them, directly or indirectly.
+ * They get replayed from the pre-recorded elements into a fresh child
+ * injector of the shared parent for each {@link #build()}, which doesn't
+ * need to record any modules again.
+ * So if most bindings can get shared, stamping out an injector takes only
+ * microseconds.
+ * <p>
+ * The same applies to the private modules, lookups and injection requests
+ * which depend on them.
+ * <p>
+ * Note that any instances or providers which depend on the replayed
+ * bindings get injected by each stamped injector.
+ * Lookups can get initialized only once, so if a module looks up a provider
+ * or members injector which depends on a replayed key, then all modules get
+ * recorded again for each stamped injector and only their replayed elements
+ * get applied to it.
+ * This way, each stamped injector has its own lookups, but stamping it out
+ * takes about as long as recording the modules.
+ * The modules need to record the same kinds of elements in the same order
+ * each time then.
+ * This class is thread-safe.
+ *
+ * @see InjectorBuilder#buildTemplate()
+ * @author Christian Schlichtherle
+ */
+public final class InjectorTemplate implements Builder<Injector> {
+
+    private final Injector parent;
+    private final Module child;
+    private final int replayed;
+    private final Stage stage;
+    private final List<Module> modules;
+    private final int recorded;
+    private final int[] indices;
+    private final Class<?>[] types;
+    private final boolean construct;
+    private final Executor asyncExecutor;
+
+    InjectorTemplate(
+            final InjectorBuilder builder,
+            final List<Module> modules,
+            final Executor asyncExecutor) {
+        final Stage stage = builder.currentStage();
+        final List<Element> elements = Elements.getElements(stage, modules);
+        final Set<Element> replayed = replayed(elements);
+        final List<Element> shared = new ArrayList<Element>(elements.size());
+        final List<Element> child = new ArrayList<Element>(replayed.size());
+        final int[] indices = new int[replayed.size()];
+        boolean sharedAsync = false, childAsync = false, lookups = false;
+        for (int i = 0; i < elements.size(); i++) {
+            final Element element = elements.get(i);
+            if (replayed.contains(element)) {
+                indices[child.size()] = i;
+                child.add(element);
+                childAsync |= AsyncSingletons.isUsedBy(element);
+                lookups |= hasLookups(element);
+            } else {
+                shared.add(element);
+                sharedAsync |= AsyncSingletons.isUsedBy(element);
+            }
+        }
+        this.parent = builder.create(
+                Collections.singletonList(Elements.getModule(shared)),
+                sharedAsync);
+        this.child = Elements.getModule(child);
+        this.replayed = bindings(child);
+        this.stage = stage;
+        if (lookups) {
+            this.modules = modules;
+            this.recorded = elements.size();
+            this.indices = indices;
+            this.types = new Class<?>[child.size()];
+            for (int i = 0; i < types.length; i++)
+                types[i] = child.get(i).getClass();
+        } else {
+            this.modules = null;
+            this.recorded = 0;
+            this.indices = null;
+            this.types = null;
+        }
+        this.construct = childAsync && Stage.TOOL != stage;
+        this.asyncExecutor = asyncExecutor;
+    }
+
+    /** Returns the shared parent injector of all stamped injectors. */
+    public Injector parent() { return parent; }
+
+    /** Returns the number of bindings which get replayed for each injector. */
+    public int replayedBindings() { return replayed; }
+
+    /** Stamps out a new child injector of the shared parent injector. */
+    @Override public Injector build() {
+        final Injector injector = parent.createChildInjector(
+                null == modules ? child : record());
+        if (construct) AsyncSingletons.construct(injector, asyncExecutor);
+        return injector;
+    }
+
+    /**
+     * Records the modules again and returns a module with the fresh replayed
+     * elements, so that their lookups get initialized by the stamped
+     * injector.
+     */
+    private Module record() {
+        final List<Element> elements = Elements.getElements(stage, modules);
+        if (recorded != elements.size())
+            throw new IllegalStateException(
+                    "The modules have recorded a different number of elements than before.");
+        final List<Element> child = new ArrayList<Element>(indices.length);
+        for (int i = 0; i < indices.length; i++) {
+            final Element element = elements.get(indices[i]);
+            if (types[i] != element.getClass())
+                throw new IllegalStateException(
+                        "The modules have recorded different elements than before.");
+            child.add(element);
+        }
+        return Elements.getModule(child);
+    }
+
+    /**
+     * Returns true if and only if the given element is or contains a provider
+     * lookup or a members injector lookup.
+     */
+    private static boolean hasLookups(final Element element) {
+        if (element instanceof ProviderLookup
+                || element instanceof MembersInjectorLookup)
+            return true;
+        if (element instanceof PrivateElements)
+            for (Element nested : ((PrivateElements) element).getElements())
+                if (hasLookups(nested)) return true;
+        return false;
+    }
+
+    private static int bindings(final List<Element> elements) {
+        int bindings = 0;
+        for (Element element : elements)
+            if (element instanceof Binding) bindings++;
+            else if (element instanceof PrivateElements)
+                bindings += bindings(((PrivateElements) element).getElements());
+        return bindings;
+    }
+
+    /**
+     * Returns the given elements which need to get replayed: the bindings
+     * which are in a scope other than singleton or no scope and the
+     * elements which depend on them, directly or indirectly.
+     */
+    private static Set<Element> replayed(final List<Element> elements) {
+        // Maps each key which gets bound in this environment to its element.
+        final Map<Key<?>, Element> bound = new HashMap<Key<?>, Element>();
+        for (Element element : elements)
+            for (Key<?> key : keys(element))
+                bound.put(key, element);
+        final Set<Element> replayed = Collections.newSetFromMap(
+                new IdentityHashMap<Element, Boolean>());
+        final Set<Key<?>> replayedKeys = new HashSet<Key<?>>();
+        for (Element element : elements) {
+            if (element instanceof Binding
+                    && !((Binding<?>) element).acceptScopingVisitor(SHAREABLE)) {
+                replayed.add(element);
+                replayedKeys.add(((Binding<?>) element).getKey());
+            }
+        }
+        if (replayed.isEmpty()) return replayed;
+        final Map<Element, Collection<Key<?>>> dependencies =
+                new IdentityHashMap<Element, Collection<Key<?>>>();
+        for (Element element : elements)
+            if (!replayed.contains(element))
+                dependencies.put(element, dependencies(element));
+        for (boolean changed = true; changed; ) {
+            changed = false;
+            for (Element element : elements) {
+                if (replayed.contains(element)) continue;
+                final Set<Key<?>> visited = new HashSet<Key<?>>();
+                for (Key<?> dependency : dependencies.get(element)) {
+                    if (reaches(dependency, bound, replayedKeys, visited)) {
+                        replayed.add(element);
+                        replayedKeys.addAll(keys(element));
+                        changed = true;
+                        break;
+                    }
+                }
+            }
+        }
+        return replayed;
+    }
+
+    /** Returns the keys which the given element binds in its environment. */
+    private static Collection<Key<?>> keys(final Element element) {
+        if (element instanceof Binding)
+            return Collections.<Key<?>>singleton(((Binding<?>) element).getKey());
+        if (element instanceof PrivateElements)
+            return ((PrivateElements) element).getExposedKeys();
+        return Collections.emptySet();
+    }
+
+    /**
+     * Returns true if and only if the given key is replayed or resolves to a
+     * just-in-time binding which depends on a replayed key.
+     */
+    private static boolean reaches(
+            final Key<?> key,
+            final Map<Key<?>, Element> bound,
+            final Set<Key<?>> replayed,
+            final Set<Key<?>> visited) {
+        if (replayed.contains(key)) return true;
+        if (bound.containsKey(key) || !visited.add(key)) return false;
+        for (Key<?> dependency : implicitDependencies(key))
+            if (reaches(dependency, bound, replayed, visited)) return true;
+        return false;
+    }
+
+    /**
+     * Returns the keys which the given element depends on.
+     * For private elements, these are the dependencies of their elements
+     * which don't get bound in their private environment.
+     */
+    private static Collection<Key<?>> dependencies(final Element element) {
+        if (element instanceof Binding)
+            return dependencies((Binding<?>) element);
+        if (element instanceof ProviderLookup)
+            return Collections.<Key<?>>singleton(
+                    ((ProviderLookup<?>) element).getKey());
+        final List<Key<?>> keys = new ArrayList<Key<?>>();
+        try {
+            if (element instanceof MembersInjectorLookup)
+                add(keys, InjectionPoint.forInstanceMethodsAndFields(
+                        ((MembersInjectorLookup<?>) element).getType()));
+            else if (element instanceof InjectionRequest)
+                add(keys, ((InjectionRequest<?>) element).getInjectionPoints());
+            else if (element instanceof StaticInjectionRequest)
+                add(keys, ((StaticInjectionRequest) element).getInjectionPoints());
+        } catch (ConfigurationException ex) {
+            // The injector reports this.
+        }
+        if (element instanceof PrivateElements) {
+            final List<Element> elements =
+                    ((PrivateElements) element).getElements();
+            final Set<Key<?>> bound = new HashSet<Key<?>>();
+            for (Element nested : elements) {
+                bound.addAll(keys(nested));
+                keys.addAll(dependencies(nested));
+            }
+            keys.removeAll(bound);
+        }
+        return keys;
+    }
+
+    private static Collection<Key<?>> dependencies(final Binding<?> binding) {
+        return binding instanceof UntargettedBinding
+                ? implicitDependencies(binding.getKey())
+                : BindingGraph.dependencies(binding);
+    }
+
+    /**
+     * Returns the keys which the just-in-time binding for the given key
+     * depends on.
+     */
+    private static Collection<Key<?>> implicitDependencies(final Key<?> key) {
+        final TypeLiteral<?> type = key.getTypeLiteral();
+        final Class<?> raw = type.getRawType();
+        if ((Provider.class == raw || javax.inject.Provider.class == raw)
+                && type.getType() instanceof ParameterizedType) {
+            final TypeLiteral<?> provided = TypeLiteral.get(((ParameterizedType)
+                    type.getType()).getActualTypeArguments()[0]);
+            return Collections.<Key<?>>singleton(null == key.getAnnotation()
+                    ? null == key.getAnnotationType()
+                        ? Key.get(provided)
+                        : Key.get(provided, key.getAnnotationType())
+                    : Key.get(provided, key.getAnnotation()));
+        }
+        if (null != key.getAnnotationType()) return Collections.emptySet();
+        final ImplementedBy implementedBy = raw.getAnnotation(ImplementedBy.class);
+        if (null != implementedBy)
+            return Collections.<Key<?>>singleton(Key.get(implementedBy.value()));
+        final ProvidedBy providedBy = raw.getAnnotation(ProvidedBy.class);
+        if (null != providedBy)
+            return Collections.<Key<?>>singleton(Key.get(providedBy.value()));
+        if (raw.isInterface() || Modifier.isAbstract(raw.getModifiers())
+                || raw.isPrimitive() || raw.getName().startsWith("java."))
+            return Collections.emptySet();
+        final List<Key<?>> keys = new ArrayList<Key<?>>();
+        try {
+            add(keys, InjectionPoint.forConstructorOf(type));
+            for (InjectionPoint point
+                    : InjectionPoint.forInstanceMethodsAndFields(type))
+                add(keys, point);
+        } catch (ConfigurationException ex) {
+            // The injector reports this.
+        }
+        return keys;
+    }
+
+    private static void add(final List<Key<?>> keys, final InjectionPoint point) {
+        for (Dependency<?> dependency : point.getDependencies())
+            keys.add(dependency.getKey());
+    }
+
+    private static void add(
+            final List<Key<?>> keys,
+            final Set<InjectionPoint> points) {
+        for (InjectionPoint point : points)
+            add(keys, point);
+    }
+
+    /**
+     * Returns true if and only if a binding is in a scope which can get
+     * shared by all stamped injectors.
+     */
+    private static final BindingScopingVisitor<Boolean> SHAREABLE
+            = new BindingScopingVisitor<Boolean>() {
+        @Override public Boolean visitEagerSingleton() { return true; }
+
+        @Override public Boolean visitScope(Scope scope) {
+            return Scopes.NO_SCOPE == scope
+                    || BindingDefinition.isSingleton(scope)
+                    || GuicerScopes.LAZY_SINGLETON == scope
+                    || GuicerScopes.CONCURRENT_SINGLETON == scope
+                    || AsyncSingletons.SCOPE == scope;
+        }
+
+        @Override
+        public Boolean visitScopeAnnotation(Class<? extends Annotation> type) {
+            return BindingDefinition.isSingleton(type);
+        }
+
+        @Override public Boolean visitNoScoping() { return true; }
+    };
+}
@@ -11,6 +11,21 @@ import java.lang.reflect.Constructor;
  */
 public interface LinkedBindingBuilderWithInjection<Type, Parent>
         extends ScopedBindingBuilderWithInjection<Parent> {
+
+    /**
+     * Binds the key to a proxy which defers the provision of the target of
+     * this binding until the first method call.
+     * The proxy provides the target once in a thread-safe way and delegates
+     * all method calls to it, including {@code equals}, {@code hashCode} and
+     * {@code toString}.
+     * The scope of this binding applies to the target, so e.g. all proxies
+     * for a singleton delegate to the same target.
+     * <p>
+     * The bound type must be an interface and the binding must have a target.
+     * Use this for expensive dependencies which are often not used at all.
+     */
+    LinkedBindingBuilderWithInjection<Type, Parent> lazy();
+
     ScopedBindingBuilderWithInjection<Parent> to(
             Class<? extends Type> implementation);
     ScopedBindingBuilderWithInjection<Parent> to(
@@ -18,6 +33,21 @@ public interface LinkedBindingBuilderWithInjection<Type, Parent>
     ScopedBindingBuilderWithInjection<Parent> to(
             Key<? extends Type> targetKey);
     Injection<Parent> toInstance(Type instance);
+
+    /**
+     * Binds the key to the factory class which has been generated for the
+     * given interface by the {@link FactoryProcessor}.
+     * The generated class calls the constructors of the constructed classes
+     * directly, so there's no reflection or proxy involved.
+     *
+     * @throws IllegalArgumentException if the generated class cannot get
+     *         loaded, e.g. because the interface is not annotated with
+     *         {@link Factory} or annotation processing has been disabled.
+     * @see Factory
+     */
+    ScopedBindingBuilderWithInjection<Parent> toFactory(
+            Class<? extends Type> factoryInterface);
+
     ScopedBindingBuilderWithInjection<Parent> toProvider(
             Provider<? extends Type> provider);
     ScopedBindingBuilderWithInjection<Parent> toProvider(
@@ -0,0 +1,23 @@
+/*
+ * Copyright (C) 2013 Schlichtherle IT Services.
+ * All rights reserved. Use is subject to license terms.
+ */
+package net.java.guicer;
+
+import com.google.inject.Key;
+import com.google.inject.TypeLiteral;
+
+/**
+ * Puts entries into a map binding.
+ * The entries get iterated in the order of their addition.
+ *
+ * @see ModuleBuilder#bindMap(TypeLiteral, Key)
+ * @author Christian Schlichtherle
+ */
+public interface MapBindingBuilderWithInjection<K, V, Parent>
+extends Injection<Parent> {
+    MapBindingBuilderWithInjection<K, V, Parent> put(K key, Class<? extends V> implementation);
+    MapBindingBuilderWithInjection<K, V, Parent> put(K key, TypeLiteral<? extends V> implementation);
+    MapBindingBuilderWithInjection<K, V, Parent> put(K key, Key<? extends V> targetKey);
+    MapBindingBuilderWithInjection<K, V, Parent> putInstance(K key, V instance);
+}
@@ -5,16 +5,17 @@
 package net.java.guicer;
 
 import com.google.inject.*;
-import com.google.inject.binder.AnnotatedBindingBuilder;
-import com.google.inject.binder.AnnotatedConstantBindingBuilder;
-import com.google.inject.binder.AnnotatedElementBuilder;
-import com.google.inject.binder.ConstantBindingBuilder;
-import com.google.inject.binder.LinkedBindingBuilder;
-import com.google.inject.binder.ScopedBindingBuilder;
+import com.google.inject.name.Names;
+import com.google.inject.util.Types;
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
 import java.lang.annotation.Annotation;
 import java.lang.reflect.Constructor;
-import java.util.List;
-import static net.java.guicer.ModuleContainer.emptyList;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import net.java.guicer.BindingDefinition.Draft;
+import net.java.guicer.BindingDefinition.Target;
 
 /**
  * A builder for a {@link Module}.
@@ -26,23 +27,53 @@ public abstract class ModuleBuilder<Parent>
 extends ModuleContainer<ModuleBuilder<Parent>>
 implements Builder<Module>, Injection<Parent> {
 
-    private List<Configuration<?>> exposings = emptyList();
-    private List<Configuration<?>> bindings = emptyList();
+    private volatile Collection<BindingDefinition> definitions = newCollection();
+    private volatile boolean lazySingletons;
+    private volatile ProvisionMetrics metrics;
+
+    ModuleBuilder() { }
+
+    ModuleBuilder(boolean concurrent) { super(concurrent); }
+
+    /**
+     * Makes the singleton bindings in this module lazy, even in
+     * {@link Stage#PRODUCTION}.
+     * Only bindings which are marked with {@code asEagerSingleton()} get
+     * constructed eagerly then.
+     * This applies to bindings which are configured in this module with the
+     * scope {@link Singleton}, {@link javax.inject.Singleton} or
+     * {@link Scopes#SINGLETON} and to the set and map bindings in this
+     * module, but not to sub-modules or implementation classes which are
+     * annotated with a scope.
+     * It applies when building the module, so it doesn't matter if it gets
+     * called before or after configuring the bindings.
+     */
+    public ModuleBuilder<Parent> lazySingletons() {
+        lazySingletons = true;
+        return this;
+    }
+
+    /**
+     * Meters the provisions of all bindings in this module in the given
+     * metrics, except for instance and constant bindings and bindings which
+     * are metered with {@code metered(ProvisionMetrics)}.
+     * This doesn't apply to sub-modules or set and map bindings.
+     * It applies when building the module, so it doesn't matter if it gets
+     * called before or after configuring the bindings.
+     *
+     * @see ProvisionMetrics
+     */
+    public ModuleBuilder<Parent> metered(final ProvisionMetrics metrics) {
+        this.metrics = metrics;
+        return this;
+    }
 
     public <Type> AnnotatedBindingBuilderWithInjection<Type, ModuleBuilder<Parent>> exposeAndBind(
             final Class<Type> clazz) {
         return new AnnotatedBindingConfiguration<Type>() {
-            @Override void add(Configuration<?> configuration) {
-                addExposing(configuration);
-                addBinding(configuration);
-            }
-
-            @Override public AnnotatedElementBuilder expose(PrivateBinder binder) {
-                return binder.expose(clazz);
-            }
-
-            @Override public AnnotatedBindingBuilder<Type> bind(Binder binder) {
-                return binder.bind(clazz);
+            @Override void define(Draft draft) {
+                draft.source = clazz;
+                draft.exposed = draft.bound = true;
             }
         };
     }
@@ -50,18 +81,9 @@ implements Builder<Module>, Injection<Parent> {
     public <Type> LinkedBindingBuilderWithInjection<Type, ModuleBuilder<Parent>> exposeAndBind(
             final Key<Type> key) {
         return new LinkedBindingConfiguration<Type, Configuration<?>>() {
-            @Override void add(Configuration<?> configuration) {
-                addExposing(configuration);
-                addBinding(configuration);
-            }
-
-            @Override public Void expose(PrivateBinder binder) {
-                binder.expose(key);
-                return null;
-            }
-
-            @Override public LinkedBindingBuilder<Type> bind(Binder binder) {
-                return binder.bind(key);
+            @Override void define(Draft draft) {
+                draft.source = key;
+                draft.exposed = draft.bound = true;
             }
         };
     }
@@ -69,30 +91,19 @@ implements Builder<Module>, Injection<Parent> {
     public <Type> AnnotatedBindingBuilderWithInjection<Type, ModuleBuilder<Parent>> exposeAndBind(
             final TypeLiteral<Type> literal) {
         return new AnnotatedBindingConfiguration<Type>() {
-            @Override void add(Configuration<?> configuration) {
-                addExposing(configuration);
-                addBinding(configuration);
-            }
-
-            @Override public AnnotatedElementBuilder expose(PrivateBinder binder) {
-                return binder.expose(literal);
-            }
-
-            @Override public AnnotatedBindingBuilder<Type> bind(Binder binder) {
-                return binder.bind(literal);
+            @Override void define(Draft draft) {
+                draft.source = literal;
+                draft.exposed = draft.bound = true;
             }
         };
     }
 
     public AnnotatedElementBuilderWithInjection<ModuleBuilder<Parent>> expose(
             final Class<?> clazz) {
-        return new AnnotatedElementConfiguration<Configuration<?>>() {
-            @Override void add(Configuration<?> configuration) {
-                addExposing(configuration);
-            }
-
-            @Override public AnnotatedElementBuilder expose(PrivateBinder binder) {
-                return binder.expose(clazz);
+        return new AnnotatedElementConfiguration() {
+            @Override void define(Draft draft) {
+                draft.source = clazz;
+                draft.exposed = true;
             }
         };
     }
@@ -100,41 +111,29 @@ implements Builder<Module>, Injection<Parent> {
     public Injection<ModuleBuilder<Parent>> expose(
             final Key<?> key) {
         return new Configuration<Configuration<?>>() {
-            @Override void add(Configuration<?> configuration) {
-                addExposing(configuration);
-            }
-
-            @Override public Void expose(PrivateBinder binder) {
-                binder.expose(key);
-                return null;
+            @Override void define(Draft draft) {
+                draft.source = key;
+                draft.exposed = true;
             }
         };
     }
 
     public AnnotatedElementBuilderWithInjection<ModuleBuilder<Parent>> expose(
             final TypeLiteral<?> literal) {
-        return new AnnotatedElementConfiguration<Configuration<?>>() {
-            @Override void add(Configuration<?> configuration) {
-                addExposing(configuration);
-            }
-
-            @Override public AnnotatedElementBuilder expose(PrivateBinder binder) {
-                return binder.expose(literal);
+        return new AnnotatedElementConfiguration() {
+            @Override void define(Draft draft) {
+                draft.source = literal;
+                draft.exposed = true;
             }
         };
     }
 
-    void addExposing(Configuration<?> exposing) { exposings.add(exposing); }
-
     public <Type> AnnotatedBindingBuilderWithInjection<Type, ModuleBuilder<Parent>> bind(
             final Class<Type> clazz) {
         return new AnnotatedBindingConfiguration<Type>() {
-            @Override void add(Configuration<?> configuration) {
-                addBinding(configuration);
-            }
-
-            @Override public AnnotatedBindingBuilder<Type> bind(Binder binder) {
-                return binder.bind(clazz);
+            @Override void define(Draft draft) {
+                draft.source = clazz;
+                draft.bound = true;
             }
         };
     }
@@ -142,12 +141,9 @@ implements Builder<Module>, Injection<Parent> {
     public <Type> LinkedBindingBuilderWithInjection<Type, ModuleBuilder<Parent>> bind(
             final Key<Type> key) {
         return new LinkedBindingConfiguration<Type, Configuration<?>>() {
-            @Override void add(Configuration<?> configuration) {
-                addBinding(configuration);
-            }
-
-            @Override public LinkedBindingBuilder<Type> bind(Binder binder) {
-                return binder.bind(key);
+            @Override void define(Draft draft) {
+                draft.source = key;
+                draft.bound = true;
             }
         };
     }
@@ -155,79 +151,379 @@ implements Builder<Module>, Injection<Parent> {
     public <Type> AnnotatedBindingBuilderWithInjection<Type, ModuleBuilder<Parent>> bind(
             final TypeLiteral<Type> literal) {
         return new AnnotatedBindingConfiguration<Type>() {
-            @Override void add(Configuration<?> configuration) {
-                addBinding(configuration);
-            }
-
-            @Override public AnnotatedBindingBuilder<Type> bind(Binder binder) {
-                return binder.bind(literal);
+            @Override void define(Draft draft) {
+                draft.source = literal;
+                draft.bound = true;
             }
         };
     }
 
     public AnnotatedConstantBindingBuilderWithInjection<ModuleBuilder<Parent>> bindConstant() {
         return new AnnotatedConstantBindingConfiguration() {
-            @Override void add(Configuration<?> configuration) {
-                addBinding(configuration);
+            @Override void define(Draft draft) {
+                draft.constant = draft.bound = true;
             }
+        };
+    }
+
+    /**
+     * Binds all classes which are listed in the binding index of the context
+     * class loader of the current thread.
+     *
+     * @see #bindIndexed(ClassLoader)
+     */
+    public ModuleBuilder<Parent> bindIndexed() {
+        return bindIndexed(Thread.currentThread().getContextClassLoader());
+    }
+
+    /**
+     * Binds all classes which are listed in the binding index of the given
+     * class loader.
+     * The binding index gets written by the {@link IndexedProcessor} at
+     * compile time for all classes which are annotated with {@link Indexed},
+     * so no classpath scanning is required.
+     * For each entry, this is equivalent to
+     * {@code bind(type).annotatedWith(Names.named(name)).to(implementation).in(scope).inject()},
+     * where the {@code annotatedWith} and {@code in} steps are omitted if the
+     * entry has no name or scope.
+     * If the binding index cannot get read, then the error gets reported when
+     * creating the injector.
+     */
+    public ModuleBuilder<Parent> bindIndexed(final ClassLoader loader) {
+        final Object source = source();
+        final List<BindingIndex.Entry> entries;
+        try {
+            entries = BindingIndex.read(loader);
+        } catch (Exception ex) {
+            return error(ex);
+        }
+        final int size = entries.size();
+        final Key<?>[] keys = new Key<?>[size];
+        final Class<?>[] implementations = new Class<?>[size];
+        final Object[] scopes = new Object[size];
+        int i = 0;
+        for (BindingIndex.Entry entry : entries) {
+            keys[i] = null == entry.name
+                    ? Key.get(entry.type)
+                    : Key.get(entry.type, Names.named(entry.name));
+            implementations[i] = entry.implementation;
+            scopes[i++] = entry.scope;
+        }
+        return bindAll(source, keys, implementations, scopes);
+    }
+
+    /**
+     * Binds each key type in the given map to its value, the implementation
+     * class.
+     * This is equivalent to {@code bind(type).to(implementation).inject()}
+     * for each entry, but stores the bindings in compact arrays instead of
+     * compiling a binding definition for each of them.
+     * The module-wide settings {@link #lazySingletons()} and
+     * {@link #metered(ProvisionMetrics)} apply to these bindings, too.
+     *
+     * @throws IllegalArgumentException if any implementation class is not
+     *         assignable to its type.
+     */
+    public ModuleBuilder<Parent> bindAll(
+            final Map<? extends Class<?>, ? extends Class<?>> bindings) {
+        final Object source = source();
+        final int size = bindings.size();
+        final Key<?>[] keys = new Key<?>[size];
+        final Class<?>[] implementations = new Class<?>[size];
+        int i = 0;
+        for (Map.Entry<? extends Class<?>, ? extends Class<?>> entry
+                : bindings.entrySet()) {
+            final Class<?> type = entry.getKey();
+            final Class<?> implementation = entry.getValue();
+            if (!type.isAssignableFrom(implementation))
+                throw new IllegalArgumentException(implementation.getName()
+                        + " is not assignable to " + type.getName());
+            keys[i] = Key.get(type);
+            implementations[i++] = implementation;
+        }
+        return bindAll(source, keys, implementations, null);
+    }
 
-            @Override public AnnotatedConstantBindingBuilder bind(Binder binder) {
-                return binder.bindConstant();
+    /**
+     * Binds the given specifications.
+     * This is equivalent to
+     * {@code bind(key).to(implementation).in(scope).inject()} for each
+     * specification, but stores the bindings in compact arrays instead of
+     * compiling a binding definition for each of them.
+     * The module-wide settings {@link #lazySingletons()} and
+     * {@link #metered(ProvisionMetrics)} apply to these bindings, too.
+     */
+    public ModuleBuilder<Parent> bindAll(
+            final Iterable<? extends BindingSpec<?>> specs) {
+        final Object source = source();
+        final List<BindingSpec<?>> list = new ArrayList<BindingSpec<?>>();
+        for (BindingSpec<?> spec : specs)
+            list.add(spec);
+        final int size = list.size();
+        final Key<?>[] keys = new Key<?>[size];
+        final Class<?>[] implementations = new Class<?>[size];
+        Object[] scopes = null;
+        for (int i = 0; i < size; i++) {
+            final BindingSpec<?> spec = list.get(i);
+            keys[i] = spec.key();
+            implementations[i] = spec.implementation();
+            if (null != spec.scope()) {
+                if (null == scopes) scopes = new Object[size];
+                scopes[i] = spec.scope();
             }
-        };
+        }
+        return bindAll(source, keys, implementations, scopes);
+    }
+
+    private ModuleBuilder<Parent> bindAll(
+            final Object source,
+            final Key<?>[] keys,
+            final Class<?>[] implementations,
+            final Object[] scopes) {
+        return module(new BulkModule(source, keys, implementations, scopes));
     }
 
-    void addBinding(Configuration<?> binding) { bindings.add(binding); }
+    /**
+     * Binds each property in the given file as a constant which is annotated
+     * with {@code @Named(key)}, so it's equivalent to
+     * {@code bindConstant().annotatedWith(Names.named(key)).to(value).inject()}
+     * for each property.
+     * The file gets read in the format of {@link java.util.Properties} with
+     * the character set ISO-8859-1.
+     * <p>
+     * The file doesn't get read by this method, but each time the module
+     * gets configured, so it must exist when creating the injector.
+     * The properties get streamed from the file to the binder, so they don't
+     * get loaded into memory at once.
+     * Any errors get reported when creating the injector, including
+     * properties which are defined more than once.
+     *
+     * @see #bindConstants(Reader)
+     */
+    public ModuleBuilder<Parent> bindConstants(final File file) {
+        return module(new ConstantsModule(source(), file));
+    }
 
-    @Override public Module build() {
-        final List<Configuration<?>> exposings = swapExposings();
-        if (exposings.isEmpty()) {
-            return new AbstractModule() {
-                @Override protected void configure() { installTo(binder()); }
-            };
-        } else {
-            return new PrivateModule() {
-                @Override protected void configure() {
-                    final PrivateBinder binder = binder();
-                    for (Configuration exposing : exposings)
-                        exposing.expose(binder);
-                    installTo(binder);
-                }
-            };
+    /**
+     * Like {@link #bindConstants(File)}, but reads the properties from the
+     * given reader immediately and retains them in a compact array.
+     * The reader doesn't get closed.
+     * If reading fails, then the error gets reported when creating the
+     * injector.
+     */
+    public ModuleBuilder<Parent> bindConstants(final Reader reader) {
+        final Object source = source();
+        final String[] properties;
+        try {
+            properties = ConstantsModule.parse(reader);
+        } catch (IOException ex) {
+            return error(ex);
+        } catch (IllegalArgumentException ex) {
+            return error(ex);
         }
+        return module(new ConstantsModule(source, properties));
     }
 
-    void installTo(final Binder binder) {
-        for (Configuration<?> binding : swapBindings())
-            binding.bind(binder);
-        for (Module module : swapModules())
-            binder.install(module);
+    /**
+     * Binds an immutable set of the type of the given class.
+     *
+     * @see #bindSet(Key)
+     */
+    public <Type> SetBindingBuilderWithInjection<Type, ModuleBuilder<Parent>> bindSet(
+            Class<Type> type) {
+        return bindSet(Key.get(type));
     }
 
-    @SuppressWarnings("ReturnOfCollectionOrArrayField")
-    List<Configuration<?>> swapExposings() {
-        try { return this.exposings; }
-        finally { this.exposings = emptyList(); }
+    /**
+     * Binds an immutable set of the given type.
+     *
+     * @see #bindSet(Key)
+     */
+    public <Type> SetBindingBuilderWithInjection<Type, ModuleBuilder<Parent>> bindSet(
+            TypeLiteral<Type> type) {
+        return bindSet(Key.get(type));
     }
 
-    @SuppressWarnings("ReturnOfCollectionOrArrayField")
-    List<Configuration<?>> swapBindings() {
-        try { return this.bindings; }
-        finally { this.bindings = emptyList(); }
+    /**
+     * Binds an immutable set of the type of the given key, which is
+     * annotated like the given key.
+     * So {@code bindSet(Key.get(Handler.class, Names.named("http")))} binds
+     * {@code @Named("http") Set<Handler>}.
+     * <p>
+     * Unlike a multibinder, all elements get added to this set binding at
+     * once, so the set cannot get contributed to by other modules.
+     * The set gets built once per injector in singleton scope and is backed
+     * by an array of its elements, so injecting it doesn't copy it and each
+     * element gets provided only once, regardless of its own scope.
+     * Likewise, the set gets built lazily if {@link #lazySingletons()} has
+     * been set for this module.
+     * The elements must be distinct and not {@code null}, or else the set
+     * fails to get provided.
+     */
+    public <Type> SetBindingBuilderWithInjection<Type, ModuleBuilder<Parent>> bindSet(
+            Key<Type> key) {
+        return new SetConfiguration<Type>(source(),
+                collectionKey(key, Types.setOf(key.getTypeLiteral().getType())));
     }
 
-    private abstract class AnnotatedElementConfiguration<ConfigurationParent extends Configuration<?>>
-    extends Configuration<ConfigurationParent>
-    implements AnnotatedElementBuilderWithInjection<ModuleBuilder<Parent>> {
+    /**
+     * Binds an immutable map of the given key and value classes.
+     *
+     * @see #bindMap(TypeLiteral, Key)
+     */
+    public <K, V> MapBindingBuilderWithInjection<K, V, ModuleBuilder<Parent>> bindMap(
+            Class<K> keyType,
+            Class<V> valueType) {
+        return bindMap(TypeLiteral.get(keyType), Key.get(valueType));
+    }
+
+    /**
+     * Binds an immutable map of the given key and value types.
+     *
+     * @see #bindMap(TypeLiteral, Key)
+     */
+    public <K, V> MapBindingBuilderWithInjection<K, V, ModuleBuilder<Parent>> bindMap(
+            TypeLiteral<K> keyType,
+            TypeLiteral<V> valueType) {
+        return bindMap(keyType, Key.get(valueType));
+    }
 
-        @Override abstract AnnotatedElementBuilder expose(PrivateBinder binder);
+    /**
+     * Binds an immutable map of the given key type and the type of the given
+     * value key, which is annotated like the given value key.
+     * This works like {@link #bindSet(Key)}, but the map is backed by a
+     * shared set of its keys and an array of its values.
+     * The keys must be distinct and not {@code null}, or else
+     * {@link Injection#inject()} throws an {@link IllegalArgumentException}.
+     * Enum keys are a good fit because their hash codes are cheap.
+     */
+    public <K, V> MapBindingBuilderWithInjection<K, V, ModuleBuilder<Parent>> bindMap(
+            TypeLiteral<K> keyType,
+            Key<V> valueKey) {
+        return new MapConfiguration<K, V>(source(), collectionKey(valueKey,
+                Types.mapOf(keyType.getType(),
+                    valueKey.getTypeLiteral().getType())));
+    }
+
+    private static Key<?> collectionKey(
+            final Key<?> key,
+            final java.lang.reflect.Type type) {
+        return null != key.getAnnotation()
+                ? Key.get(type, key.getAnnotation())
+                : null != key.getAnnotationType()
+                    ? Key.get(type, key.getAnnotationType())
+                    : Key.get(type);
+    }
+
+    /** Adds a module which reports the given exception as an error. */
+    private ModuleBuilder<Parent> error(final Exception ex) {
+        return module(new ErrorModule(ex));
+    }
+
+    /** A module which reports an exception as an error. */
+    static final class ErrorModule implements Module {
+        final Exception exception;
+
+        ErrorModule(final Exception exception) { this.exception = exception; }
+
+        @Override public void configure(Binder binder) {
+            binder.addError(exception);
+        }
+    }
+
+    /** Returns the first stack trace element outside of this class. */
+    private static Object source() {
+        final String name = ModuleBuilder.class.getName();
+        for (StackTraceElement element : new Throwable().getStackTrace())
+            if (!name.equals(element.getClassName()))
+                return element;
+        return ModuleBuilder.class;
+    }
+
+    void addDefinition(BindingDefinition definition) {
+        definitions.add(definition);
+    }
+
+    /**
+     * Builds a module from the current configuration and resets it.
+     * The returned module can get installed any number of times.
+     */
+    @Override public Module build() {
+        final List<BindingDefinition> definitions = swapDefinitions();
+        final List<Module> modules = drainModules();
+        if (lazySingletons) lazySingletons(definitions, modules);
+        final ProvisionMetrics metrics = this.metrics;
+        if (null != metrics) meter(definitions, modules, metrics);
+        return new CompiledModule(definitions, concurrently(modules));
+    }
+
+    /**
+     * Replaces the singleton scopes of the given definitions and the
+     * modules which have been configured by this builder with the
+     * {@link GuicerScopes#LAZY_SINGLETON} scope.
+     */
+    private static void lazySingletons(
+            final List<BindingDefinition> definitions,
+            final List<Module> modules) {
+        for (ListIterator<BindingDefinition> i = definitions.listIterator();
+                i.hasNext(); ) {
+            final BindingDefinition definition = i.next();
+            if (definition.isSingleton())
+                i.set(definition.withScope(GuicerScopes.LAZY_SINGLETON));
+        }
+        for (ListIterator<Module> i = modules.listIterator(); i.hasNext(); ) {
+            final Module module = i.next();
+            if (module instanceof BulkModule)
+                i.set(((BulkModule) module).withLazySingletons());
+            else if (module instanceof CollectionModule)
+                i.set(((CollectionModule) module)
+                        .withScope(GuicerScopes.LAZY_SINGLETON));
+        }
+    }
+
+    List<BindingDefinition> swapDefinitions() {
+        final Collection<BindingDefinition> definitions = this.definitions;
+        this.definitions = newCollection();
+        return isConcurrent()
+                ? Ordering.definitions(definitions)
+                : (List<BindingDefinition>) definitions;
+    }
+
+    /**
+     * Meters the given definitions and the bulk bindings in the given
+     * modules in the given metrics unless they are metered already.
+     */
+    private static void meter(
+            final List<BindingDefinition> definitions,
+            final List<Module> modules,
+            final ProvisionMetrics metrics) {
+        for (ListIterator<Module> i = modules.listIterator(); i.hasNext(); ) {
+            final Module module = i.next();
+            if (module instanceof BulkModule) {
+                // Metering requires a binding definition for each binding.
+                definitions.addAll(Arrays.asList(
+                        ((BulkModule) module).compile().definitions));
+                i.remove();
+            }
+        }
+        for (ListIterator<BindingDefinition> i = definitions.listIterator();
+                i.hasNext(); ) {
+            final BindingDefinition definition = i.next();
+            if (null == definition.metrics && definition.isMeterable())
+                i.set(definition.withMetrics(metrics));
+        }
+    }
+
+    private abstract class AnnotatedElementConfiguration
+    extends Configuration<Configuration<?>>
+    implements AnnotatedElementBuilderWithInjection<ModuleBuilder<Parent>> {
 
         @Override public final Injection<ModuleBuilder<Parent>> annotatedWith(
                 final Class<? extends Annotation> annotationType) {
             return new ChildConfiguration() {
-                @Override Void expose(PrivateBinder binder) {
-                    parentExpose(binder).annotatedWith(annotationType);
-                    return null;
+                @Override void define(Draft draft) {
+                    super.define(draft);
+                    draft.annotation = annotationType;
                 }
             };
         }
@@ -235,20 +531,16 @@ implements Builder<Module>, Injection<Parent> {
         @Override public final Injection<ModuleBuilder<Parent>> annotatedWith(
                 final Annotation annotation) {
             return new ChildConfiguration() {
-                @Override Void expose(PrivateBinder binder) {
-                    parentExpose(binder).annotatedWith(annotation);
-                    return null;
+                @Override void define(Draft draft) {
+                    super.define(draft);
+                    draft.annotation = annotation;
                 }
             };
         }
 
         private abstract class ChildConfiguration
-        extends Configuration<AnnotatedElementConfiguration<ConfigurationParent>> {
-            final AnnotatedElementBuilder parentExpose(PrivateBinder binder) {
-                return parent().expose(binder);
-            }
-
-            @Override final AnnotatedElementConfiguration<ConfigurationParent> parent() {
+        extends Configuration<AnnotatedElementConfiguration> {
+            @Override final AnnotatedElementConfiguration parent() {
                 return AnnotatedElementConfiguration.this;
             }
         }
@@ -258,23 +550,13 @@ implements Builder<Module>, Injection<Parent> {
     extends LinkedBindingConfiguration<Type, Configuration<?>>
     implements AnnotatedBindingBuilderWithInjection<Type, ModuleBuilder<Parent>> {
 
-        @Override AnnotatedElementBuilder expose(PrivateBinder binder) {
-            throw new AssertionError();
-        }
-
-        @Override abstract AnnotatedBindingBuilder<Type> bind(Binder binder);
-
         @Override
         public final LinkedBindingBuilderWithInjection<Type, ModuleBuilder<Parent>> annotatedWith(
                 final Class<? extends Annotation> annotationType) {
             return new ChildConfiguration() {
-                @Override Void expose(PrivateBinder binder) {
-                    parentExpose(binder).annotatedWith(annotationType);
-                    return null;
-                }
-
-                @Override LinkedBindingBuilder<Type> bind(Binder input) {
-                    return parentBind(input).annotatedWith(annotationType);
+                @Override void define(Draft draft) {
+                    super.define(draft);
+                    draft.annotation = annotationType;
                 }
             };
         }
@@ -283,27 +565,15 @@ implements Builder<Module>, Injection<Parent> {
         public final LinkedBindingBuilderWithInjection<Type, ModuleBuilder<Parent>> annotatedWith(
                 final Annotation annotation) {
             return new ChildConfiguration() {
-                @Override Void expose(PrivateBinder binder) {
-                    parentExpose(binder).annotatedWith(annotation);
-                    return null;
-                }
-
-                @Override LinkedBindingBuilder<Type> bind(Binder input) {
-                    return parentBind(input).annotatedWith(annotation);
+                @Override void define(Draft draft) {
+                    super.define(draft);
+                    draft.annotation = annotation;
                 }
             };
         }
 
         private abstract class ChildConfiguration
         extends LinkedBindingConfiguration<Type, AnnotatedBindingConfiguration<Type>> {
-            final AnnotatedElementBuilder parentExpose(PrivateBinder binder) {
-                return parent().expose(binder);
-            }
-
-            final AnnotatedBindingBuilder<Type> parentBind(Binder binder) {
-                return parent().bind(binder);
-            }
-
             @Override final AnnotatedBindingConfiguration<Type> parent() {
                 return AnnotatedBindingConfiguration.this;
             }
@@ -314,23 +584,54 @@ implements Builder<Module>, Injection<Parent> {
     extends ScopedBindingConfiguration<ConfigurationParent>
     implements LinkedBindingBuilderWithInjection<Type, ModuleBuilder<Parent>> {
 
-        @Override abstract LinkedBindingBuilder<Type> bind(Binder binder);
+        @Override
+        public final LinkedBindingBuilderWithInjection<Type, ModuleBuilder<Parent>> lazy() {
+            return new LinkedBindingConfiguration<Type, LinkedBindingConfiguration<Type, ConfigurationParent>>() {
+                @Override final LinkedBindingConfiguration<Type, ConfigurationParent> parent() {
+                    return LinkedBindingConfiguration.this;
+                }
+
+                @Override void define(Draft draft) {
+                    super.define(draft);
+                    draft.lazy = true;
+                }
+            };
+        }
 
         @Override public final ScopedBindingBuilderWithInjection<ModuleBuilder<Parent>> to(
                 final Class<? extends Type> implementation) {
             return new ChildConfiguration() {
-                @Override ScopedBindingBuilder bind(Binder binder) {
-                    return parentBind(binder).to(implementation);
+                @Override void define(Draft draft) {
+                    super.define(draft);
+                    draft.target(Target.KEY, Key.get(implementation));
                 }
             };
         }
 
+        @Override
+        public final ScopedBindingBuilderWithInjection<ModuleBuilder<Parent>> toFactory(
+                final Class<? extends Type> factoryInterface) {
+            final String name = factoryInterface.getName() + FactoryProcessor.SUFFIX;
+            final Class<?> factory;
+            try {
+                factory = Class.forName(name, false,
+                        factoryInterface.getClassLoader());
+            } catch (ClassNotFoundException ex) {
+                throw new IllegalArgumentException("Cannot load " + name
+                        + " - is " + factoryInterface.getName()
+                        + " annotated with @" + Factory.class.getName() + "?",
+                        ex);
+            }
+            return to(factory.asSubclass(factoryInterface));
+        }
+
         @Override
         public final ScopedBindingBuilderWithInjection<ModuleBuilder<Parent>> to(
                 final TypeLiteral<? extends Type> implementation) {
             return new ChildConfiguration() {
-                @Override ScopedBindingBuilder bind(Binder binder) {
-                    return parentBind(binder).to(implementation);
+                @Override void define(Draft draft) {
+                    super.define(draft);
+                    draft.target(Target.KEY, Key.get(implementation));
                 }
             };
         }
@@ -339,8 +640,9 @@ implements Builder<Module>, Injection<Parent> {
         public final ScopedBindingBuilderWithInjection<ModuleBuilder<Parent>> to(
                 final Key<? extends Type> targetKey) {
             return new ChildConfiguration() {
-                @Override ScopedBindingBuilder bind(Binder binder) {
-                    return parentBind(binder).to(targetKey);
+                @Override void define(Draft draft) {
+                    super.define(draft);
+                    draft.target(Target.KEY, targetKey);
                 }
             };
         }
@@ -353,14 +655,9 @@ implements Builder<Module>, Injection<Parent> {
                     return LinkedBindingConfiguration.this;
                 }
 
-                @Override Void expose(PrivateBinder binder) {
-                    parent().expose(binder);
-                    return null;
-                }
-
-                @Override Void bind(Binder binder) {
-                    parent().bind(binder).toInstance(instance);
-                    return null;
+                @Override void define(Draft draft) {
+                    super.define(draft);
+                    draft.target(Target.INSTANCE, instance);
                 }
             };
         }
@@ -369,8 +666,9 @@ implements Builder<Module>, Injection<Parent> {
         public final ScopedBindingBuilderWithInjection<ModuleBuilder<Parent>> toProvider(
                 final Provider<? extends Type> provider) {
             return new ChildConfiguration() {
-                @Override ScopedBindingBuilder bind(Binder binder) {
-                    return parentBind(binder).toProvider(provider);
+                @Override void define(Draft draft) {
+                    super.define(draft);
+                    draft.target(Target.PROVIDER, provider);
                 }
             };
         }
@@ -379,8 +677,9 @@ implements Builder<Module>, Injection<Parent> {
         public final ScopedBindingBuilderWithInjection<ModuleBuilder<Parent>> toProvider(
                 final Class<? extends javax.inject.Provider<? extends Type>> providerType) {
             return new ChildConfiguration() {
-                @Override ScopedBindingBuilder bind(Binder binder) {
-                    return parentBind(binder).toProvider(providerType);
+                @Override void define(Draft draft) {
+                    super.define(draft);
+                    draft.target(Target.PROVIDER_KEY, Key.get(providerType));
                 }
             };
         }
@@ -389,8 +688,9 @@ implements Builder<Module>, Injection<Parent> {
         public final ScopedBindingBuilderWithInjection<ModuleBuilder<Parent>> toProvider(
                 final TypeLiteral<? extends javax.inject.Provider<? extends Type>> providerType) {
             return new ChildConfiguration() {
-                @Override ScopedBindingBuilder bind(Binder binder) {
-                    return parentBind(binder).toProvider(providerType);
+                @Override void define(Draft draft) {
+                    super.define(draft);
+                    draft.target(Target.PROVIDER_KEY, Key.get(providerType));
                 }
             };
         }
@@ -399,8 +699,9 @@ implements Builder<Module>, Injection<Parent> {
         public final ScopedBindingBuilderWithInjection<ModuleBuilder<Parent>> toProvider(
                 final Key<? extends javax.inject.Provider<? extends Type>> providerKey) {
             return new ChildConfiguration() {
-                @Override ScopedBindingBuilder bind(Binder binder) {
-                    return parentBind(binder).toProvider(providerKey);
+                @Override void define(Draft draft) {
+                    super.define(draft);
+                    draft.target(Target.PROVIDER_KEY, providerKey);
                 }
             };
         }
@@ -408,11 +709,8 @@ implements Builder<Module>, Injection<Parent> {
         @Override
         public final <S extends Type> ScopedBindingBuilderWithInjection<ModuleBuilder<Parent>> toConstructor(
                 final Constructor<S> constructor) {
-            return new ChildConfiguration() {
-                @Override ScopedBindingBuilder bind(Binder binder) {
-                    return parentBind(binder).toConstructor(constructor);
-                }
-            };
+            return toConstructor(constructor,
+                    TypeLiteral.get(constructor.getDeclaringClass()));
         }
 
         @Override
@@ -420,23 +718,16 @@ implements Builder<Module>, Injection<Parent> {
                 final Constructor<S> constructor,
                 final TypeLiteral<? extends S> type) {
             return new ChildConfiguration() {
-                @Override ScopedBindingBuilder bind(Binder binder) {
-                    return parentBind(binder).toConstructor(constructor, type);
+                @Override void define(Draft draft) {
+                    super.define(draft);
+                    draft.target(Target.CONSTRUCTOR, constructor);
+                    draft.constructed = type;
                 }
             };
         }
 
         private abstract class ChildConfiguration
         extends ScopedBindingConfiguration<ScopedBindingConfiguration<ConfigurationParent>> {
-            @Override final Void expose(PrivateBinder binder) {
-                parent().expose(binder);
-                return null;
-            }
-
-            final LinkedBindingBuilder<Type> parentBind(Binder binder) {
-                return parent().bind(binder);
-            }
-
             @Override final LinkedBindingConfiguration<Type, ConfigurationParent> parent() {
                 return LinkedBindingConfiguration.this;
             }
@@ -447,15 +738,13 @@ implements Builder<Module>, Injection<Parent> {
     extends Configuration<ConfigurationParent>
     implements ScopedBindingBuilderWithInjection<ModuleBuilder<Parent>> {
 
-        @Override abstract ScopedBindingBuilder bind(Binder binder);
-
         @Override
         public final Injection<ModuleBuilder<Parent>> in(
                 final Class<? extends Annotation> scopeAnnotation) {
             return new ChildConfiguration() {
-                @Override Void bind(Binder binder) {
-                    parentBind(binder).in(scopeAnnotation);
-                    return null;
+                @Override void define(Draft draft) {
+                    super.define(draft);
+                    draft.scope = scopeAnnotation;
                 }
             };
         }
@@ -463,9 +752,9 @@ implements Builder<Module>, Injection<Parent> {
         @Override
         public final Injection<ModuleBuilder<Parent>> in(final Scope scope) {
             return new ChildConfiguration() {
-                @Override Void bind(Binder binder) {
-                    parentBind(binder).in(scope);
-                    return null;
+                @Override void define(Draft draft) {
+                    super.define(draft);
+                    draft.scope = scope;
                 }
             };
         }
@@ -473,24 +762,55 @@ implements Builder<Module>, Injection<Parent> {
         @Override
         public final Injection<ModuleBuilder<Parent>> asEagerSingleton() {
             return new ChildConfiguration() {
-                @Override Void bind(Binder binder) {
-                    parentBind(binder).asEagerSingleton();
-                    return null;
+                @Override void define(Draft draft) {
+                    super.define(draft);
+                    draft.eager = true;
                 }
             };
         }
 
-        private abstract class ChildConfiguration
-        extends Configuration<ScopedBindingConfiguration<ConfigurationParent>> {
-            @Override final Void expose(PrivateBinder binder) {
-                parent().expose(binder);
-                return null;
-            }
+        @Override
+        public final Injection<ModuleBuilder<Parent>> asEagerSingletonAsync() {
+            return in(AsyncSingletons.SCOPE);
+        }
 
-            final ScopedBindingBuilder parentBind(Binder binder) {
-                return parent().bind(binder);
-            }
+        @Override
+        public final Injection<ModuleBuilder<Parent>> cached(
+                final long ttl,
+                final TimeUnit unit,
+                final int maxEntries) {
+            return in(new CachingScope(ttl, unit, maxEntries));
+        }
+
+        @Override
+        public final Injection<ModuleBuilder<Parent>> pooled(final int maxSize) {
+            if (0 >= maxSize)
+                throw new IllegalArgumentException("maxSize = " + maxSize);
+            return new ChildConfiguration() {
+                @Override void define(Draft draft) {
+                    super.define(draft);
+                    draft.pool = maxSize;
+                }
+            };
+        }
+
+        @Override
+        public final ScopedBindingBuilderWithInjection<ModuleBuilder<Parent>> metered(
+                final ProvisionMetrics metrics) {
+            return new ScopedBindingConfiguration<ScopedBindingConfiguration<ConfigurationParent>>() {
+                @Override ScopedBindingConfiguration<ConfigurationParent> parent() {
+                    return ScopedBindingConfiguration.this;
+                }
+
+                @Override void define(Draft draft) {
+                    super.define(draft);
+                    draft.metrics = metrics;
+                }
+            };
+        }
 
+        private abstract class ChildConfiguration
+        extends Configuration<ScopedBindingConfiguration<ConfigurationParent>> {
             @Override final ScopedBindingConfiguration<ConfigurationParent> parent() {
                 return ScopedBindingConfiguration.this;
             }
@@ -501,13 +821,12 @@ implements Builder<Module>, Injection<Parent> {
     extends Configuration<Configuration<?>>
     implements AnnotatedConstantBindingBuilderWithInjection<ModuleBuilder<Parent>> {
 
-        @Override abstract AnnotatedConstantBindingBuilder bind(Binder binder);
-
         @Override public final ConstantBindingBuilderWithInjection<ModuleBuilder<Parent>> annotatedWith(
             final Class<? extends Annotation> annotationType) {
             return new ChildConfiguration() {
-                @Override ConstantBindingBuilder bind(Binder binder) {
-                    return parentBind(binder).annotatedWith(annotationType);
+                @Override void define(Draft draft) {
+                    super.define(draft);
+                    draft.annotation = annotationType;
                 }
             };
         }
@@ -515,18 +834,15 @@ implements Builder<Module>, Injection<Parent> {
         @Override public final ConstantBindingBuilderWithInjection<ModuleBuilder<Parent>> annotatedWith(
                 final Annotation annotation) {
             return new ChildConfiguration() {
-                @Override ConstantBindingBuilder bind(Binder binder) {
-                    return parentBind(binder).annotatedWith(annotation);
+                @Override void define(Draft draft) {
+                    super.define(draft);
+                    draft.annotation = annotation;
                 }
             };
         }
 
         private abstract class ChildConfiguration
         extends ConstantBindingConfiguration<AnnotatedConstantBindingConfiguration> {
-            final AnnotatedConstantBindingBuilder parentBind(Binder binder) {
-                return parent().bind(binder);
-            }
-
             @Override final AnnotatedConstantBindingConfiguration parent() {
                 return AnnotatedConstantBindingConfiguration.this;
             }
@@ -537,132 +853,187 @@ implements Builder<Module>, Injection<Parent> {
     extends Configuration<ConfigurationParent>
     implements ConstantBindingBuilderWithInjection<ModuleBuilder<Parent>> {
 
-        @Override abstract ConstantBindingBuilder bind(Binder binder);
-
         @Override public final Injection<ModuleBuilder<Parent>> to(final String value) {
-            return new ChildConfiguration() {
-                @Override Void bind(Binder binder) {
-                    parentBind(binder).to(value);
-                    return null;
-                }
-            };
+            return new ChildConfiguration(value);
         }
 
         @Override public final Injection<ModuleBuilder<Parent>> to(final int value) {
-            return new ChildConfiguration() {
-                @Override Void bind(Binder binder) {
-                    parentBind(binder).to(value);
-                    return null;
-                }
-            };
+            return new ChildConfiguration(value);
         }
 
         @Override public final Injection<ModuleBuilder<Parent>> to(final long value) {
-            return new ChildConfiguration() {
-                @Override Void bind(Binder binder) {
-                    parentBind(binder).to(value);
-                    return null;
-                }
-            };
+            return new ChildConfiguration(value);
         }
 
         @Override public final Injection<ModuleBuilder<Parent>> to(final boolean value) {
-            return new ChildConfiguration() {
-                @Override Void bind(Binder binder) {
-                    parentBind(binder).to(value);
-                    return null;
-                }
-            };
+            return new ChildConfiguration(value);
         }
 
         @Override public final Injection<ModuleBuilder<Parent>> to(final double value) {
-            return new ChildConfiguration() {
-                @Override Void bind(Binder binder) {
-                    parentBind(binder).to(value);
-                    return null;
-                }
-            };
+            return new ChildConfiguration(value);
         }
 
         @Override public final Injection<ModuleBuilder<Parent>> to(final float value) {
-            return new ChildConfiguration() {
-                @Override Void bind(Binder binder) {
-                    parentBind(binder).to(value);
-                    return null;
-                }
-            };
+            return new ChildConfiguration(value);
         }
 
         @Override public final Injection<ModuleBuilder<Parent>> to(final short value) {
-            return new ChildConfiguration() {
-                @Override Void bind(Binder binder) {
-                    parentBind(binder).to(value);
-                    return null;
-                }
-            };
+            return new ChildConfiguration(value);
         }
 
         @Override public final Injection<ModuleBuilder<Parent>> to(final char value) {
-            return new ChildConfiguration() {
-                @Override Void bind(Binder binder) {
-                    parentBind(binder).to(value);
-                    return null;
-                }
-            };
+            return new ChildConfiguration(value);
         }
 
         @Override public final Injection<ModuleBuilder<Parent>> to(final byte value) {
-            return new ChildConfiguration() {
-                @Override Void bind(Binder binder) {
-                    parentBind(binder).to(value);
-                    return null;
-                }
-            };
+            return new ChildConfiguration(value);
         }
 
         @Override public final Injection<ModuleBuilder<Parent>> to(final Class<?> value) {
-            return new ChildConfiguration() {
-                @Override Void bind(Binder binder) {
-                    parentBind(binder).to(value);
-                    return null;
-                }
-            };
+            return new ChildConfiguration(value);
         }
 
         @Override public final <E extends Enum<E>> Injection<ModuleBuilder<Parent>> to(final E value) {
-            return new ChildConfiguration() {
-                @Override Void bind(Binder binder) {
-                    parentBind(binder).to(value);
-                    return null;
-                }
-            };
+            return new ChildConfiguration(value);
         }
 
-        private abstract class ChildConfiguration
+        private final class ChildConfiguration
         extends Configuration<ConstantBindingConfiguration<ConfigurationParent>> {
-            final ConstantBindingBuilder parentBind(Binder binder) {
-                return parent().bind(binder);
-            }
+            final Object value;
 
-            @Override final ConstantBindingConfiguration<ConfigurationParent> parent() {
+            ChildConfiguration(final Object value) { this.value = value; }
+
+            @Override ConstantBindingConfiguration<ConfigurationParent> parent() {
                 return ConstantBindingConfiguration.this;
             }
+
+            @Override void define(Draft draft) {
+                super.define(draft);
+                draft.target(Target.CONSTANT, value);
+            }
+        }
+    }
+
+    /** Collects the elements of a set or map binding. */
+    private abstract class CollectionConfiguration {
+        final Object source;
+        final Key<?> key;
+        final List<Key<?>> targets = new ArrayList<Key<?>>();
+        final List<Object> instances = new ArrayList<Object>();
+
+        CollectionConfiguration(final Object source, final Key<?> key) {
+            this.source = source;
+            this.key = key;
+        }
+
+        final void target(final Key<?> target) {
+            targets.add(target);
+            instances.add(null);
+        }
+
+        final void instance(final Object instance) {
+            if (null == instance) throw new NullPointerException();
+            targets.add(null);
+            instances.add(instance);
+        }
+
+        final ModuleBuilder<Parent> inject(final ArraySet<?> mapKeys) {
+            final int size = targets.size();
+            return module(new CollectionModule(source, key, mapKeys,
+                    targets.toArray(new Key<?>[size]),
+                    instances.toArray(),
+                    Scopes.SINGLETON));
+        }
+    }
+
+    private final class SetConfiguration<Type>
+    extends CollectionConfiguration
+    implements SetBindingBuilderWithInjection<Type, ModuleBuilder<Parent>> {
+
+        SetConfiguration(Object source, Key<?> key) { super(source, key); }
+
+        @Override public SetBindingBuilderWithInjection<Type, ModuleBuilder<Parent>> add(
+                Class<? extends Type> implementation) {
+            target(Key.get(implementation));
+            return this;
+        }
+
+        @Override public SetBindingBuilderWithInjection<Type, ModuleBuilder<Parent>> add(
+                TypeLiteral<? extends Type> implementation) {
+            target(Key.get(implementation));
+            return this;
+        }
+
+        @Override public SetBindingBuilderWithInjection<Type, ModuleBuilder<Parent>> add(
+                Key<? extends Type> targetKey) {
+            target(targetKey);
+            return this;
+        }
+
+        @Override public SetBindingBuilderWithInjection<Type, ModuleBuilder<Parent>> addInstance(
+                Type instance) {
+            instance(instance);
+            return this;
+        }
+
+        @Override public ModuleBuilder<Parent> inject() { return inject(null); }
+    }
+
+    private final class MapConfiguration<K, V>
+    extends CollectionConfiguration
+    implements MapBindingBuilderWithInjection<K, V, ModuleBuilder<Parent>> {
+        final List<K> keys = new ArrayList<K>();
+
+        MapConfiguration(Object source, Key<?> key) { super(source, key); }
+
+        @Override public MapBindingBuilderWithInjection<K, V, ModuleBuilder<Parent>> put(
+                K key,
+                Class<? extends V> implementation) {
+            return put(key, Key.get(implementation));
+        }
+
+        @Override public MapBindingBuilderWithInjection<K, V, ModuleBuilder<Parent>> put(
+                K key,
+                TypeLiteral<? extends V> implementation) {
+            return put(key, Key.get(implementation));
+        }
+
+        @Override public MapBindingBuilderWithInjection<K, V, ModuleBuilder<Parent>> put(
+                final K key,
+                final Key<? extends V> targetKey) {
+            keys.add(key);
+            target(targetKey);
+            return this;
+        }
+
+        @Override public MapBindingBuilderWithInjection<K, V, ModuleBuilder<Parent>> putInstance(
+                final K key,
+                final V instance) {
+            instance(instance);
+            keys.add(key);
+            return this;
+        }
+
+        @Override public ModuleBuilder<Parent> inject() {
+            final Object[] array = keys.toArray();
+            for (Object key : array)
+                if (null == key) throw new IllegalArgumentException(
+                        "Null key for " + this.key);
+            return inject(new ArraySet<K>(array));
         }
     }
 
     private abstract class Configuration<ConfigurationParent extends Configuration<?>>
     implements Injection<ModuleBuilder<Parent>> {
         @Override public final ModuleBuilder<Parent> inject() {
-            add(this);
+            final Draft draft = new Draft();
+            define(draft);
+            addDefinition(draft.toDefinition());
             return ModuleBuilder.this;
         }
 
-        void add(Configuration<?> configuration) {
-            parent().add(configuration);
-        }
-
         ConfigurationParent parent() { throw new AssertionError(); }
-        Object expose(PrivateBinder binder) { throw new AssertionError(); }
-        Object bind(Binder binder) { throw new AssertionError(); }
+
+        void define(Draft draft) { parent().define(draft); }
     }
 }
@@ -6,6 +6,8 @@ package net.java.guicer;
 
 import com.google.inject.Module;
 import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
 
 /**
  * A container for modules.
@@ -17,16 +19,71 @@ import java.util.*;
  */
 public abstract class ModuleContainer<This extends ModuleContainer<This>> {
 
-    private List<Module> modules = emptyList();
+    private final boolean concurrent;
+    private volatile Collection<Module> modules;
+    private volatile Executor executor;
 
-    ModuleContainer() { }
+    ModuleContainer() { this(false); }
+
+    ModuleContainer(final boolean concurrent) {
+        this.concurrent = concurrent;
+        this.modules = newCollection();
+    }
 
     static <T> List<T> emptyList() { return new LinkedList<T>(); }
 
-    @SuppressWarnings("ReturnOfCollectionOrArrayField")
-    List<Module> swapModules() {
-        try { return this.modules; }
-        finally { this.modules = emptyList(); }
+    /**
+     * Returns a new collection for the configuration of this container.
+     * If this container is concurrent, then the collection supports
+     * lock-free appends from multiple threads.
+     */
+    final <T> Collection<T> newCollection() {
+        return concurrent ? new ConcurrentLinkedQueue<T>() : new LinkedList<T>();
+    }
+
+    /** Returns true if and only if this container is concurrent. */
+    final boolean isConcurrent() { return concurrent; }
+
+    /**
+     * Returns the modules to install and resets them.
+     * If an executor has been set, then the modules get wrapped in a module
+     * which configures them concurrently.
+     */
+    List<Module> swapModules() { return concurrently(drainModules()); }
+
+    /** Returns the modules to install in their order and resets them. */
+    final List<Module> drainModules() {
+        final Collection<Module> drained = this.modules;
+        this.modules = newCollection();
+        return concurrent
+                ? Ordering.modules(drained)
+                : (List<Module>) drained;
+    }
+
+    /**
+     * If an executor has been set, then returns a list with a module which
+     * configures the given modules concurrently, otherwise the given list.
+     */
+    final List<Module> concurrently(final List<Module> modules) {
+        if (null == executor || modules.size() < 2) return modules;
+        final List<Module> parallel = emptyList();
+        parallel.add(new ParallelModule(modules, executor));
+        return parallel;
+    }
+
+    /**
+     * Configures the modules in this container concurrently on the given
+     * executor, e.g. a {@code ForkJoinPool}.
+     * The recorded configurations get merged in the order of the modules,
+     * so the resulting bindings and any errors are deterministic.
+     * Note that the configuration of each module gets recorded in isolation,
+     * so a module which gets installed by more than one module in this
+     * container gets configured more than once.
+     */
+    @SuppressWarnings("unchecked")
+    public This parallel(final Executor executor) {
+        this.executor = executor;
+        return (This) this;
     }
 
     public ModuleBuilder<This> module() {
@@ -37,6 +94,32 @@ public abstract class ModuleContainer<This extends ModuleContainer<This>> {
         };
     }
 
+    /**
+     * Returns a builder for a module which can get shared between threads,
+     * e.g. by a plugin loader which discovers plugins in parallel.
+     * Any threads can concurrently configure bindings and modules in the
+     * returned builder without blocking.
+     * To make the resulting module deterministic, its binding definitions
+     * get sorted by their keys and its modules get sorted by their first
+     * binding or class name when building it.
+     * Modules with equal names get sorted by their content.
+     * However, modules of the same class which have not been built by a
+     * {@link ModuleBuilder} cannot get inspected, so these stay in the order
+     * of their addition, which depends on the interleaving of the threads.
+     * <p>
+     * Module-wide settings like {@code lazySingletons()} apply to all
+     * bindings in the module when building it.
+     * All threads must be done with configuring the builder before calling
+     * {@code build()} or {@code inject()}.
+     */
+    public ModuleBuilder<This> concurrentModule() {
+        return new ModuleBuilder<This>(true) {
+            @Override public This inject() {
+                return ModuleContainer.this.module(build());
+            }
+        };
+    }
+
     @SuppressWarnings("unchecked")
     public This module(final Module module) {
         modules.add(module);
@@ -0,0 +1,679 @@
+/*
+ * Copyright (C) 2013 Schlichtherle IT Services.
+ * All rights reserved. Use is subject to license terms.
+ */
+package net.java.guicer;
+
+import com.google.inject.*;
+import com.google.inject.name.Named;
+import com.google.inject.name.Names;
+import com.google.inject.util.Types;
+import java.io.*;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+import java.util.zip.CRC32;
+import net.java.guicer.BindingDefinition.Draft;
+import net.java.guicer.BindingDefinition.Target;
+
+/**
+ * Saves and loads the binding definitions of a module which has been built
+ * by a {@link ModuleBuilder} to and from a compact binary file.
+ * Loading a snapshot skips running the DSL, which helps to reduce the
+ * startup time of short-lived processes.
+ * <p>
+ * A snapshot can only contain definitions which can be restored without
+ * running any code: classes, type literals, keys, scope annotations, the
+ * scopes in {@link Scopes} and {@link GuicerScopes}, constants, constructors
+ * and binding annotations which are either annotation types, marker
+ * annotations or {@link Names#named(String)}.
+ * Constants which have been bound from a file get read from the file again
+ * each time the loaded module gets configured.
+ * Set and map bindings can get saved if their elements are keys and their
+ * map keys are strings, boxed primitives, enums or classes.
+ * Bindings to instances or providers, metered or pooled bindings and any
+ * modules which have not been built by a {@link ModuleBuilder} cannot get
+ * saved.
+ * <p>
+ * Each snapshot has a fingerprint of the class which defines the DSL and of
+ * the classes referenced in the definitions.
+ * If any of these classes have changed, the snapshot is stale and loading it
+ * falls back to running the DSL.
+ *
+ * @author Christian Schlichtherle
+ */
+public final class ModuleSnapshot {
+
+    private static final int MAGIC = 0x47534e50; // "GSNP"
+    private static final short VERSION = 2;
+
+    private static final byte
+            TYPE_CLASS = 0, TYPE_PARAMETERIZED = 1, TYPE_ARRAY = 2,
+            TYPE_WILDCARD = 3, TYPE_NONE = 4;
+    private static final byte
+            ANNOTATION_NONE = 0, ANNOTATION_TYPE = 1, ANNOTATION_NAMED = 2;
+    private static final byte
+            SCOPE_NONE = 0, SCOPE_ANNOTATION = 1, SCOPE_SINGLETON = 2,
+            SCOPE_NO_SCOPE = 3, SCOPE_LAZY_SINGLETON = 4,
+            SCOPE_CONCURRENT_SINGLETON = 5, SCOPE_ASYNC_SINGLETON = 6;
+    private static final byte
+            MODULE_COMPILED = 0, MODULE_CONSTANTS = 1, MODULE_COLLECTION = 2;
+    private static final byte
+            FLAG_EXPOSED = 1, FLAG_BOUND = 2, FLAG_EAGER = 4, FLAG_CONSTANT = 8,
+            FLAG_LAZY = 16;
+
+    /**
+     * Builds a module from the given definition and saves a snapshot of it
+     * to the given file.
+     *
+     * @param  definition a builder which runs the DSL and returns a module
+     *         which has been built by a {@link ModuleBuilder}.
+     * @throws NotSerializableException if the module contains any
+     *         definitions which cannot get saved.
+     */
+    public static void save(final Builder<Module> definition, final File file)
+    throws IOException {
+        final Module module = definition.build();
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final Writer writer = new Writer(new DataOutputStream(bytes));
+        writer.module(module);
+        final DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(file)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeShort(VERSION);
+            out.writeLong(fingerprint(definition.getClass(), writer.classes));
+            bytes.writeTo(out);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Loads a module from a snapshot in the given file.
+     * If the file doesn't exist or the snapshot is stale, truncated or
+     * corrupted, then the module gets built from the given definition
+     * instead.
+     *
+     * @param definition the builder which has been used to save the
+     *        snapshot.
+     */
+    public static Module load(final File file, final Builder<Module> definition)
+    throws IOException {
+        if (!file.isFile()) return definition.build();
+        final ByteBuffer buffer;
+        final RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            buffer = raf.getChannel().map(
+                    FileChannel.MapMode.READ_ONLY, 0, raf.length());
+        } finally {
+            raf.close();
+        }
+        final DataInputStream in = new DataInputStream(
+                new ByteBufferInputStream(buffer));
+        final Reader reader =
+                new Reader(in, loader(definition.getClass()), file);
+        final long fingerprint;
+        final Module module;
+        try {
+            if (in.readInt() != MAGIC || in.readShort() != VERSION)
+                return definition.build();
+            fingerprint = in.readLong();
+            module = reader.module();
+        } catch (EOFException ex) {
+            return definition.build();
+        } catch (ClassNotFoundException ex) {
+            return definition.build();
+        } catch (NoSuchMethodException ex) {
+            return definition.build();
+        } catch (StreamCorruptedException ex) {
+            return definition.build();
+        } catch (RuntimeException ex) {
+            // The snapshot is truncated or corrupted, e.g. an index is out
+            // of bounds or the buffer underflows.
+            return definition.build();
+        }
+        return fingerprint == fingerprint(definition.getClass(), reader.classes)
+                ? module
+                : definition.build();
+    }
+
+    private static ClassLoader loader(final Class<?> clazz) {
+        final ClassLoader loader = clazz.getClassLoader();
+        return null != loader ? loader : ClassLoader.getSystemClassLoader();
+    }
+
+    /**
+     * Computes a fingerprint of the byte code of the given definer class and
+     * its enclosing classes and of the structure of the given classes.
+     */
+    private static long fingerprint(
+            final Class<?> definer,
+            final Collection<Class<?>> classes)
+    throws IOException {
+        final CRC32 crc = new CRC32();
+        for (Class<?> c = definer; null != c; c = c.getEnclosingClass())
+            update(crc, c);
+        final SortedMap<String, Class<?>> sorted = new TreeMap<String, Class<?>>();
+        for (Class<?> c : classes)
+            sorted.put(c.getName(), c);
+        for (Class<?> c : sorted.values())
+            crc.update(structure(c).getBytes("UTF-8"));
+        return crc.getValue();
+    }
+
+    private static void update(final CRC32 crc, final Class<?> clazz)
+    throws IOException {
+        final String name = clazz.getName();
+        final InputStream in = clazz.getResourceAsStream(
+                "/" + name.replace('.', '/') + ".class");
+        if (null == in) {
+            crc.update(name.getBytes("UTF-8"));
+            return;
+        }
+        try {
+            final byte[] buffer = new byte[8 * 1024];
+            for (int read; 0 <= (read = in.read(buffer)); )
+                crc.update(buffer, 0, read);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Returns a description of the parts of the given class which are
+     * relevant for binding it: its type hierarchy and its constructors.
+     */
+    private static String structure(final Class<?> clazz) {
+        final StringBuilder sb = new StringBuilder(clazz.getName())
+                .append(':').append(clazz.getModifiers());
+        final Class<?> superclass = clazz.getSuperclass();
+        if (null != superclass) sb.append(" extends ").append(superclass.getName());
+        for (Class<?> i : clazz.getInterfaces())
+            sb.append(" implements ").append(i.getName());
+        final SortedSet<String> constructors = new TreeSet<String>();
+        for (Constructor<?> c : clazz.getDeclaredConstructors())
+            constructors.add(c.toGenericString());
+        for (String c : constructors)
+            sb.append(' ').append(c);
+        return sb.append('\n').toString();
+    }
+
+    private static final class Writer {
+        final DataOutputStream out;
+        final Set<Class<?>> classes = new HashSet<Class<?>>();
+        final Map<String, Integer> strings = new HashMap<String, Integer>();
+
+        Writer(final DataOutputStream out) { this.out = out; }
+
+        void module(final Module module) throws IOException {
+            if (module instanceof ParallelModule) {
+                out.writeByte(MODULE_COMPILED);
+                out.writeInt(0);
+                modules(((ParallelModule) module).modules);
+            } else if (module instanceof CompiledModule) {
+                final CompiledModule compiled = (CompiledModule) module;
+                out.writeByte(MODULE_COMPILED);
+                out.writeInt(compiled.definitions.length);
+                for (BindingDefinition definition : compiled.definitions)
+                    definition(definition);
+                modules(compiled.modules);
+            } else if (module instanceof BulkModule) {
+                module(((BulkModule) module).compile());
+            } else if (module instanceof ConstantsModule) {
+                final ConstantsModule constants = (ConstantsModule) module;
+                out.writeByte(MODULE_CONSTANTS);
+                if (null != constants.file) {
+                    out.writeInt(-1);
+                    string(constants.file.getPath());
+                } else {
+                    final String[] properties = constants.properties;
+                    out.writeInt(properties.length);
+                    for (String property : properties)
+                        string(property);
+                }
+            } else if (module instanceof CollectionModule) {
+                collection((CollectionModule) module);
+            } else {
+                throw new NotSerializableException(module.getClass().getName());
+            }
+        }
+
+        void collection(final CollectionModule collection) throws IOException {
+            out.writeByte(MODULE_COLLECTION);
+            key(collection.key);
+            final ArraySet<?> mapKeys = collection.mapKeys;
+            final Key<?>[] targets = collection.targets;
+            out.writeInt(targets.length);
+            out.writeBoolean(null != mapKeys);
+            for (int i = 0; i < targets.length; i++) {
+                if (null != mapKeys) {
+                    final Object mapKey = mapKeys.get(i);
+                    if (!CollectionModule.isConstant(mapKey))
+                        throw new NotSerializableException(String.valueOf(mapKey));
+                    constant(mapKey);
+                }
+                if (null == targets[i])
+                    throw new NotSerializableException(
+                            String.valueOf(collection.instances[i]));
+                key(targets[i]);
+            }
+            scope(collection.scope);
+        }
+
+        void modules(final Module[] modules) throws IOException {
+            out.writeInt(modules.length);
+            for (Module module : modules)
+                module(module);
+        }
+
+        void definition(final BindingDefinition definition) throws IOException {
+            if (null != definition.metrics)
+                throw new NotSerializableException(ProvisionMetrics.class.getName());
+            if (0 < definition.pool)
+                throw new NotSerializableException(Pool.class.getName());
+            out.writeByte((definition.exposed ? FLAG_EXPOSED : 0)
+                    | (definition.bound ? FLAG_BOUND : 0)
+                    | (definition.eager ? FLAG_EAGER : 0)
+                    | (definition.isConstant() ? FLAG_CONSTANT : 0)
+                    | (definition.lazy ? FLAG_LAZY : 0));
+            if (definition.isConstant()) annotation(definition.annotation);
+            else key(definition.key);
+            out.writeByte(definition.target.ordinal());
+            final Object value = definition.value;
+            switch (definition.target) {
+                case KEY:
+                case PROVIDER_KEY:
+                    key((Key<?>) value);
+                    break;
+                case CONSTRUCTOR:
+                    final Constructor<?> c = (Constructor<?>) value;
+                    type(c.getDeclaringClass());
+                    final Class<?>[] parameters = c.getParameterTypes();
+                    out.writeInt(parameters.length);
+                    for (Class<?> p : parameters)
+                        type(p);
+                    type(definition.constructed.getType());
+                    break;
+                case CONSTANT:
+                    constant(value);
+                    break;
+                case INSTANCE:
+                case PROVIDER:
+                    throw new NotSerializableException(String.valueOf(value));
+                default:
+            }
+            scope(definition.scope);
+        }
+
+        void key(final Key<?> key) throws IOException {
+            type(key.getTypeLiteral().getType());
+            final Annotation annotation = key.getAnnotation();
+            annotation(null != annotation ? annotation : key.getAnnotationType());
+        }
+
+        void annotation(final Object annotation) throws IOException {
+            if (annotation instanceof Named) {
+                out.writeByte(ANNOTATION_NAMED);
+                string(((Named) annotation).value());
+            } else if (annotation instanceof Annotation) {
+                final Class<? extends Annotation> type =
+                        ((Annotation) annotation).annotationType();
+                if (0 != type.getDeclaredMethods().length)
+                    throw new NotSerializableException(annotation.toString());
+                out.writeByte(ANNOTATION_TYPE);
+                type(type);
+            } else if (null != annotation) {
+                out.writeByte(ANNOTATION_TYPE);
+                type((Class<?>) annotation);
+            } else {
+                out.writeByte(ANNOTATION_NONE);
+            }
+        }
+
+        void scope(final Object scope) throws IOException {
+            if (null == scope) {
+                out.writeByte(SCOPE_NONE);
+            } else if (scope instanceof Class) {
+                out.writeByte(SCOPE_ANNOTATION);
+                type((Class<?>) scope);
+            } else if (Scopes.SINGLETON == scope) {
+                out.writeByte(SCOPE_SINGLETON);
+            } else if (Scopes.NO_SCOPE == scope) {
+                out.writeByte(SCOPE_NO_SCOPE);
+            } else if (GuicerScopes.LAZY_SINGLETON == scope) {
+                out.writeByte(SCOPE_LAZY_SINGLETON);
+            } else if (GuicerScopes.CONCURRENT_SINGLETON == scope) {
+                out.writeByte(SCOPE_CONCURRENT_SINGLETON);
+            } else if (AsyncSingletons.SCOPE == scope) {
+                out.writeByte(SCOPE_ASYNC_SINGLETON);
+            } else {
+                throw new NotSerializableException(scope.toString());
+            }
+        }
+
+        void constant(final Object value) throws IOException {
+            if (value instanceof Class) {
+                out.writeByte(0);
+                type((Class<?>) value);
+            } else if (value instanceof Enum) {
+                out.writeByte(1);
+                type(((Enum<?>) value).getDeclaringClass());
+                string(((Enum<?>) value).name());
+            } else if (value instanceof Character) {
+                out.writeByte(2);
+                out.writeChar((Character) value);
+            } else {
+                // All other constant types have a static valueOf(String).
+                out.writeByte(3);
+                type(value.getClass());
+                string(value.toString());
+            }
+        }
+
+        void type(final Type type) throws IOException {
+            if (type instanceof Class) {
+                final Class<?> c = (Class<?>) type;
+                out.writeByte(TYPE_CLASS);
+                if (!c.isPrimitive()) classes.add(c);
+                string(c.getName());
+            } else if (type instanceof ParameterizedType) {
+                final ParameterizedType p = (ParameterizedType) type;
+                out.writeByte(TYPE_PARAMETERIZED);
+                nullableType(p.getOwnerType());
+                type(p.getRawType());
+                types(p.getActualTypeArguments());
+            } else if (type instanceof GenericArrayType) {
+                out.writeByte(TYPE_ARRAY);
+                type(((GenericArrayType) type).getGenericComponentType());
+            } else if (type instanceof WildcardType) {
+                final WildcardType w = (WildcardType) type;
+                out.writeByte(TYPE_WILDCARD);
+                types(w.getUpperBounds());
+                types(w.getLowerBounds());
+            } else {
+                throw new NotSerializableException(String.valueOf(type));
+            }
+        }
+
+        void nullableType(final Type type) throws IOException {
+            if (null == type) out.writeByte(TYPE_NONE);
+            else type(type);
+        }
+
+        void types(final Type[] types) throws IOException {
+            out.writeInt(types.length);
+            for (Type type : types)
+                type(type);
+        }
+
+        void string(final String string) throws IOException {
+            final Integer index = strings.get(string);
+            if (null != index) {
+                out.writeInt(index);
+            } else {
+                out.writeInt(-1);
+                out.writeUTF(string);
+                strings.put(string, strings.size());
+            }
+        }
+    }
+
+    private static final class Reader {
+        final DataInputStream in;
+        final ClassLoader loader;
+
+        /** The source of the restored modules which have no definitions. */
+        final Object source;
+
+        final Set<Class<?>> classes = new HashSet<Class<?>>();
+        final List<String> strings = new ArrayList<String>();
+
+        Reader(
+                final DataInputStream in,
+                final ClassLoader loader,
+                final Object source) {
+            this.in = in;
+            this.loader = loader;
+            this.source = source;
+        }
+
+        Module module()
+        throws IOException, ClassNotFoundException, NoSuchMethodException {
+            switch (in.readByte()) {
+                case MODULE_COMPILED:
+                    return compiled();
+                case MODULE_CONSTANTS:
+                    return constants();
+                case MODULE_COLLECTION:
+                    return collection();
+                default:
+                    throw new StreamCorruptedException("Unknown module kind.");
+            }
+        }
+
+        Module compiled()
+        throws IOException, ClassNotFoundException, NoSuchMethodException {
+            final int size = in.readInt();
+            final List<BindingDefinition> definitions =
+                    new ArrayList<BindingDefinition>(size);
+            for (int i = 0; i < size; i++)
+                definitions.add(definition());
+            final int count = in.readInt();
+            final List<Module> modules = new ArrayList<Module>(count);
+            for (int i = 0; i < count; i++)
+                modules.add(module());
+            return new CompiledModule(definitions, modules);
+        }
+
+        Module collection()
+        throws IOException, ClassNotFoundException, NoSuchMethodException {
+            final Key<?> key = key();
+            final int size = in.readInt();
+            final boolean map = in.readBoolean();
+            final Object[] mapKeys = map ? new Object[size] : null;
+            final Key<?>[] targets = new Key<?>[size];
+            for (int i = 0; i < size; i++) {
+                if (map) mapKeys[i] = constant();
+                targets[i] = key();
+            }
+            return new CollectionModule(source, key,
+                    map ? new ArraySet<Object>(mapKeys) : null,
+                    targets, new Object[size], scope());
+        }
+
+        Module constants() throws IOException {
+            final int size = in.readInt();
+            if (0 > size) return new ConstantsModule(source, new File(string()));
+            if (0 != size % 2)
+                throw new StreamCorruptedException("Odd number of properties.");
+            final String[] properties = new String[size];
+            for (int i = 0; i < size; i++)
+                properties[i] = string();
+            return new ConstantsModule(source, properties);
+        }
+
+        BindingDefinition definition()
+        throws IOException, ClassNotFoundException, NoSuchMethodException {
+            final Draft draft = new Draft();
+            final byte flags = in.readByte();
+            draft.exposed = 0 != (flags & FLAG_EXPOSED);
+            draft.bound = 0 != (flags & FLAG_BOUND);
+            draft.eager = 0 != (flags & FLAG_EAGER);
+            draft.constant = 0 != (flags & FLAG_CONSTANT);
+            draft.lazy = 0 != (flags & FLAG_LAZY);
+            if (draft.constant) draft.annotation = annotation();
+            else draft.source = key();
+            final Target target = Target.values()[in.readByte()];
+            switch (target) {
+                case KEY:
+                case PROVIDER_KEY:
+                    draft.target(target, key());
+                    break;
+                case CONSTRUCTOR:
+                    final Class<?> declaring = (Class<?>) type();
+                    final Class<?>[] parameters = new Class<?>[in.readInt()];
+                    for (int i = 0; i < parameters.length; i++)
+                        parameters[i] = (Class<?>) type();
+                    draft.target(target,
+                            declaring.getDeclaredConstructor(parameters));
+                    draft.constructed = TypeLiteral.get(type());
+                    break;
+                case CONSTANT:
+                    draft.target(target, constant());
+                    break;
+                default:
+                    draft.target(target, null);
+            }
+            draft.scope = scope();
+            return draft.toDefinition();
+        }
+
+        Key<?> key() throws IOException, ClassNotFoundException {
+            final TypeLiteral<?> literal = TypeLiteral.get(type());
+            final Object annotation = annotation();
+            if (annotation instanceof Annotation)
+                return Key.get(literal, (Annotation) annotation);
+            if (null != annotation)
+                return Key.get(literal, annotationType(annotation));
+            return Key.get(literal);
+        }
+
+        @SuppressWarnings("unchecked")
+        private static Class<? extends Annotation> annotationType(Object type) {
+            return (Class<? extends Annotation>) type;
+        }
+
+        Object annotation() throws IOException, ClassNotFoundException {
+            switch (in.readByte()) {
+                case ANNOTATION_NAMED:
+                    return Names.named(string());
+                case ANNOTATION_TYPE:
+                    return type();
+                default:
+                    return null;
+            }
+        }
+
+        Object scope() throws IOException, ClassNotFoundException {
+            switch (in.readByte()) {
+                case SCOPE_ANNOTATION:
+                    return type();
+                case SCOPE_SINGLETON:
+                    return Scopes.SINGLETON;
+                case SCOPE_NO_SCOPE:
+                    return Scopes.NO_SCOPE;
+                case SCOPE_LAZY_SINGLETON:
+                    return GuicerScopes.LAZY_SINGLETON;
+                case SCOPE_CONCURRENT_SINGLETON:
+                    return GuicerScopes.CONCURRENT_SINGLETON;
+                case SCOPE_ASYNC_SINGLETON:
+                    return AsyncSingletons.SCOPE;
+                default:
+                    return null;
+            }
+        }
+
+        @SuppressWarnings({ "unchecked", "rawtypes" })
+        Object constant()
+        throws IOException, ClassNotFoundException, NoSuchMethodException {
+            switch (in.readByte()) {
+                case 0:
+                    return type();
+                case 1:
+                    return Enum.valueOf((Class<Enum>) type(), string());
+                case 2:
+                    return in.readChar();
+                default:
+                    final Class<?> type = (Class<?>) type();
+                    final String value = string();
+                    if (String.class == type) return value;
+                    try {
+                        return type.getMethod("valueOf", String.class)
+                                .invoke(null, value);
+                    } catch (IllegalAccessException ex) {
+                        throw new AssertionError(ex);
+                    } catch (InvocationTargetException ex) {
+                        throw new InvalidObjectException(value);
+                    }
+            }
+        }
+
+        Type type() throws IOException, ClassNotFoundException {
+            switch (in.readByte()) {
+                case TYPE_CLASS:
+                    return clazz(string());
+                case TYPE_PARAMETERIZED:
+                    final Type owner = type();
+                    final Type raw = type();
+                    return Types.newParameterizedTypeWithOwner(
+                            owner, raw, types());
+                case TYPE_ARRAY:
+                    return Types.arrayOf(type());
+                case TYPE_WILDCARD:
+                    final Type[] upper = types();
+                    final Type[] lower = types();
+                    return 0 < lower.length
+                            ? Types.supertypeOf(lower[0])
+                            : Types.subtypeOf(upper[0]);
+                default:
+                    return null;
+            }
+        }
+
+        Type[] types() throws IOException, ClassNotFoundException {
+            final Type[] types = new Type[in.readInt()];
+            for (int i = 0; i < types.length; i++)
+                types[i] = type();
+            return types;
+        }
+
+        Class<?> clazz(final String name) throws ClassNotFoundException {
+            final Class<?> clazz = primitive(name);
+            if (null != clazz) return clazz;
+            final Class<?> loaded = Class.forName(name, false, loader);
+            classes.add(loaded);
+            return loaded;
+        }
+
+        private static Class<?> primitive(final String name) {
+            for (Class<?> c : new Class<?>[] {
+                    boolean.class, byte.class, char.class, short.class,
+                    int.class, long.class, float.class, double.class,
+                    void.class })
+                if (c.getName().equals(name))
+                    return c;
+            return null;
+        }
+
+        String string() throws IOException {
+            final int index = in.readInt();
+            if (0 <= index) return strings.get(index);
+            final String string = in.readUTF();
+            strings.add(string);
+            return string;
+        }
+    }
+
+    private static final class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(final ByteBuffer buffer) { this.buffer = buffer; }
+
+        @Override public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+
+        @Override public int read(final byte[] b, final int off, int len) {
+            if (0 == len) return 0;
+            if (!buffer.hasRemaining()) return -1;
+            len = Math.min(len, buffer.remaining());
+            buffer.get(b, off, len);
+            return len;
+        }
+    }
+
+    private ModuleSnapshot() { }
+}
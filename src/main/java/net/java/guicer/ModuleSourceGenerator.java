@@ -0,0 +1,492 @@
+/*
+ * Copyright (C) 2013 Schlichtherle IT Services.
+ * All rights reserved. Use is subject to license terms.
+ */
+package net.java.guicer;
+
+import com.google.inject.*;
+import com.google.inject.name.Named;
+import com.google.inject.name.Names;
+import java.io.*;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.*;
+
+/**
+ * Generates the source code of a plain Guice module from the binding
+ * definitions of a module which has been built by a {@link ModuleBuilder}.
+ * The generated class extends {@link AbstractModule} or, if the module
+ * exposes any keys, {@link PrivateModule}.
+ * Nested modules which have been built by a {@link ModuleBuilder} get
+ * generated as anonymous subclasses of these classes, so that the semantics
+ * of {@code exposeAndBind} and {@code expose} are preserved.
+ * Using the generated module at runtime requires neither running the DSL
+ * nor loading its classes.
+ * <p>
+ * The generator is meant to run at build time, e.g. with the
+ * {@code exec-maven-plugin} after the class which defines the DSL has been
+ * compiled, followed by another compilation of the generated sources.
+ * It cannot run as an annotation processor because annotation processors
+ * have no access to the code of the DSL.
+ * <p>
+ * The source code can only contain definitions which can get expressed in
+ * Java source code: accessible classes, type literals, keys, scope
+ * annotations, the scopes in {@link Scopes} and {@link GuicerScopes},
+ * constants, constructors and binding annotations which are either annotation
+ * types, marker annotations or {@link Names#named(String)}.
+ * Bindings to instances or providers and lazy, metered or pooled bindings
+ * cannot get generated.
+ * Constants which have been bound from a file get read from the file by a
+ * {@link ModuleBuilder} each time the generated module gets configured.
+ * Likewise, set and map bindings get installed from a {@link ModuleBuilder}
+ * if their elements are keys and their map keys are strings, boxed
+ * primitives, enums or classes.
+ * Any other modules cannot get generated because their state would get
+ * lost.
+ *
+ * @author Christian Schlichtherle
+ */
+public final class ModuleSourceGenerator {
+
+    /**
+     * Generates the source code for the module which gets built by the given
+     * class into the given directory.
+     * The arguments are the name of a class which implements
+     * {@code Builder<Module>} and has a public no-arg constructor, the fully
+     * qualified name of the class to generate and the output directory.
+     */
+    @SuppressWarnings("unchecked")
+    public static void main(final String[] args) throws Exception {
+        if (3 != args.length) {
+            System.err.println("Usage: java " + ModuleSourceGenerator.class.getName()
+                    + " <definition-class> <generated-class> <output-directory>");
+            System.exit(2);
+        }
+        final Builder<Module> definition = (Builder<Module>)
+                Class.forName(args[0]).newInstance();
+        final File file = new File(args[2],
+                args[1].replace('.', File.separatorChar) + ".java");
+        file.getParentFile().mkdirs();
+        final Writer out = new OutputStreamWriter(
+                new FileOutputStream(file), "UTF-8");
+        try {
+            generate(definition, args[1], out);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Generates the source code for the module which gets built by the given
+     * definition as a class with the given fully qualified name.
+     *
+     * @throws IllegalArgumentException if the module contains any definitions
+     *         which cannot get expressed in Java source code.
+     */
+    public static void generate(
+            final Builder<Module> definition,
+            final String className,
+            final Appendable out)
+    throws IOException {
+        out.append(new Generator().generate(
+                definition.build(), definition.getClass(), className));
+    }
+
+    private static final class Generator {
+        private final StringBuilder out = new StringBuilder(4096);
+        private boolean constructors;
+        private int indent;
+
+        String generate(
+                final Module module,
+                final Class<?> definer,
+                final String className) {
+            final int dot = className.lastIndexOf('.');
+            line("// Generated by " + ModuleSourceGenerator.class.getName()
+                    + " from " + definer.getName() + " - DO NOT EDIT!");
+            if (0 <= dot) {
+                line("package " + className.substring(0, dot) + ";");
+                line("");
+            }
+            final int header = out.length();
+            line("public final class " + className.substring(dot + 1)
+                    + " extends " + superclass(module) + " {");
+            indent++;
+            line("");
+            configure(module);
+            if (constructors) {
+                out.insert(header,
+                        "@SuppressWarnings({ \"unchecked\", \"rawtypes\" })\n");
+                line("");
+                line("private static java.lang.reflect.Constructor<?> constructor(");
+                line("        final Class<?> type,");
+                line("        final Class<?>... parameterTypes) {");
+                line("    try {");
+                line("        return type.getDeclaredConstructor(parameterTypes);");
+                line("    } catch (NoSuchMethodException ex) {");
+                line("        throw new IllegalStateException(ex);");
+                line("    }");
+                line("}");
+            }
+            indent--;
+            line("}");
+            return out.toString();
+        }
+
+        private static String superclass(final Module module) {
+            return module instanceof CompiledModule
+                    && ((CompiledModule) module).exposing
+                    ? "com.google.inject.PrivateModule"
+                    : "com.google.inject.AbstractModule";
+        }
+
+        private void configure(final Module module) {
+            line("@Override protected void configure() {");
+            indent++;
+            if (module instanceof CompiledModule) {
+                final CompiledModule compiled = (CompiledModule) module;
+                for (BindingDefinition definition : compiled.definitions)
+                    definition(definition);
+                for (Module nested : compiled.modules)
+                    install(nested);
+            } else {
+                install(module);
+            }
+            indent--;
+            line("}");
+        }
+
+        private void install(final Module module) {
+            if (module instanceof CompiledModule) {
+                line("install(new " + superclass(module) + "() {");
+                indent++;
+                configure(module);
+                indent--;
+                line("});");
+            } else if (module instanceof ParallelModule) {
+                for (Module nested : ((ParallelModule) module).modules)
+                    install(nested);
+            } else if (module instanceof BulkModule) {
+                for (BindingDefinition definition
+                        : ((BulkModule) module).compile().definitions)
+                    definition(definition);
+            } else if (module instanceof ConstantsModule) {
+                constants((ConstantsModule) module);
+            } else if (module instanceof CollectionModule) {
+                collection((CollectionModule) module);
+            } else {
+                // The state of the module would get lost.
+                throw unsupported(module);
+            }
+        }
+
+        private void constants(final ConstantsModule module) {
+            if (null != module.file) {
+                // The file gets read each time the module gets configured.
+                line("install(new " + GuiceContext.class.getName()
+                        + "().injector().module().bindConstants(new java.io.File("
+                        + string(module.file.getPath()) + ")).build());");
+                return;
+            }
+            final String[] properties = module.properties;
+            for (int i = 0; i < properties.length; i += 2)
+                line("bindConstant().annotatedWith(com.google.inject.name.Names.named("
+                        + string(properties[i]) + ")).to("
+                        + string(properties[i + 1]) + ");");
+        }
+
+        private void collection(final CollectionModule module) {
+            final Key<?> key = module.key;
+            final java.lang.reflect.Type[] arguments = ((ParameterizedType)
+                    key.getTypeLiteral().getType()).getActualTypeArguments();
+            final StringBuilder statement = new StringBuilder("install(new ")
+                    .append(GuiceContext.class.getName())
+                    .append("().injector().module()");
+            if (GuicerScopes.LAZY_SINGLETON == module.scope)
+                statement.append(".lazySingletons()");
+            final ArraySet<?> mapKeys = module.mapKeys;
+            if (null == mapKeys) {
+                statement.append(".bindSet(")
+                        .append(keyOrLiteral(elementKey(key, arguments[0])))
+                        .append(')');
+            } else {
+                final Key<?> valueKey = elementKey(key, arguments[1]);
+                statement.append(".bindMap(")
+                        .append(typeLiteral(TypeLiteral.get(arguments[0])))
+                        .append(", ")
+                        .append(null == annotation(valueKey)
+                            ? typeLiteral(valueKey.getTypeLiteral())
+                            : keyOrLiteral(valueKey))
+                        .append(')');
+            }
+            final Key<?>[] targets = module.targets;
+            final String[] elements = new String[targets.length];
+            for (int i = 0; i < targets.length; i++) {
+                if (null == targets[i])
+                    throw unsupported("instance in collection binding for " + key);
+                if (null == mapKeys) {
+                    elements[i] = "        .add(" + keyOrLiteral(targets[i]) + ")";
+                } else {
+                    final Object mapKey = mapKeys.get(i);
+                    if (!CollectionModule.isConstant(mapKey))
+                        throw unsupported(mapKey);
+                    elements[i] = "        .put(" + constant(mapKey) + ", "
+                            + keyOrLiteral(targets[i]) + ")";
+                }
+            }
+            line(statement.toString());
+            for (String element : elements)
+                line(element);
+            line("        .inject().build());");
+        }
+
+        /**
+         * Returns the key for the given element type which is annotated
+         * like the given collection key.
+         */
+        private static Key<?> elementKey(
+                final Key<?> key,
+                final java.lang.reflect.Type type) {
+            return null != key.getAnnotation()
+                    ? Key.get(type, key.getAnnotation())
+                    : null != key.getAnnotationType()
+                        ? Key.get(type, key.getAnnotationType())
+                        : Key.get(type);
+        }
+
+        private void definition(final BindingDefinition definition) {
+            final Key<?> key = definition.key;
+            if (definition.exposed) line("expose(" + keyOrLiteral(key) + ");");
+            if (definition.isConstant()) {
+                constant(definition);
+                return;
+            }
+            if (!definition.bound) return;
+            if (definition.lazy)
+                throw unsupported("lazy binding for " + key);
+            if (null != definition.metrics)
+                throw unsupported("metered binding for " + key);
+            if (0 < definition.pool)
+                throw unsupported("pooled binding for " + key);
+            final StringBuilder statement = new StringBuilder("bind(")
+                    .append(literal(key.getTypeLiteral())).append(')');
+            final String annotation = annotation(key);
+            if (null != annotation)
+                statement.append(".annotatedWith(").append(annotation).append(')');
+            switch (definition.target) {
+                case KEY:
+                    statement.append(".to(")
+                            .append(keyOrLiteral((Key<?>) definition.value))
+                            .append(')');
+                    break;
+                case PROVIDER_KEY:
+                    statement.append(".toProvider(")
+                            .append(keyOrLiteral((Key<?>) definition.value))
+                            .append(')');
+                    break;
+                case CONSTRUCTOR:
+                    // The casts to raw types reconcile the type parameters.
+                    statement.append(".toConstructor((java.lang.reflect.Constructor) ")
+                            .append(constructor((Constructor<?>) definition.value))
+                            .append(", (com.google.inject.TypeLiteral) ")
+                            .append(typeLiteral(definition.constructed))
+                            .append(')');
+                    break;
+                case NONE:
+                    break;
+                default:
+                    throw unsupported(definition.target + " binding for " + key);
+            }
+            final Object scope = definition.scope;
+            if (definition.eager)
+                statement.append(".asEagerSingleton()");
+            else if (null != scope)
+                statement.append(".in(").append(scope(scope)).append(')');
+            line(statement.append(';').toString());
+        }
+
+        private void constant(final BindingDefinition definition) {
+            final Object annotation = definition.annotation;
+            final StringBuilder statement = new StringBuilder("bindConstant()");
+            if (annotation instanceof Annotation)
+                statement.append(".annotatedWith(")
+                        .append(annotation((Annotation) annotation))
+                        .append(')');
+            else if (null != annotation)
+                statement.append(".annotatedWith(")
+                        .append(type((Class<?>) annotation))
+                        .append(".class)");
+            if (null != annotation
+                    && BindingDefinition.Target.CONSTANT == definition.target)
+                statement.append(".to(")
+                        .append(constant(definition.value))
+                        .append(')');
+            line(statement.append(';').toString());
+        }
+
+        private String constructor(final Constructor<?> constructor) {
+            constructors = true;
+            final StringBuilder expression = new StringBuilder("constructor(")
+                    .append(type(constructor.getDeclaringClass()))
+                    .append(".class");
+            for (Class<?> parameterType : constructor.getParameterTypes())
+                expression.append(", ").append(type(parameterType)).append(".class");
+            return expression.append(')').toString();
+        }
+
+        private static String scope(final Object scope) {
+            if (Scopes.SINGLETON == scope)
+                return "com.google.inject.Scopes.SINGLETON";
+            if (Scopes.NO_SCOPE == scope)
+                return "com.google.inject.Scopes.NO_SCOPE";
+            if (GuicerScopes.LAZY_SINGLETON == scope)
+                return GuicerScopes.class.getName() + ".LAZY_SINGLETON";
+            if (GuicerScopes.CONCURRENT_SINGLETON == scope)
+                return GuicerScopes.class.getName() + ".CONCURRENT_SINGLETON";
+            if (scope instanceof Class)
+                return type((Class<?>) scope) + ".class";
+            throw unsupported(scope);
+        }
+
+        private static String keyOrLiteral(final Key<?> key) {
+            final String annotation = annotation(key);
+            return null == annotation
+                    ? literal(key.getTypeLiteral())
+                    : "com.google.inject.Key.get("
+                        + literal(key.getTypeLiteral()) + ", " + annotation + ")";
+        }
+
+        private static String annotation(final Key<?> key) {
+            final Annotation annotation = key.getAnnotation();
+            if (null != annotation) return annotation(annotation);
+            final Class<?> type = key.getAnnotationType();
+            return null == type ? null : type(type) + ".class";
+        }
+
+        private static String annotation(final Annotation annotation) {
+            if (annotation instanceof Named)
+                return "com.google.inject.name.Names.named("
+                        + string(((Named) annotation).value()) + ")";
+            if (annotation instanceof javax.inject.Named)
+                return "com.google.inject.name.Names.named("
+                        + string(((javax.inject.Named) annotation).value()) + ")";
+            final Class<? extends Annotation> type = annotation.annotationType();
+            if (0 == type.getDeclaredMethods().length)
+                return type(type) + ".class";
+            throw unsupported(annotation);
+        }
+
+        private static String literal(final TypeLiteral<?> literal) {
+            final java.lang.reflect.Type type = literal.getType();
+            return type instanceof Class
+                    ? type((Class<?>) type) + ".class"
+                    : "new com.google.inject.TypeLiteral<" + type(type) + ">() { }";
+        }
+
+        private static String typeLiteral(final TypeLiteral<?> literal) {
+            final java.lang.reflect.Type type = literal.getType();
+            return type instanceof Class
+                    ? "com.google.inject.TypeLiteral.get(" + literal(literal) + ")"
+                    : literal(literal);
+        }
+
+        private static String type(final java.lang.reflect.Type type) {
+            if (type instanceof Class) {
+                final String name = ((Class<?>) type).getCanonicalName();
+                if (null == name) throw unsupported(type);
+                return name;
+            } else if (type instanceof ParameterizedType) {
+                final ParameterizedType parameterized = (ParameterizedType) type;
+                final StringBuilder name = new StringBuilder(
+                        type(parameterized.getRawType())).append('<');
+                final java.lang.reflect.Type[] arguments =
+                        parameterized.getActualTypeArguments();
+                for (int i = 0; i < arguments.length; i++) {
+                    if (0 < i) name.append(", ");
+                    name.append(type(arguments[i]));
+                }
+                return name.append('>').toString();
+            } else if (type instanceof GenericArrayType) {
+                return type(((GenericArrayType) type)
+                        .getGenericComponentType()) + "[]";
+            } else if (type instanceof WildcardType) {
+                final WildcardType wildcard = (WildcardType) type;
+                final java.lang.reflect.Type[] lower = wildcard.getLowerBounds();
+                if (0 < lower.length) return "? super " + type(lower[0]);
+                final java.lang.reflect.Type upper = wildcard.getUpperBounds()[0];
+                return Object.class == upper ? "?" : "? extends " + type(upper);
+            }
+            throw unsupported(type);
+        }
+
+        private static String constant(final Object value) {
+            if (value instanceof String) return string((String) value);
+            if (value instanceof Long) return value + "L";
+            if (value instanceof Float) return floatingPoint((Float) value, "F");
+            if (value instanceof Double) return floatingPoint((Double) value, "D");
+            if (value instanceof Short) return "(short) " + value;
+            if (value instanceof Byte) return "(byte) " + value;
+            if (value instanceof Character)
+                return escape(new StringBuilder(8).append('\''),
+                        (Character) value).append('\'').toString();
+            if (value instanceof Class) return type((Class<?>) value) + ".class";
+            if (value instanceof Enum)
+                return type(((Enum<?>) value).getDeclaringClass())
+                        + '.' + ((Enum<?>) value).name();
+            return String.valueOf(value); // Integer or Boolean
+        }
+
+        private static String floatingPoint(final Number value, final String suffix) {
+            final double d = value.doubleValue();
+            if (Double.isNaN(d)) return "0.0" + suffix + " / 0.0" + suffix;
+            if (Double.isInfinite(d))
+                return (0 < d ? "1.0" : "-1.0") + suffix + " / 0.0" + suffix;
+            return value + suffix;
+        }
+
+        private static String string(final String value) {
+            final StringBuilder literal = new StringBuilder(value.length() + 2)
+                    .append('"');
+            for (int i = 0; i < value.length(); i++)
+                escape(literal, value.charAt(i));
+            return literal.append('"').toString();
+        }
+
+        /**
+         * Appends the given character as it needs to appear in a character
+         * or string literal.
+         * Unicode escapes get translated before the source code gets parsed,
+         * so quotes, backslashes and line terminators need escape sequences
+         * instead.
+         */
+        private static StringBuilder escape(
+                final StringBuilder literal,
+                final char c) {
+            switch (c) {
+                case '"': return literal.append("\\\"");
+                case '\'': return literal.append("\\'");
+                case '\\': return literal.append("\\\\");
+                case '\n': return literal.append("\\n");
+                case '\r': return literal.append("\\r");
+                case '\t': return literal.append("\\t");
+                default:
+                    return c < 0x20 || 0x7e < c
+                            ? literal.append(String.format("\\u%04x", (int) c))
+                            : literal.append(c);
+            }
+        }
+
+        private static IllegalArgumentException unsupported(final Object item) {
+            return new IllegalArgumentException(
+                    "Cannot generate source code for " + item);
+        }
+
+        private void line(final String line) {
+            if (!line.isEmpty())
+                for (int i = indent; 0 < i; i--)
+                    out.append("    ");
+            out.append(line).append('\n');
+        }
+    }
+
+    private ModuleSourceGenerator() { }
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2013 Schlichtherle IT Services.
+ * All rights reserved. Use is subject to license terms.
+ */
+package net.java.guicer;
+
+import com.google.inject.Key;
+import com.google.inject.Module;
+import com.google.inject.Scope;
+import com.google.inject.TypeLiteral;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Constructor;
+import java.util.*;
+
+/**
+ * Sorts the configuration of concurrent module containers into a
+ * deterministic order.
+ * Items with equal names get sorted by their content.
+ * Modules which have not been built by a {@link ModuleBuilder} cannot get
+ * inspected, so if they are of the same class, then they stay in the order
+ * of their addition.
+ *
+ * @see ModuleContainer#concurrentModule()
+ * @author Christian Schlichtherle
+ */
+final class Ordering {
+
+    /** Returns the given definitions sorted by their keys. */
+    static List<BindingDefinition> definitions(
+            final Collection<BindingDefinition> definitions) {
+        return sorted(definitions, new Comparator<BindingDefinition>() {
+            @Override
+            public int compare(BindingDefinition o1, BindingDefinition o2) {
+                final int c = name(o1).compareTo(name(o2));
+                return 0 != c ? c : content(o1).compareTo(content(o2));
+            }
+        });
+    }
+
+    /**
+     * Returns the given modules sorted by the name of their first binding
+     * definition or their class and then by their content.
+     */
+    static List<Module> modules(final Collection<Module> modules) {
+        // The content is only required for equal names, but then it gets
+        // compared repeatedly.
+        final Map<Module, String> contents =
+                new IdentityHashMap<Module, String>();
+        return sorted(modules, new Comparator<Module>() {
+            @Override public int compare(Module o1, Module o2) {
+                final int c = name(o1).compareTo(name(o2));
+                return 0 != c ? c : content(o1).compareTo(content(o2));
+            }
+
+            private String content(final Module module) {
+                String content = contents.get(module);
+                if (null == content)
+                    contents.put(module, content = Ordering.content(module));
+                return content;
+            }
+        });
+    }
+
+    private static <T> List<T> sorted(
+            final Collection<T> collection,
+            final Comparator<? super T> comparator) {
+        final List<T> list = new ArrayList<T>(collection);
+        Collections.sort(list, comparator); // stable
+        return list;
+    }
+
+    private static String name(final BindingDefinition definition) {
+        return (definition.isConstant()
+                    ? "@" + definition.annotation
+                    : definition.key.toString())
+                + (definition.bound ? " bound" : "")
+                + (definition.exposed ? " exposed" : "");
+    }
+
+    private static String name(final Module module) {
+        if (module instanceof CompiledModule) {
+            final CompiledModule compiled = (CompiledModule) module;
+            if (0 < compiled.definitions.length)
+                return name(compiled.definitions[0]);
+            if (0 < compiled.modules.length)
+                return name(compiled.modules[0]);
+        } else if (module instanceof BulkModule) {
+            final BulkModule bulk = (BulkModule) module;
+            if (0 < bulk.size()) return bulk.key(0) + " bound";
+        } else if (module instanceof ParallelModule) {
+            final Module[] modules = ((ParallelModule) module).modules;
+            if (0 < modules.length) return name(modules[0]);
+        }
+        return module.getClass().getName();
+    }
+
+    /** Returns the content of the given definition apart from its name. */
+    private static String content(final BindingDefinition definition) {
+        return definition.target
+                + " " + value(definition.value)
+                + " " + value(definition.constructed)
+                + " " + value(definition.scope)
+                + (definition.eager ? " eager" : "")
+                + (definition.lazy ? " lazy" : "")
+                + (null != definition.metrics ? " metered" : "")
+                + " " + definition.pool;
+    }
+
+    /**
+     * Returns the content of the given module or an empty string if it
+     * cannot get inspected.
+     */
+    private static String content(final Module module) {
+        final StringBuilder content = new StringBuilder();
+        content(module, content);
+        return content.toString();
+    }
+
+    private static void content(final Module module, final StringBuilder out) {
+        if (module instanceof CompiledModule) {
+            final CompiledModule compiled = (CompiledModule) module;
+            out.append('{');
+            for (BindingDefinition definition : compiled.definitions)
+                out.append(name(definition)).append(' ')
+                        .append(content(definition)).append(';');
+            for (Module nested : compiled.modules)
+                content(nested, out);
+            out.append('}');
+        } else if (module instanceof BulkModule) {
+            content(((BulkModule) module).compile(), out);
+        } else if (module instanceof ParallelModule) {
+            for (Module nested : ((ParallelModule) module).modules)
+                content(nested, out);
+        } else if (module instanceof ConstantsModule) {
+            final ConstantsModule constants = (ConstantsModule) module;
+            out.append(null != constants.file
+                    ? constants.file.getPath()
+                    : Arrays.toString(constants.properties));
+        } else if (module instanceof CollectionModule) {
+            final CollectionModule collection = (CollectionModule) module;
+            out.append(collection.key).append(' ')
+                    .append(collection.mapKeys).append(' ')
+                    .append(Arrays.toString(collection.targets));
+            for (Object instance : collection.instances)
+                out.append(' ').append(value(instance));
+            out.append(' ').append(value(collection.scope));
+        } else if (module instanceof ModuleBuilder.ErrorModule) {
+            out.append(((ModuleBuilder.ErrorModule) module).exception);
+        }
+    }
+
+    /**
+     * Returns the string representation of the given value if it's
+     * deterministic or else its class name.
+     */
+    private static String value(final Object value) {
+        return null == value
+                || value instanceof Key
+                || value instanceof TypeLiteral
+                || value instanceof Constructor
+                || value instanceof Annotation
+                || value instanceof Scope
+                || CollectionModule.isConstant(value)
+                ? String.valueOf(value)
+                : value.getClass().getName();
+    }
+
+    private Ordering() { }
+}
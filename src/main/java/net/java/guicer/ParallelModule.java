@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2013 Schlichtherle IT Services.
+ * All rights reserved. Use is subject to license terms.
+ */
+package net.java.guicer;
+
+import com.google.inject.Binder;
+import com.google.inject.Module;
+import com.google.inject.Stage;
+import com.google.inject.spi.Element;
+import com.google.inject.spi.Elements;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * A module which configures its modules concurrently.
+ * Each module gets recorded by a separate task on the given executor.
+ * The recorded elements are then applied to the binder in the order of the
+ * modules, so that the configuration and any errors are deterministic.
+ * While waiting for a recording, the configuring thread runs the recording
+ * itself unless it has already been started by the executor.
+ * <p>
+ * While a {@link StartupReport} is profiling, the modules get recorded
+ * sequentially on the configuring thread instead, so that the report can
+ * time their singletons.
+ * <p>
+ * Note that the modules get recorded in isolation, so a module which gets
+ * installed by more than one of the given modules gets configured more than
+ * once.
+ *
+ * @author Christian Schlichtherle
+ */
+final class ParallelModule implements Module {
+
+    final Module[] modules;
+    private final Executor executor;
+
+    ParallelModule(final Collection<Module> modules, final Executor executor) {
+        final Set<Module> unique = new LinkedHashSet<Module>(modules);
+        this.modules = unique.toArray(new Module[unique.size()]);
+        this.executor = executor;
+    }
+
+    @Override public void configure(final Binder binder) {
+        final Stage stage = binder.currentStage();
+        if (null != StartupReport.current()) {
+            for (Module module : modules)
+                for (Element element : Elements.getElements(stage, module))
+                    element.applyTo(binder);
+            return;
+        }
+        final List<FutureTask<List<Element>>> recordings =
+                new ArrayList<FutureTask<List<Element>>>(modules.length);
+        for (final Module module : modules) {
+            final FutureTask<List<Element>> task = new FutureTask<List<Element>>(
+                    new Callable<List<Element>>() {
+                        @Override public List<Element> call() {
+                            return Elements.getElements(stage, module);
+                        }
+                    });
+            executor.execute(task);
+            recordings.add(task);
+        }
+        for (FutureTask<List<Element>> recording : recordings) {
+            // Run the task on this thread unless it has already been started
+            // in order to prevent starvation of nested parallel modules.
+            recording.run();
+            for (Element element : get(recording))
+                element.applyTo(binder);
+        }
+    }
+
+    private static <V> V get(final Future<V> future) {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return future.get();
+                } catch (InterruptedException ex) {
+                    interrupted = true;
+                } catch (ExecutionException ex) {
+                    final Throwable cause = ex.getCause();
+                    if (cause instanceof RuntimeException)
+                        throw (RuntimeException) cause;
+                    if (cause instanceof Error)
+                        throw (Error) cause;
+                    throw new IllegalStateException(cause);
+                }
+            }
+        } finally {
+            if (interrupted) Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2013 Schlichtherle IT Services.
+ * All rights reserved. Use is subject to license terms.
+ */
+package net.java.guicer;
+
+import com.google.inject.Provider;
+import com.google.inject.ProvisionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A lock-free pool of objects which are expensive to create, but cannot get
+ * shared between threads.
+ * Use {@code pooled(maxSize)} in a {@link ModuleBuilder} in order to bind a
+ * pool for a binding.
+ * Then inject the pool with the same binding annotation and lease objects
+ * like this:
+ * <pre>{@code
+ * Pool.Lease<Parser> lease = pool.lease();
+ * try {
+ *     lease.get().parse(...);
+ * } finally {
+ *     lease.release();
+ * }
+ * }</pre>
+ * <p>
+ * Leasing never blocks: If the pool has no idle objects, then a new object
+ * gets provided by the binding.
+ * The pool retains up to {@link #maxSize()} idle objects, so any objects
+ * which get released while the pool is full get dropped.
+ * This class is thread-safe, but the leases are not.
+ *
+ * @param  <T> the type of the pooled objects.
+ * @author Christian Schlichtherle
+ */
+public final class Pool<T> {
+
+    private final Provider<? extends T> provider;
+    private final AtomicReferenceArray<T> idle;
+    private final AtomicLong
+            leases = new AtomicLong(),
+            misses = new AtomicLong(),
+            leaseNanos = new AtomicLong();
+
+    Pool(final Provider<? extends T> provider, final int maxSize) {
+        if (0 >= maxSize) throw new IllegalArgumentException();
+        this.provider = provider;
+        this.idle = new AtomicReferenceArray<T>(maxSize);
+    }
+
+    /**
+     * Leases an idle object from this pool or a new object if there are no
+     * idle objects.
+     *
+     * @throws ProvisionException if the binding provides {@code null}.
+     */
+    public Lease<T> lease() {
+        final long start = System.nanoTime();
+        final int length = idle.length();
+        final int offset = offset();
+        T object = null;
+        for (int i = 0; i < length && null == object; i++) {
+            final int index = (offset + i) % length;
+            final T candidate = idle.get(index);
+            if (null != candidate && idle.compareAndSet(index, candidate, null))
+                object = candidate;
+        }
+        if (null == object) {
+            misses.incrementAndGet();
+            object = provider.get();
+            if (null == object)
+                throw new ProvisionException("Cannot pool null.");
+        }
+        leases.incrementAndGet();
+        leaseNanos.addAndGet(System.nanoTime() - start);
+        return new Lease<T>(this, object);
+    }
+
+    void release(final T object) {
+        final int length = idle.length();
+        final int offset = offset();
+        for (int i = 0; i < length; i++)
+            if (idle.compareAndSet((offset + i) % length, null, object))
+                return;
+    }
+
+    /** Spreads the threads over the idle objects in order to reduce contention. */
+    private int offset() {
+        return (int) ((Thread.currentThread().getId() * 0x9e3779b97f4a7c15L)
+                >>> 33) % idle.length();
+    }
+
+    /** Returns the maximum number of idle objects in this pool. */
+    public int maxSize() { return idle.length(); }
+
+    /** Returns the current number of idle objects in this pool. */
+    public int size() {
+        int size = 0;
+        for (int i = idle.length(); 0 <= --i; )
+            if (null != idle.get(i))
+                size++;
+        return size;
+    }
+
+    /** Returns the total number of leases. */
+    public long leases() { return leases.get(); }
+
+    /** Returns the number of leases which had to create a new object. */
+    public long misses() { return misses.get(); }
+
+    /** Returns the ratio of misses to leases. */
+    public double missRate() {
+        final long leases = leases();
+        return 0 == leases ? 0 : (double) misses() / leases;
+    }
+
+    /**
+     * Returns the total time for leasing objects in nanoseconds, including
+     * the time for creating new objects.
+     */
+    public long leaseNanos() { return leaseNanos.get(); }
+
+    @Override public String toString() {
+        return String.format(
+                "Pool[maxSize=%d, size=%d, leases=%d, misses=%d, leaseNanos=%d]",
+                maxSize(), size(), leases(), misses(), leaseNanos());
+    }
+
+    /**
+     * A lease of an object from a pool.
+     * After releasing the lease, the object must not be used anymore.
+     *
+     * @param <T> the type of the pooled objects.
+     */
+    public static final class Lease<T> {
+        private final Pool<T> pool;
+        private T object;
+
+        Lease(final Pool<T> pool, final T object) {
+            this.pool = pool;
+            this.object = object;
+        }
+
+        /**
+         * Returns the leased object.
+         *
+         * @throws IllegalStateException if this lease has been released.
+         */
+        public T get() {
+            if (null == object) throw new IllegalStateException("Released.");
+            return object;
+        }
+
+        /**
+         * Returns the leased object to the pool.
+         * Calling this method again has no effect.
+         */
+        public void release() {
+            final T object = this.object;
+            if (null == object) return;
+            this.object = null;
+            pool.release(object);
+        }
+    }
+}
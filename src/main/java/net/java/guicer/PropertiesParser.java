@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2013 Schlichtherle IT Services.
+ * All rights reserved. Use is subject to license terms.
+ */
+package net.java.guicer;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * A streaming parser for the format of {@link java.util.Properties}.
+ * Unlike {@link java.util.Properties#load(Reader)}, this parser doesn't
+ * collect the properties in a table, but passes each property to a handler
+ * as soon as it has been parsed, so only one line needs to be kept in memory.
+ *
+ * @author Christian Schlichtherle
+ */
+final class PropertiesParser {
+
+    /** Handles the parsed properties. */
+    interface Handler {
+        void property(String key, String value);
+    }
+
+    private final Reader in;
+    private final char[] buffer = new char[8192];
+    private int position, limit;
+    private final StringBuilder line = new StringBuilder();
+
+    private PropertiesParser(final Reader in) { this.in = in; }
+
+    /**
+     * Parses the properties from the given reader and passes them to the
+     * given handler in the order of their appearance.
+     * The reader doesn't get closed.
+     *
+     * @throws IllegalArgumentException if a property contains a malformed
+     *         unicode escape sequence.
+     */
+    static void parse(final Reader in, final Handler handler)
+    throws IOException {
+        final PropertiesParser parser = new PropertiesParser(in);
+        while (parser.line())
+            if (0 < parser.line.length())
+                parser.property(handler);
+    }
+
+    private int read() throws IOException {
+        if (position >= limit) {
+            limit = in.read(buffer, 0, buffer.length);
+            position = 0;
+            if (0 >= limit) {
+                limit = 0;
+                return -1;
+            }
+        }
+        return buffer[position++];
+    }
+
+    private static boolean isWhitespace(final int c) {
+        return ' ' == c || '\t' == c || '\f' == c;
+    }
+
+    /**
+     * Reads the next logical line without comments, line terminators and
+     * line continuations.
+     * Returns false at the end of the input.
+     */
+    private boolean line() throws IOException {
+        line.setLength(0);
+        int c;
+        while (true) {
+            c = read();
+            if (0 > c) return false;
+            if (isWhitespace(c) || '\n' == c || '\r' == c) continue;
+            if ('#' == c || '!' == c) {
+                do c = read(); while (0 <= c && '\n' != c && '\r' != c);
+                if (0 > c) return false;
+                continue;
+            }
+            break;
+        }
+        boolean backslash = false, skipWhitespace = false, skipLineFeed = false;
+        for (; 0 <= c; c = read()) {
+            if (skipLineFeed) {
+                skipLineFeed = false;
+                if ('\n' == c) continue;
+            }
+            if (skipWhitespace) {
+                if (isWhitespace(c)) continue;
+                skipWhitespace = false;
+            }
+            if ('\n' == c || '\r' == c) {
+                if (!backslash) return true;
+                // Continue the logical line on the next line.
+                line.setLength(line.length() - 1);
+                backslash = false;
+                skipWhitespace = true;
+                skipLineFeed = '\r' == c;
+                continue;
+            }
+            line.append((char) c);
+            backslash = '\\' == c && !backslash;
+        }
+        // Like a line continuation at the end of the input.
+        if (backslash) line.setLength(line.length() - 1);
+        return true;
+    }
+
+    private void property(final Handler handler) {
+        final int length = line.length();
+        int keyEnd = 0;
+        for (boolean backslash = false; keyEnd < length; keyEnd++) {
+            final char c = line.charAt(keyEnd);
+            if (!backslash && ('=' == c || ':' == c || isWhitespace(c))) break;
+            backslash = '\\' == c && !backslash;
+        }
+        int valueStart = keyEnd;
+        while (valueStart < length && isWhitespace(line.charAt(valueStart)))
+            valueStart++;
+        if (valueStart < length
+                && ('=' == line.charAt(valueStart)
+                    || ':' == line.charAt(valueStart)))
+            valueStart++;
+        while (valueStart < length && isWhitespace(line.charAt(valueStart)))
+            valueStart++;
+        handler.property(unescape(0, keyEnd), unescape(valueStart, length));
+    }
+
+    private String unescape(int start, final int end) {
+        final int escape = line.indexOf("\\", start);
+        if (0 > escape || escape >= end) return line.substring(start, end);
+        final StringBuilder out = new StringBuilder(end - start);
+        while (start < end) {
+            char c = line.charAt(start++);
+            if ('\\' == c && start < end) {
+                c = line.charAt(start++);
+                switch (c) {
+                    case 't': c = '\t'; break;
+                    case 'n': c = '\n'; break;
+                    case 'r': c = '\r'; break;
+                    case 'f': c = '\f'; break;
+                    case 'u':
+                        if (start + 4 > end)
+                            throw new IllegalArgumentException(
+                                    "Malformed \\uxxxx encoding.");
+                        try {
+                            c = (char) Integer.parseInt(
+                                    line.substring(start, start + 4), 16);
+                        } catch (NumberFormatException ex) {
+                            throw new IllegalArgumentException(
+                                    "Malformed \\uxxxx encoding.", ex);
+                        }
+                        start += 4;
+                        break;
+                    default:
+                }
+            }
+            out.append(c);
+        }
+        return out.toString();
+    }
+}
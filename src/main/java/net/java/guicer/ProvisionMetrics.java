@@ -0,0 +1,286 @@
+/*
+ * Copyright (C) 2013 Schlichtherle IT Services.
+ * All rights reserved. Use is subject to license terms.
+ */
+package net.java.guicer;
+
+import com.google.inject.*;
+import com.google.inject.binder.LinkedBindingBuilder;
+import com.google.inject.binder.ScopedBindingBuilder;
+import com.google.inject.spi.*;
+import java.lang.reflect.Constructor;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import net.java.guicer.BindingDefinition.Target;
+
+/**
+ * Counts the provisions of bindings and records their latency, keyed by
+ * {@link Key}.
+ * Use {@code metered(metrics)} in a {@link ModuleBuilder} in order to meter
+ * a single binding or {@link ModuleBuilder#metered(ProvisionMetrics)} in
+ * order to meter all bindings of a module.
+ * <p>
+ * A metered binding gets bound to a provider which wraps the target of the
+ * binding.
+ * The scope of the binding applies to the wrapper, so only provisions of new
+ * objects get metered, e.g. a singleton gets metered once.
+ * Untargetted bindings get bound to the injectable constructor of the bound
+ * type, so {@code @ImplementedBy} and {@code @ProvidedBy} are not supported.
+ * <p>
+ * The counters and histograms are striped by thread, so the overhead is low
+ * enough to leave metering enabled under load.
+ * Each histogram has one bucket per power of two nanoseconds.
+ * This class is thread-safe.
+ *
+ * @author Christian Schlichtherle
+ */
+public final class ProvisionMetrics {
+
+    private final ConcurrentMap<Key<?>, Meter>
+            meters = new ConcurrentHashMap<Key<?>, Meter>();
+
+    /**
+     * Returns a snapshot of the metrics of all metered bindings, ordered by
+     * the string representation of their keys.
+     */
+    public Map<Key<?>, Snapshot> snapshot() {
+        final SortedMap<String, Key<?>> keys = new TreeMap<String, Key<?>>();
+        for (Key<?> key : meters.keySet())
+            keys.put(key.toString(), key);
+        final Map<Key<?>, Snapshot> snapshot =
+                new LinkedHashMap<Key<?>, Snapshot>(keys.size() * 4 / 3 + 1);
+        for (Key<?> key : keys.values())
+            snapshot.put(key, meters.get(key).snapshot());
+        return Collections.unmodifiableMap(snapshot);
+    }
+
+    /**
+     * Returns a snapshot of the metrics of the binding with the given key or
+     * {@code null} if the binding is not metered.
+     */
+    public Snapshot snapshot(final Key<?> key) {
+        final Meter meter = meters.get(key);
+        return null == meter ? null : meter.snapshot();
+    }
+
+    private Meter meter(final Key<?> key) {
+        final Meter meter = meters.get(key);
+        if (null != meter) return meter;
+        final Meter created = new Meter();
+        final Meter existing = meters.putIfAbsent(key, created);
+        return null == existing ? created : existing;
+    }
+
+    /**
+     * Binds the given definition to a provider which meters its target.
+     * Returns the builder for applying the scope of the definition.
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    ScopedBindingBuilder bind(
+            final Binder binder,
+            final LinkedBindingBuilder<Object> linked,
+            final BindingDefinition definition) {
+        final Key<?> target;
+        switch (definition.target) {
+            case KEY:
+            case PROVIDER_KEY:
+                target = (Key<?>) definition.value;
+                break;
+            case PROVIDER:
+                final Provider<?> provider = (Provider<?>) definition.value;
+                binder.requestInjection(provider);
+                return linked.toProvider(new MeteredProvider(
+                        meter(definition.key), provider, false,
+                        dependencies(provider)));
+            case CONSTRUCTOR:
+                target = UniqueKeys.next(definition.constructed);
+                binder.bind((Key) target).toConstructor(
+                        (Constructor) definition.value,
+                        (TypeLiteral) definition.constructed);
+                break;
+            default:
+                final TypeLiteral<?> type = definition.key.getTypeLiteral();
+                final InjectionPoint point;
+                try {
+                    point = InjectionPoint.forConstructorOf(type);
+                } catch (ConfigurationException ex) {
+                    for (Message message : ex.getErrorMessages())
+                        binder.addError(message);
+                    return linked;
+                }
+                target = UniqueKeys.next(type);
+                binder.bind((Key) target).toConstructor(
+                        (Constructor) point.getMember(), (TypeLiteral) type);
+        }
+        return linked.toProvider(new MeteredProvider(
+                meter(definition.key), binder.getProvider(target),
+                Target.PROVIDER_KEY == definition.target,
+                Collections.<Dependency<?>>singleton(Dependency.get(target))));
+    }
+
+    private static Set<Dependency<?>> dependencies(final Provider<?> provider) {
+        if (provider instanceof HasDependencies)
+            return ((HasDependencies) provider).getDependencies();
+        try {
+            return Dependency.forInjectionPoints(InjectionPoint
+                    .forInstanceMethodsAndFields(provider.getClass()));
+        } catch (ConfigurationException ex) {
+            return Collections.emptySet();
+        }
+    }
+
+    private static final class MeteredProvider
+    implements Provider<Object>, HasDependencies {
+        private final Meter meter;
+        private final Provider<?> target;
+        private final boolean indirect;
+        private final Set<Dependency<?>> dependencies;
+
+        MeteredProvider(
+                final Meter meter,
+                final Provider<?> target,
+                final boolean indirect,
+                final Set<Dependency<?>> dependencies) {
+            this.meter = meter;
+            this.target = target;
+            this.indirect = indirect;
+            this.dependencies = dependencies;
+        }
+
+        @Override public Object get() {
+            final long start = System.nanoTime();
+            boolean failed = true;
+            try {
+                final Object object = indirect
+                        ? ((javax.inject.Provider<?>) target.get()).get()
+                        : target.get();
+                failed = false;
+                return object;
+            } finally {
+                meter.record(System.nanoTime() - start, failed);
+            }
+        }
+
+        @Override public Set<Dependency<?>> getDependencies() {
+            return dependencies;
+        }
+    }
+
+    /** A set of counters and a histogram which are striped by thread. */
+    private static final class Meter {
+        private static final int STRIPES = stripes();
+        private static final int
+                COUNT = 0, ERRORS = 1, NANOS = 2, BUCKETS = 3, BUCKET_COUNT = 40,
+                STRIDE = BUCKETS + BUCKET_COUNT;
+
+        private final AtomicReferenceArray<AtomicLongArray>
+                stripes = new AtomicReferenceArray<AtomicLongArray>(STRIPES);
+
+        private static int stripes() {
+            final int processors = Runtime.getRuntime().availableProcessors();
+            return Math.min(Integer.highestOneBit(processors * 2 - 1) << 1, 64);
+        }
+
+        void record(final long nanos, final boolean failed) {
+            final AtomicLongArray stripe = stripe();
+            stripe.incrementAndGet(COUNT);
+            if (failed) stripe.incrementAndGet(ERRORS);
+            stripe.addAndGet(NANOS, nanos);
+            stripe.incrementAndGet(BUCKETS + bucket(nanos));
+        }
+
+        private AtomicLongArray stripe() {
+            final long id = Thread.currentThread().getId();
+            final int index = (int) ((id * 0x9e3779b97f4a7c15L) >>> 40)
+                    & (STRIPES - 1);
+            final AtomicLongArray stripe = stripes.get(index);
+            if (null != stripe) return stripe;
+            stripes.compareAndSet(index, null, new AtomicLongArray(STRIDE));
+            return stripes.get(index);
+        }
+
+        private static int bucket(final long nanos) {
+            return Math.min(64 - Long.numberOfLeadingZeros(Math.max(nanos, 0)),
+                    BUCKET_COUNT - 1);
+        }
+
+        Snapshot snapshot() {
+            final long[] sums = new long[STRIDE];
+            for (int i = 0; i < STRIPES; i++) {
+                final AtomicLongArray stripe = stripes.get(i);
+                if (null != stripe)
+                    for (int j = 0; j < STRIDE; j++)
+                        sums[j] += stripe.get(j);
+            }
+            return new Snapshot(sums[COUNT], sums[ERRORS], sums[NANOS],
+                    Arrays.copyOfRange(sums, BUCKETS, STRIDE));
+        }
+    }
+
+    /**
+     * An immutable snapshot of the metrics of a binding.
+     * Because the counters get updated concurrently, the values of a snapshot
+     * may be slightly inconsistent with each other.
+     */
+    public static final class Snapshot {
+        private final long count, errors, nanos;
+        private final long[] histogram;
+
+        Snapshot(
+                final long count,
+                final long errors,
+                final long nanos,
+                final long[] histogram) {
+            this.count = count;
+            this.errors = errors;
+            this.nanos = nanos;
+            this.histogram = histogram;
+        }
+
+        /** Returns the number of provisions, including failed provisions. */
+        public long count() { return count; }
+
+        /** Returns the number of provisions which threw an exception. */
+        public long errors() { return errors; }
+
+        /** Returns the total provisioning time in nanoseconds. */
+        public long totalNanos() { return nanos; }
+
+        /** Returns the mean provisioning time in nanoseconds. */
+        public long meanNanos() { return 0 == count ? 0 : nanos / count; }
+
+        /**
+         * Returns a copy of the histogram of the provisioning times.
+         * The element at index {@code i} is the number of provisions which
+         * took less than {@code 2^i} nanoseconds, but not less than
+         * {@code 2^(i-1)} nanoseconds.
+         * The last element also counts all slower provisions.
+         */
+        public long[] histogram() { return histogram.clone(); }
+
+        /**
+         * Returns an upper bound for the given percentile of the
+         * provisioning times in nanoseconds.
+         *
+         * @param percentile the percentile, e.g. {@code 99.0}.
+         */
+        public long percentileNanos(final double percentile) {
+            final long rank = (long) Math.ceil(count * percentile / 100);
+            long sum = 0;
+            for (int i = 0; i < histogram.length; i++)
+                if (rank <= (sum += histogram[i]))
+                    return 1L << i;
+            return 1L << histogram.length - 1;
+        }
+
+        @Override public String toString() {
+            return String.format(
+                    "count=%d, errors=%d, mean=%dns, p50<%dns, p99<%dns",
+                    count, errors, meanNanos(),
+                    percentileNanos(50), percentileNanos(99));
+        }
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2013 Schlichtherle IT Services.
+ * All rights reserved. Use is subject to license terms.
+ */
+package net.java.guicer;
+
+import com.google.inject.*;
+import java.util.*;
+import java.util.concurrent.Executor;
+
+/**
+ * A handle for an injector with layers of modules which can get reloaded at
+ * runtime.
+ * The base injector gets built once from the modules of an
+ * {@link InjectorBuilder}.
+ * Each layer is a module which gets installed in a child injector of the
+ * injector of the previous layer, or of the base injector for the first
+ * layer.
+ * <p>
+ * When {@linkplain #reload reloading} the layers, the given modules get
+ * compared with the modules of the current layers.
+ * Only the layers from the first changed one onwards get rebuilt, so any
+ * singletons in the base injector and in the unchanged layers are kept and
+ * reloading takes time proportional to what has changed.
+ * Modules from a {@link ModuleBuilder} are unchanged if they have the same
+ * binding definitions, so you can simply build all layers again.
+ * Then the injector of the last layer gets swapped in atomically, so
+ * {@link #injector()} returns either the old or the new injector, but never
+ * a partially built one.
+ * <p>
+ * Note that a layer cannot bind a key which is already bound by the base
+ * injector or by any previous layer, including just-in-time bindings.
+ * This class is thread-safe.
+ *
+ * @see InjectorBuilder#buildReloadable()
+ * @author Christian Schlichtherle
+ */
+public final class ReloadableInjector {
+
+    private final boolean construct;
+    private final Executor asyncExecutor;
+    private volatile Layers layers;
+
+    ReloadableInjector(
+            final Injector base,
+            final boolean construct,
+            final Executor asyncExecutor) {
+        this.construct = construct;
+        this.asyncExecutor = asyncExecutor;
+        this.layers = new Layers(new Module[0], new Injector[] { base });
+    }
+
+    /** Returns the injector of the last layer. */
+    public Injector injector() {
+        final Injector[] injectors = layers.injectors;
+        return injectors[injectors.length - 1];
+    }
+
+    /** Returns the base injector, which never gets reloaded. */
+    public Injector base() { return layers.injectors[0]; }
+
+    /** Returns the number of layers. */
+    public int size() { return layers.modules.length; }
+
+    /**
+     * Reloads the layers with the given modules, one module per layer.
+     * If building any injector fails, then the current layers are kept.
+     *
+     * @return the number of rebuilt layers.
+     */
+    public synchronized int reload(final Module... modules) {
+        final Layers current = layers;
+        final int length = modules.length;
+        int unchanged = 0;
+        while (unchanged < length && unchanged < current.modules.length
+                && CompiledModule.same(modules[unchanged],
+                    current.modules[unchanged]))
+            unchanged++;
+        if (unchanged == length && length == current.modules.length)
+            return 0;
+        final Injector[] injectors = new Injector[length + 1];
+        System.arraycopy(current.injectors, 0, injectors, 0, unchanged + 1);
+        for (int i = unchanged; i < length; i++) {
+            final Injector injector =
+                    injectors[i].createChildInjector(modules[i]);
+            if (construct && AsyncSingletons.isUsedBy(modules[i]))
+                AsyncSingletons.construct(injector, asyncExecutor);
+            injectors[i + 1] = injector;
+        }
+        layers = new Layers(modules.clone(), injectors);
+        return length - unchanged;
+    }
+
+    /** An immutable snapshot of the modules and injectors of the layers. */
+    private static final class Layers {
+        final Module[] modules;
+
+        /** The base injector followed by the injector for each module. */
+        final Injector[] injectors;
+
+        Layers(final Module[] modules, final Injector[] injectors) {
+            this.modules = modules;
+            this.injectors = injectors;
+        }
+    }
+}
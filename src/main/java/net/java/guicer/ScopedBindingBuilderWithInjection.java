@@ -2,6 +2,7 @@ package net.java.guicer;
 
 import com.google.inject.Scope;
 import java.lang.annotation.Annotation;
+import java.util.concurrent.TimeUnit;
 
 /**
  *
@@ -12,4 +13,53 @@ extends Injection<Parent> {
     Injection<Parent> in(Class<? extends Annotation> scopeAnnotation);
     Injection<Parent> in(Scope scope);
     Injection<Parent> asEagerSingleton();
+
+    /**
+     * Like {@link #asEagerSingleton()}, but independent bindings get
+     * constructed concurrently on the executor which has been set with
+     * {@link InjectorBuilder#asyncExecutor(java.util.concurrent.Executor)}.
+     * The bindings get constructed in waves according to their dependencies
+     * after the injector has been created and before
+     * {@link InjectorBuilder#build()} returns.
+     * If any construction fails, then {@code build()} throws a
+     * {@link com.google.inject.ProvisionException} with all errors.
+     * <p>
+     * The binding gets scoped like
+     * {@link GuicerScopes#CONCURRENT_SINGLETON}.
+     * It only gets constructed eagerly if the injector gets built by an
+     * {@link InjectorBuilder}.
+     * Bindings in private modules which don't expose any binding get
+     * constructed on first use.
+     */
+    Injection<Parent> asEagerSingletonAsync();
+
+    /**
+     * Binds a {@link Pool} with the same binding annotation, which leases
+     * objects provided by this binding and retains up to the given number
+     * of idle objects.
+     * This binding remains unscoped.
+     *
+     * @throws IllegalArgumentException if {@code maxSize} is not positive.
+     */
+    Injection<Parent> pooled(int maxSize);
+
+    /**
+     * Caches the provided instances of this binding for the given time to
+     * live and up to the given maximum number of injectors.
+     * This is a shortcut for
+     * {@code in(new CachingScope(ttl, unit, maxEntries))}.
+     * In order to limit the number of entries of many bindings or injectors,
+     * share a {@link CachingScope} between them instead.
+     *
+     * @throws IllegalArgumentException if {@code ttl} or {@code maxEntries}
+     *         is not positive.
+     */
+    Injection<Parent> cached(long ttl, TimeUnit unit, int maxEntries);
+
+    /**
+     * Meters the provisions of this binding in the given metrics.
+     *
+     * @see ProvisionMetrics
+     */
+    ScopedBindingBuilderWithInjection<Parent> metered(ProvisionMetrics metrics);
 }
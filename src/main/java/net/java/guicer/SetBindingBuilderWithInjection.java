@@ -0,0 +1,23 @@
+/*
+ * Copyright (C) 2013 Schlichtherle IT Services.
+ * All rights reserved. Use is subject to license terms.
+ */
+package net.java.guicer;
+
+import com.google.inject.Key;
+import com.google.inject.TypeLiteral;
+
+/**
+ * Adds elements to a set binding.
+ * The elements get provided in the order of their addition.
+ *
+ * @see ModuleBuilder#bindSet(Key)
+ * @author Christian Schlichtherle
+ */
+public interface SetBindingBuilderWithInjection<Type, Parent>
+extends Injection<Parent> {
+    SetBindingBuilderWithInjection<Type, Parent> add(Class<? extends Type> implementation);
+    SetBindingBuilderWithInjection<Type, Parent> add(TypeLiteral<? extends Type> implementation);
+    SetBindingBuilderWithInjection<Type, Parent> add(Key<? extends Type> targetKey);
+    SetBindingBuilderWithInjection<Type, Parent> addInstance(Type instance);
+}
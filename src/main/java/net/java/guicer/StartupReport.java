@@ -0,0 +1,321 @@
+/*
+ * Copyright (C) 2013 Schlichtherle IT Services.
+ * All rights reserved. Use is subject to license terms.
+ */
+package net.java.guicer;
+
+import com.google.inject.*;
+import com.google.inject.spi.*;
+import java.util.*;
+
+/**
+ * A report about the startup of an injector.
+ * Pass an instance to {@link InjectorBuilder#profile(StartupReport)} in
+ * order to record the wall time for configuring each installed module, the
+ * number of bindings per module, the wall time for creating the injector and
+ * the construction time of each binding which has been marked with
+ * {@code asEagerSingleton()} in a {@link ModuleBuilder}.
+ * <p>
+ * The construction time of an eager singleton includes the construction
+ * time of its dependencies.
+ * In addition, the self time for constructing each singleton which has been
+ * configured in a {@link ModuleBuilder} gets recorded, excluding the
+ * construction time of any other timed singletons.
+ * Pass this report to {@link DependencyGraph#of(Injector, StartupReport)} in
+ * order to analyze the critical path.
+ * While profiling, the modules get configured sequentially, even if
+ * {@link InjectorBuilder#parallel} has been set.
+ * This class is thread-safe.
+ *
+ * @author Christian Schlichtherle
+ */
+public final class StartupReport {
+
+    private static final ThreadLocal<StartupReport>
+            current = new ThreadLocal<StartupReport>();
+
+    private final List<ModuleTiming> modules = new ArrayList<ModuleTiming>();
+    private final List<SingletonTiming> singletons = new ArrayList<SingletonTiming>();
+    private final Map<Key<?>, Long> selfNanos = new HashMap<Key<?>, Long>();
+    private long injectorNanos;
+    private volatile Stage stage;
+
+    /** The accumulated construction time of the nested singletons. */
+    private final ThreadLocal<long[]> nested = new ThreadLocal<long[]>();
+
+    /** Returns the report which is recording on the current thread or null. */
+    static StartupReport current() { return current.get(); }
+
+    Injector profile(
+            final InjectorBuilder builder,
+            final List<Module> modules) {
+        final Stage stage = this.stage = builder.currentStage();
+        final List<Element> elements = new ArrayList<Element>();
+        int index = 0;
+        for (Module module : expand(modules)) {
+            final List<Element> recorded;
+            final long start = System.nanoTime();
+            current.set(this);
+            try {
+                recorded = Elements.getElements(stage, module);
+            } finally {
+                current.remove();
+            }
+            final long nanos = System.nanoTime() - start;
+            add(new ModuleTiming("#" + index++ + " " + module.getClass().getName(),
+                    nanos, bindings(recorded)));
+            elements.addAll(recorded);
+        }
+        final List<Module> replay = new ArrayList<Module>(1);
+        replay.add(Elements.getModule(elements));
+        final long start = System.nanoTime();
+        boolean async = false;
+        for (Element element : elements)
+            async |= AsyncSingletons.isUsedBy(element);
+        final Injector injector = builder.create(replay, async);
+        injector(System.nanoTime() - start);
+        return injector;
+    }
+
+    private static List<Module> expand(final List<Module> modules) {
+        final List<Module> expanded = new ArrayList<Module>(modules.size());
+        for (Module module : modules)
+            if (module instanceof ParallelModule)
+                expanded.addAll(Arrays.asList(((ParallelModule) module).modules));
+            else
+                expanded.add(module);
+        return expanded;
+    }
+
+    private static int bindings(final List<Element> elements) {
+        int bindings = 0;
+        for (Element element : elements)
+            if (element instanceof Binding)
+                bindings++;
+            else if (element instanceof PrivateElements)
+                bindings += bindings(((PrivateElements) element).getElements());
+        return bindings;
+    }
+
+    /**
+     * Installs the given singleton binding in a scope which records the self
+     * time for constructing the singleton.
+     * If the binding is eager, then it gets constructed and timed when the
+     * injector gets created.
+     *
+     * @param scope the singleton scope or scope annotation or {@code null}
+     *        for an eager singleton.
+     */
+    void singleton(
+            final Binder binder,
+            final Key<?> key,
+            final com.google.inject.binder.ScopedBindingBuilder scoped,
+            final Object scope) {
+        final Scope singleton = scope instanceof Scope
+                ? (Scope) scope
+                : Scopes.SINGLETON;
+        scoped.in(new TimingScope(singleton));
+        if (null == scope)
+            binder.requestInjection(new SingletonTimer(key, true));
+        else if (Scopes.SINGLETON == singleton && Stage.PRODUCTION == stage)
+            binder.requestInjection(new SingletonTimer(key, false));
+    }
+
+    private synchronized void add(ModuleTiming timing) { modules.add(timing); }
+
+    private synchronized void add(SingletonTiming timing) { singletons.add(timing); }
+
+    private synchronized void injector(long nanos) { injectorNanos += nanos; }
+
+    private synchronized void self(final Key<?> key, final long nanos) {
+        final Long previous = selfNanos.get(key);
+        selfNanos.put(key, null == previous ? nanos : previous + nanos);
+    }
+
+    /**
+     * Returns the self time for constructing the singleton with the given
+     * key in nanoseconds or -1 if it hasn't been timed.
+     * If there are singletons with this key in different private
+     * environments, then their times get added.
+     */
+    public synchronized long selfNanos(final Key<?> key) {
+        final Long nanos = selfNanos.get(key);
+        return null == nanos ? -1 : nanos;
+    }
+
+    /**
+     * Returns the timings of the configured modules, sorted by descending
+     * wall time.
+     */
+    public synchronized List<ModuleTiming> modules() {
+        return sorted(modules);
+    }
+
+    /**
+     * Returns the timings of the eager singletons, sorted by descending
+     * construction time.
+     */
+    public synchronized List<SingletonTiming> singletons() {
+        return sorted(singletons);
+    }
+
+    /** Returns the wall time for creating the injector(s) in nanoseconds. */
+    public synchronized long injectorNanos() { return injectorNanos; }
+
+    private static <T extends Timing> List<T> sorted(final List<T> timings) {
+        final List<T> sorted = new ArrayList<T>(timings);
+        Collections.sort(sorted);
+        return Collections.unmodifiableList(sorted);
+    }
+
+    /** Returns this report as a JSON object. */
+    public String toJson() {
+        final StringBuilder json = new StringBuilder(256)
+                .append("{\"injectorNanos\":").append(injectorNanos())
+                .append(",\"modules\":[");
+        String separator = "";
+        for (ModuleTiming timing : modules()) {
+            json.append(separator)
+                    .append("{\"name\":").append(string(timing.name()))
+                    .append(",\"nanos\":").append(timing.nanos())
+                    .append(",\"bindings\":").append(timing.bindings())
+                    .append('}');
+            separator = ",";
+        }
+        json.append("],\"singletons\":[");
+        separator = "";
+        for (SingletonTiming timing : singletons()) {
+            json.append(separator)
+                    .append("{\"key\":").append(string(timing.name()))
+                    .append(",\"nanos\":").append(timing.nanos())
+                    .append('}');
+            separator = ",";
+        }
+        return json.append("]}").toString();
+    }
+
+    static String string(final String value) {
+        final StringBuilder string = new StringBuilder(value.length() + 2)
+                .append('"');
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if ('"' == c || '\\' == c) string.append('\\').append(c);
+            else if (c < 0x20) string.append(String.format("\\u%04x", (int) c));
+            else string.append(c);
+        }
+        return string.append('"').toString();
+    }
+
+    /** Returns this report as text, sorted by descending wall time. */
+    @Override public String toString() {
+        final StringBuilder text = new StringBuilder(256);
+        text.append(String.format("Injector creation: %.3f ms%n",
+                millis(injectorNanos())));
+        text.append(String.format("Modules (configure time, bindings):%n"));
+        for (ModuleTiming timing : modules())
+            text.append(String.format("  %10.3f ms %7d  %s%n",
+                    millis(timing.nanos()), timing.bindings(), timing.name()));
+        text.append(String.format("Eager singletons (construction time):%n"));
+        for (SingletonTiming timing : singletons())
+            text.append(String.format("  %10.3f ms  %s%n",
+                    millis(timing.nanos()), timing.name()));
+        return text.toString();
+    }
+
+    private static double millis(long nanos) { return nanos / 1e6; }
+
+    /** A named wall time. */
+    public abstract static class Timing implements Comparable<Timing> {
+        private final String name;
+        private final long nanos;
+
+        Timing(final String name, final long nanos) {
+            this.name = name;
+            this.nanos = nanos;
+        }
+
+        public String name() { return name; }
+
+        /** Returns the wall time in nanoseconds. */
+        public long nanos() { return nanos; }
+
+        /** Orders by descending wall time and then by name. */
+        @Override public int compareTo(final Timing other) {
+            return nanos != other.nanos
+                    ? (nanos < other.nanos ? 1 : -1)
+                    : name.compareTo(other.name);
+        }
+    }
+
+    /** The wall time for configuring a module. */
+    public static final class ModuleTiming extends Timing {
+        private final int bindings;
+
+        ModuleTiming(final String name, final long nanos, final int bindings) {
+            super(name, nanos);
+            this.bindings = bindings;
+        }
+
+        /** Returns the number of bindings, including private bindings. */
+        public int bindings() { return bindings; }
+    }
+
+    /**
+     * The construction time of an eager singleton.
+     * The name is the string representation of its key.
+     */
+    public static final class SingletonTiming extends Timing {
+        SingletonTiming(String name, long nanos) { super(name, nanos); }
+    }
+
+    private final class SingletonTimer {
+        private final Key<?> key;
+        private final boolean eager;
+
+        SingletonTimer(final Key<?> key, final boolean eager) {
+            this.key = key;
+            this.eager = eager;
+        }
+
+        @Inject void construct(final Injector injector) {
+            final long start = System.nanoTime();
+            injector.getInstance(key);
+            if (eager)
+                add(new SingletonTiming(key.toString(), System.nanoTime() - start));
+        }
+    }
+
+    /** Records the self time for constructing the scoped instances. */
+    private final class TimingScope implements Scope {
+        private final Scope scope;
+
+        TimingScope(final Scope scope) { this.scope = scope; }
+
+        @Override
+        public <T> Provider<T> scope(final Key<T> key, final Provider<T> unscoped) {
+            return scope.scope(key, new Provider<T>() {
+                @Override public T get() {
+                    final long[] outer = nested.get();
+                    final long[] inner = new long[1];
+                    nested.set(inner);
+                    final long start = System.nanoTime();
+                    try {
+                        return unscoped.get();
+                    } finally {
+                        final long nanos = System.nanoTime() - start;
+                        if (null == outer) nested.remove();
+                        else {
+                            nested.set(outer);
+                            outer[0] += nanos;
+                        }
+                        self(key, nanos - inner[0]);
+                    }
+                }
+
+                @Override public String toString() { return unscoped.toString(); }
+            });
+        }
+
+        @Override public String toString() { return scope.toString(); }
+    }
+}
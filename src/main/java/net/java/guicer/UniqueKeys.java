@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2013 Schlichtherle IT Services.
+ * All rights reserved. Use is subject to license terms.
+ */
+package net.java.guicer;
+
+import com.google.inject.BindingAnnotation;
+import com.google.inject.Key;
+import com.google.inject.TypeLiteral;
+import java.lang.annotation.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates keys which are unique within the current class loader.
+ * These keys are used for internal bindings which must not collide with any
+ * other binding.
+ *
+ * @author Christian Schlichtherle
+ */
+final class UniqueKeys {
+
+    private static final AtomicInteger sequence = new AtomicInteger();
+
+    static <T> Key<T> next(TypeLiteral<T> type) {
+        return Key.get(type, new UniqueImpl(sequence.incrementAndGet()));
+    }
+
+    @Retention(RetentionPolicy.RUNTIME)
+    @BindingAnnotation
+    @interface Unique {
+        int value();
+    }
+
+    @SuppressWarnings("ClassExplicitlyAnnotation")
+    private static final class UniqueImpl implements Unique {
+        private final int value;
+
+        UniqueImpl(final int value) { this.value = value; }
+
+        @Override public int value() { return value; }
+
+        @Override public Class<? extends Annotation> annotationType() {
+            return Unique.class;
+        }
+
+        @Override public boolean equals(final Object other) {
+            return other instanceof Unique && value == ((Unique) other).value();
+        }
+
+        /** As specified by {@link Annotation#hashCode()}. */
+        @Override public int hashCode() {
+            return (127 * "value".hashCode()) ^ value;
+        }
+
+        @Override public String toString() {
+            return "@" + Unique.class.getName() + "(value=" + value + ")";
+        }
+    }
+
+    private UniqueKeys() { }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2013 Schlichtherle IT Services.
+ * All rights reserved. Use is subject to license terms.
+ */
+package net.java.guicer;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+/**
+ * @author Christian Schlichtherle
+ */
+public class IndexedProcessorTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private File sources, classes;
+
+    @Before
+    public void setUp() throws IOException {
+        sources = folder.newFolder("sources");
+        classes = folder.newFolder("classes");
+    }
+
+    @Test
+    public void testIncrementalCompilation() throws IOException {
+        compile(source("A", true), source("B", true), source("C", true));
+        assertEquals(3, index().size());
+
+        // Recompiling one class keeps the others.
+        compile(source("A", true));
+        assertEquals(3, index().size());
+
+        // Entries of classes which are no longer annotated get dropped.
+        compile(source("B", false));
+        assertEquals(2, index().size());
+
+        // Entries of deleted classes get dropped.
+        assertTrue(new File(classes, "indexed/C.class").delete());
+        compile(source("A", true));
+        assertEquals(1, index().size());
+        assertTrue(index().get(0).contains("indexed.A"));
+
+        // The index gets deleted or emptied with its last entry.
+        compile(source("A", false));
+        assertTrue(!new File(classes, IndexedProcessor.INDEX).exists()
+                || index().isEmpty());
+    }
+
+    private File source(final String name, final boolean indexed)
+    throws IOException {
+        final File file = new File(sources, name + ".java");
+        final Writer out = new OutputStreamWriter(
+                new FileOutputStream(file), "UTF-8");
+        try {
+            out.write("package indexed;\n"
+                    + (indexed
+                        ? "@net.java.guicer.Indexed(value = Runnable.class, named = \""
+                            + name + "\")\n"
+                        : "")
+                    + "public class " + name + " implements Runnable {\n"
+                    + "    public void run() { }\n"
+                    + "}\n");
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+    private void compile(final File... files) {
+        final List<String> args = new ArrayList<String>();
+        args.add("-processor");
+        args.add(IndexedProcessor.class.getName());
+        args.add("-classpath");
+        args.add(classPath() + File.pathSeparator + classes.getPath());
+        args.add("-d");
+        args.add(classes.getPath());
+        for (File file : files)
+            args.add(file.getPath());
+        final JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        assertEquals(0, compiler.run(null, null, null,
+                args.toArray(new String[args.size()])));
+    }
+
+    private List<String> index() throws IOException {
+        final List<String> lines = new ArrayList<String>();
+        final BufferedReader in = new BufferedReader(new InputStreamReader(
+                new FileInputStream(new File(classes, IndexedProcessor.INDEX)),
+                "UTF-8"));
+        try {
+            for (String line; null != (line = in.readLine()); )
+                if (!line.isEmpty()) lines.add(line);
+        } finally {
+            in.close();
+        }
+        return lines;
+    }
+
+    private static String classPath() {
+        final String path = System.getProperty("surefire.test.class.path");
+        return null != path ? path : System.getProperty("java.class.path");
+    }
+}
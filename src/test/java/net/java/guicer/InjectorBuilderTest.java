@@ -0,0 +1,673 @@
+/*
+ * Copyright (C) 2013 Schlichtherle IT Services.
+ * All rights reserved. Use is subject to license terms.
+ */
+package net.java.guicer;
+
+import com.google.inject.*;
+import static com.google.inject.name.Names.named;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import javax.inject.Named;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/**
+ * @author Christian Schlichtherle
+ */
+public class InjectorBuilderTest {
+
+    @Test
+    public void testProductionStage() {
+        final AtomicInteger lazy = new AtomicInteger();
+        final Injector injector = new GuiceContext()
+                .injector(Stage.PRODUCTION)
+                    .module()
+                        .bind(AtomicInteger.class)
+                            .annotatedWith(named("lazy"))
+                            .toInstance(lazy)
+                            .inject()
+                        .bind(Lazy.class)
+                            .in(Singleton.class)
+                            .inject()
+                        .inject()
+                    .build();
+        assertSame(Stage.PRODUCTION, injector.getInstance(Stage.class));
+        assertEquals(1, lazy.get());
+    }
+
+    @Test
+    public void testLazySingletons() {
+        final AtomicInteger lazy = new AtomicInteger();
+        final AtomicInteger eager = new AtomicInteger();
+        final Injector injector = new GuiceContext()
+                .injector()
+                    .stage(Stage.PRODUCTION)
+                    .module()
+                        .lazySingletons()
+                        .bind(AtomicInteger.class)
+                            .annotatedWith(named("lazy"))
+                            .toInstance(lazy)
+                            .inject()
+                        .bind(AtomicInteger.class)
+                            .annotatedWith(named("eager"))
+                            .toInstance(eager)
+                            .inject()
+                        .bind(Lazy.class)
+                            .in(Singleton.class)
+                            .inject()
+                        .bind(Eager.class)
+                            .asEagerSingleton()
+                            .inject()
+                        .inject()
+                    .build();
+        assertEquals(0, lazy.get());
+        assertEquals(1, eager.get());
+        assertSame(injector.getInstance(Lazy.class),
+                injector.getInstance(Lazy.class));
+        assertEquals(1, lazy.get());
+    }
+
+    @Test
+    public void testLazySingletonsAfterBindings() {
+        final AtomicInteger lazy = new AtomicInteger();
+        final Injector injector = new GuiceContext()
+                .injector()
+                    .stage(Stage.PRODUCTION)
+                    .module()
+                        .bind(AtomicInteger.class)
+                            .annotatedWith(named("lazy"))
+                            .toInstance(lazy)
+                            .inject()
+                        .bind(Lazy.class)
+                            .in(Singleton.class)
+                            .inject()
+                        .bindAll(Collections.singletonList(new BindingSpec<Object>(
+                                Key.get(Object.class, named("bulk")),
+                                Lazy.class, Singleton.class)))
+                        .bindSet(Key.get(Lazy.class, named("set")))
+                            .add(Lazy.class)
+                            .inject()
+                        .lazySingletons()
+                        .inject()
+                    .build();
+        assertEquals(0, lazy.get());
+        injector.getInstance(Key.get(Object.class, named("bulk")));
+        assertEquals(1, lazy.get());
+    }
+
+    @Test
+    public void testParent() {
+        final AtomicInteger lazy = new AtomicInteger();
+        final Injector parent = new GuiceContext()
+                .injector()
+                    .module()
+                        .bind(AtomicInteger.class)
+                            .annotatedWith(named("lazy"))
+                            .toInstance(lazy)
+                            .inject()
+                        .bind(Lazy.class)
+                            .in(Singleton.class)
+                            .inject()
+                        .inject()
+                    .build();
+        final Injector child = new GuiceContext()
+                .injector()
+                    .parent(parent)
+                    .module()
+                        .bindConstant()
+                            .annotatedWith(named("tenant"))
+                            .to("child")
+                            .inject()
+                        .inject()
+                    .build();
+        assertSame(parent, child.getParent());
+        assertSame(parent.getInstance(Lazy.class),
+                child.getInstance(Lazy.class));
+        assertEquals(1, lazy.get());
+        assertEquals("child", child.getInstance(
+                Key.get(String.class, named("tenant"))));
+    }
+
+    @Test
+    public void testParallel() {
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            InjectorBuilder builder = new GuiceContext()
+                    .injector()
+                        .parallel(executor);
+            for (int i = 0; i < 10; i++) {
+                ModuleBuilder<InjectorBuilder> module = builder
+                        .module()
+                            .parallel(executor);
+                for (int j = 0; j < 10; j++)
+                    module = module
+                            .module()
+                                .bindConstant()
+                                    .annotatedWith(named(i + "." + j))
+                                    .to(i * 10 + j)
+                                    .inject()
+                                .inject();
+                builder = module.inject();
+            }
+            final Injector injector = builder.build();
+            for (int i = 0; i < 10; i++)
+                for (int j = 0; j < 10; j++)
+                    assertEquals(i * 10 + j, (int) injector.getInstance(
+                            Key.get(Integer.class, named(i + "." + j))));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testProfile() {
+        final AtomicInteger eager = new AtomicInteger();
+        final StartupReport report = new StartupReport();
+        final Injector injector = new GuiceContext()
+                .injector()
+                    .profile(report)
+                    .module()
+                        .bind(AtomicInteger.class)
+                            .annotatedWith(named("eager"))
+                            .toInstance(eager)
+                            .inject()
+                        .bind(Eager.class)
+                            .asEagerSingleton()
+                            .inject()
+                        .inject()
+                    .module()
+                        .bindConstant()
+                            .annotatedWith(named("answer"))
+                            .to(42)
+                            .inject()
+                        .inject()
+                    .build();
+        assertEquals(1, eager.get());
+        assertSame(injector.getInstance(Eager.class),
+                injector.getInstance(Eager.class));
+        assertEquals(1, eager.get());
+        assertEquals(2, report.modules().size());
+        int bindings = 0;
+        for (StartupReport.ModuleTiming timing : report.modules())
+            bindings += timing.bindings();
+        assertEquals(3, bindings);
+        assertEquals(1, report.singletons().size());
+        assertEquals(Key.get(Eager.class).toString(),
+                report.singletons().get(0).name());
+        assertTrue(0 < report.injectorNanos());
+        assertTrue(report.toJson().startsWith("{\"injectorNanos\":"));
+        assertTrue(report.toString().contains(Key.get(Eager.class).toString()));
+    }
+
+    @Test
+    public void testProfileNestedParallelModules() {
+        final AtomicInteger eager = new AtomicInteger();
+        final StartupReport report = new StartupReport();
+        // Records each module on another thread before returning.
+        final Executor executor = new Executor() {
+            @Override public void execute(final Runnable command) {
+                final Thread thread = new Thread(command);
+                thread.start();
+                try {
+                    thread.join();
+                } catch (InterruptedException ex) {
+                    throw new AssertionError(ex);
+                }
+            }
+        };
+        new GuiceContext()
+                .injector()
+                    .profile(report)
+                    .module()
+                        .parallel(executor)
+                        .module()
+                            .bind(AtomicInteger.class)
+                                .annotatedWith(named("eager"))
+                                .toInstance(eager)
+                                .inject()
+                            .inject()
+                        .module()
+                            .bind(Eager.class)
+                                .asEagerSingleton()
+                                .inject()
+                            .inject()
+                        .inject()
+                    .build();
+        assertEquals(1, eager.get());
+        assertEquals(1, report.singletons().size());
+        assertEquals(Key.get(Eager.class).toString(),
+                report.singletons().get(0).name());
+        assertTrue(0 <= report.selfNanos(Key.get(Eager.class)));
+    }
+
+    @Test
+    public void testDependencyGraph() {
+        final StartupReport report = new StartupReport();
+        final Injector injector = new GuiceContext()
+                .injector()
+                    .profile(report)
+                    .module()
+                        .bind(Root.class)
+                            .asEagerSingleton()
+                            .inject()
+                        .bind(Leaf.class)
+                            .in(Singleton.class)
+                            .inject()
+                        .inject()
+                    .build();
+        final DependencyGraph graph = DependencyGraph.of(injector, report);
+        final List<DependencyGraph.Node> path = graph.criticalPath();
+        assertEquals(2, path.size());
+        assertEquals(Key.get(Root.class), path.get(0).key());
+        assertEquals(Key.get(Leaf.class), path.get(1).key());
+        assertTrue(TimeUnit.MILLISECONDS.toNanos(1) <= path.get(1).nanos());
+        assertTrue(graph.criticalPathNanos() >= path.get(1).nanos());
+        assertEquals(Collections.singletonList(graph.node(Key.get(Leaf.class))),
+                graph.node(Key.get(Root.class)).dependencies());
+        assertTrue(graph.toDot().contains(
+                "\"" + Key.get(Root.class) + "\" -> \"" + Key.get(Leaf.class) + "\""));
+        assertTrue(graph.toJson().startsWith("{\"criticalPathNanos\":"));
+        assertEquals(-1, DependencyGraph.of(injector)
+                .node(Key.get(Root.class)).nanos());
+    }
+
+    @Test
+    public void testDependencyGraphWithPrivateEnvironments() {
+        final Injector injector = new GuiceContext()
+                .injector()
+                    .module()
+                        .exposeAndBind(Object.class)
+                            .annotatedWith(named("one"))
+                            .to(Root.class)
+                            .inject()
+                        .bind(Root.class)
+                            .in(Singleton.class)
+                            .inject()
+                        .inject()
+                    .module()
+                        .exposeAndBind(Object.class)
+                            .annotatedWith(named("two"))
+                            .to(Root.class)
+                            .inject()
+                        .bind(Root.class)
+                            .in(Singleton.class)
+                            .inject()
+                        .inject()
+                    .build();
+        final DependencyGraph graph = DependencyGraph.of(injector);
+        final DependencyGraph.Node one =
+                graph.node(Key.get(Object.class, named("one")));
+        final DependencyGraph.Node two =
+                graph.node(Key.get(Object.class, named("two")));
+        assertTrue(0 < one.environment());
+        assertTrue(0 < two.environment());
+        assertNotEquals(one.environment(), two.environment());
+        assertEquals(1, one.dependencies().size());
+        final DependencyGraph.Node root = one.dependencies().get(0);
+        assertEquals(Key.get(Root.class), root.key());
+        assertEquals(one.environment(), root.environment());
+        assertNotSame(root, two.dependencies().get(0));
+        assertEquals(Collections.singletonList(graph.node(Key.get(Leaf.class))),
+                root.dependencies());
+        int roots = 0;
+        for (DependencyGraph.Node node : graph.nodes())
+            if (Key.get(Root.class).equals(node.key())) roots++;
+        assertEquals(2, roots);
+        assertTrue(graph.toDot().contains(
+                "\"" + one + "\" -> \"" + root + "\""));
+    }
+
+    static class Root {
+        @Inject Root(Leaf leaf) { }
+    }
+
+    static class Leaf {
+        Leaf() throws InterruptedException { Thread.sleep(1); }
+    }
+
+    static class Holder {
+        @Inject Root root;
+    }
+
+    static class StaticHolder {
+        @Inject static Root root;
+    }
+
+    interface Branch {
+        Root root();
+    }
+
+    static class BranchImpl implements Branch {
+        @Inject Root root;
+
+        @Override public Root root() { return root; }
+    }
+
+    @Test
+    public void testConcurrentSingleton() throws Exception {
+        final AtomicInteger lazy = new AtomicInteger();
+        final Injector injector = new GuiceContext()
+                .injector(Stage.PRODUCTION)
+                    .module()
+                        .bind(AtomicInteger.class)
+                            .annotatedWith(named("lazy"))
+                            .toInstance(lazy)
+                            .inject()
+                        .bind(Lazy.class)
+                            .in(GuicerScopes.CONCURRENT_SINGLETON)
+                            .inject()
+                        .inject()
+                    .build();
+        assertEquals(0, lazy.get());
+        final int threads = 8;
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            final List<Future<Lazy>> futures = new ArrayList<Future<Lazy>>(threads);
+            for (int i = 0; i < threads; i++)
+                futures.add(executor.submit(new Callable<Lazy>() {
+                    @Override public Lazy call() {
+                        return injector.getInstance(Lazy.class);
+                    }
+                }));
+            for (Future<Lazy> future : futures)
+                assertSame(injector.getInstance(Lazy.class), future.get());
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(1, lazy.get());
+    }
+
+    @Test
+    public void testAsyncEagerSingletons() {
+        final AtomicInteger lazy = new AtomicInteger();
+        final AtomicInteger eager = new AtomicInteger();
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            final Injector injector = new GuiceContext()
+                    .injector()
+                        .asyncExecutor(executor)
+                        .module()
+                            .bind(AtomicInteger.class)
+                                .annotatedWith(named("lazy"))
+                                .toInstance(lazy)
+                                .inject()
+                            .bind(AtomicInteger.class)
+                                .annotatedWith(named("eager"))
+                                .toInstance(eager)
+                                .inject()
+                            .bind(Lazy.class)
+                                .asEagerSingletonAsync()
+                                .inject()
+                            .inject()
+                        .module()
+                            .exposeAndBind(Eager.class)
+                                .asEagerSingletonAsync()
+                                .inject()
+                            .inject()
+                        .build();
+            assertEquals(1, lazy.get());
+            assertEquals(1, eager.get());
+            assertSame(injector.getInstance(Eager.class),
+                    injector.getInstance(Eager.class));
+            assertEquals(1, eager.get());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testAsyncEagerSingletonsInPrivateEnvironments() {
+        final AtomicInteger lazy = new AtomicInteger();
+        final Injector injector = new GuiceContext()
+                .injector()
+                    .module()
+                        .bind(AtomicInteger.class)
+                            .annotatedWith(named("lazy"))
+                            .toInstance(lazy)
+                            .inject()
+                        .inject()
+                    .module()
+                        .exposeAndBind(Object.class)
+                            .annotatedWith(named("one"))
+                            .to(Lazy.class)
+                            .inject()
+                        .bind(Lazy.class)
+                            .asEagerSingletonAsync()
+                            .inject()
+                        .inject()
+                    .module()
+                        .exposeAndBind(Object.class)
+                            .annotatedWith(named("two"))
+                            .to(Lazy.class)
+                            .inject()
+                        .bind(Lazy.class)
+                            .asEagerSingletonAsync()
+                            .inject()
+                        .inject()
+                    .build();
+        assertEquals(2, lazy.get());
+        assertNotSame(
+                injector.getInstance(Key.get(Object.class, named("one"))),
+                injector.getInstance(Key.get(Object.class, named("two"))));
+        assertEquals(2, lazy.get());
+    }
+
+    @Test
+    public void testAsyncEagerSingletonFailures() {
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            new GuiceContext()
+                    .injector()
+                        .asyncExecutor(executor)
+                        .module()
+                            .bind(Failing.class)
+                                .annotatedWith(named("one"))
+                                .to(Failing.class)
+                                .asEagerSingletonAsync()
+                                .inject()
+                            .bind(Failing.class)
+                                .annotatedWith(named("two"))
+                                .to(Failing.class)
+                                .asEagerSingletonAsync()
+                                .inject()
+                            .inject()
+                        .build();
+            fail();
+        } catch (ProvisionException expected) {
+            assertEquals(2, expected.getErrorMessages().size());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testBuildTemplate() {
+        final CachingScope cache = new CachingScope(1, TimeUnit.HOURS, 10);
+        final InjectorTemplate template = new GuiceContext()
+                .injector()
+                    .module()
+                        .bind(Leaf.class)
+                            .in(Singleton.class)
+                            .inject()
+                        .bind(Root.class)
+                            .in(cache)
+                            .inject()
+                        .bind(Object.class)
+                            .to(Root.class)
+                            .inject()
+                        .inject()
+                    .buildTemplate();
+        assertEquals(2, template.replayedBindings());
+        final Injector one = template.build(), two = template.build();
+        assertSame(template.parent(), one.getParent());
+        assertSame(one.getInstance(Leaf.class), two.getInstance(Leaf.class));
+        assertSame(one.getInstance(Root.class), one.getInstance(Object.class));
+        assertNotSame(one.getInstance(Root.class), two.getInstance(Root.class));
+    }
+
+    @Test
+    public void testBuildTemplateWithDependentElements() {
+        final CachingScope cache = new CachingScope(1, TimeUnit.HOURS, 10);
+        final Holder requested = new Holder();
+        final AtomicReference<Provider<Root>> provider =
+                new AtomicReference<Provider<Root>>();
+        final AtomicReference<MembersInjector<Holder>> membersInjector =
+                new AtomicReference<MembersInjector<Holder>>();
+        final InjectorTemplate template = new GuiceContext()
+                .injector()
+                    .module()
+                        .bind(Root.class)
+                            .in(cache)
+                            .inject()
+                        .bind(Object.class)
+                            .annotatedWith(named("outer"))
+                            .to(Key.get(Object.class, named("private")))
+                            .inject()
+                        .inject()
+                    .module(new AbstractModule() {
+                        @Override protected void configure() {
+                            provider.set(getProvider(Root.class));
+                            membersInjector.set(getMembersInjector(Holder.class));
+                            requestInjection(requested);
+                            requestStaticInjection(StaticHolder.class);
+                        }
+                    })
+                    .module(new PrivateModule() {
+                        @Override protected void configure() {
+                            bind(Object.class)
+                                    .annotatedWith(named("private"))
+                                    .to(Root.class);
+                            expose(Object.class).annotatedWith(named("private"));
+                        }
+                    })
+                    .buildTemplate();
+        assertEquals(3, template.replayedBindings());
+        assertNull(template.parent().getExistingBinding(Key.get(Root.class)));
+        for (int i = 0; i < 2; i++) {
+            final Injector injector = template.build();
+            final Root root = injector.getInstance(Root.class);
+            assertSame(root, injector.getInstance(
+                    Key.get(Object.class, named("outer"))));
+            assertSame(root, provider.get().get());
+            final Holder holder = new Holder();
+            membersInjector.get().injectMembers(holder);
+            assertSame(root, holder.root);
+            assertSame(root, requested.root);
+            assertSame(root, StaticHolder.root);
+        }
+    }
+
+    @Test
+    public void testBuildTemplateWithLookupsOfLiveInjectors() {
+        final CachingScope cache = new CachingScope(1, TimeUnit.HOURS, 10);
+        final List<Provider<Root>> providers =
+                Collections.synchronizedList(new ArrayList<Provider<Root>>());
+        final InjectorTemplate template = new GuiceContext()
+                .injector()
+                    .module()
+                        .bind(Root.class)
+                            .in(cache)
+                            .inject()
+                        .bind(Branch.class)
+                            .lazy()
+                            .to(BranchImpl.class)
+                            .inject()
+                        .inject()
+                    .module(new AbstractModule() {
+                        @Override protected void configure() {
+                            providers.add(getProvider(Root.class));
+                        }
+                    })
+                    .buildTemplate();
+        final Injector one = template.build(), two = template.build();
+        assertEquals(3, providers.size());
+        final Branch branchOne = one.getInstance(Branch.class);
+        final Branch branchTwo = two.getInstance(Branch.class);
+        final Root rootOne = one.getInstance(Root.class);
+        final Root rootTwo = two.getInstance(Root.class);
+        assertNotSame(rootOne, rootTwo);
+        assertSame(rootOne, branchOne.root());
+        assertSame(rootTwo, branchTwo.root());
+        assertSame(rootOne, providers.get(1).get());
+        assertSame(rootTwo, providers.get(2).get());
+    }
+
+    @Test
+    public void testReloadableInjector() {
+        final ReloadableInjector reloadable = new GuiceContext()
+                .injector()
+                    .module()
+                        .bind(Leaf.class)
+                            .in(Singleton.class)
+                            .inject()
+                        .inject()
+                    .buildReloadable();
+        assertSame(reloadable.base(), reloadable.injector());
+        assertEquals(2, reloadable.reload(constant("toggle", "on"),
+                constant("route", "a")));
+        final Injector first = reloadable.injector();
+        assertEquals("a", first.getInstance(Key.get(String.class, named("route"))));
+        assertEquals(0, reloadable.reload(constant("toggle", "on"),
+                constant("route", "a")));
+        assertSame(first, reloadable.injector());
+        assertEquals(1, reloadable.reload(constant("toggle", "on"),
+                constant("route", "b")));
+        final Injector second = reloadable.injector();
+        assertNotSame(first, second);
+        assertSame(first.getParent(), second.getParent());
+        assertEquals("b", second.getInstance(Key.get(String.class, named("route"))));
+        assertSame(first.getInstance(Leaf.class), second.getInstance(Leaf.class));
+        assertEquals(2, reloadable.size());
+    }
+
+    @Test
+    public void testDuplicateExposingsInSameModules() {
+        try {
+            Guice.createInjector(exposing(), exposing());
+            fail();
+        } catch (CreationException expected) {
+        }
+    }
+
+    private static Module exposing() {
+        return new GuiceContext()
+                .injector()
+                    .module()
+                        .exposeAndBind(Object.class)
+                            .to(Root.class)
+                            .inject()
+                        .bind(Root.class)
+                            .inject()
+                        .build();
+    }
+
+    private static Module constant(String name, String value) {
+        return new GuiceContext()
+                .injector()
+                    .module()
+                        .bindConstant()
+                            .annotatedWith(named(name))
+                            .to(value)
+                            .inject()
+                        .build();
+    }
+
+    static class Failing {
+        Failing() { throw new IllegalStateException(); }
+    }
+
+    static class Lazy {
+        @Inject Lazy(@Named("lazy") AtomicInteger instances) {
+            instances.incrementAndGet();
+        }
+    }
+
+    static class Eager {
+        @Inject Eager(@Named("eager") AtomicInteger instances) {
+            instances.incrementAndGet();
+        }
+    }
+}
@@ -6,8 +6,13 @@ package net.java.guicer;
 
 import com.google.inject.*;
 import static com.google.inject.name.Names.named;
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 import javax.inject.Named;
 import javax.inject.Singleton;
+import net.java.guicer.hidden.Secrets;
 import org.junit.*;
 import static org.junit.Assert.*;
 
@@ -43,6 +48,673 @@ public class ModuleBuilderTest {
         }));
     }
 
+    @Test
+    public void testPrivateModule() {
+        final Injector injector = new GuiceContext()
+                .injector()
+                    .module()
+                        .exposeAndBind(Foo.class)
+                            .annotatedWith(named("foo"))
+                            .to(FooImpl.class)
+                            .inject()
+                        .bind(String.class)
+                            .toInstance("private")
+                            .inject()
+                        .bindConstant()
+                            .annotatedWith(named("answer"))
+                            .to(42)
+                            .inject()
+                        .inject()
+                    .build();
+        assertTrue(injector.getInstance(Key.get(Foo.class, named("foo")))
+                instanceof FooImpl);
+        assertNull(injector.getExistingBinding(Key.get(String.class)));
+        assertNull(injector.getExistingBinding(
+                Key.get(Integer.class, named("answer"))));
+    }
+
+    @Test
+    public void testReusableModule() {
+        final Module module = new GuiceContext()
+                .injector()
+                    .module()
+                        .bind(Bar.class)
+                            .to(BarImpl.class)
+                            .in(Singleton.class)
+                            .inject()
+                        .module()
+                            .exposeAndBind(Foo.class)
+                                .annotatedWith(named("foo"))
+                                .to(FooImpl.class)
+                                .inject()
+                            .inject()
+                        .build();
+        final Injector injector1 = Guice.createInjector(module);
+        final Injector injector2 = Guice.createInjector(module);
+        assertInjector(injector1);
+        assertInjector(injector2);
+        assertNotSame(injector1.getInstance(Bar.class),
+                injector2.getInstance(Bar.class));
+    }
+
+    @Test
+    public void testMeteredAfterBindings() {
+        final ProvisionMetrics metrics = new ProvisionMetrics();
+        final Injector injector = new GuiceContext()
+                .injector()
+                    .module()
+                        .bind(Foo.class)
+                            .to(FooImpl.class)
+                            .inject()
+                        .bindAll(Collections.singletonMap(Bar.class, BarImpl.class))
+                        .bind(Foo.class)
+                            .annotatedWith(named("foo"))
+                            .to(FooImpl.class)
+                            .inject()
+                        .metered(metrics)
+                        .inject()
+                    .build();
+        injector.getInstance(Foo.class);
+        injector.getInstance(Bar.class);
+        assertEquals(1, metrics.snapshot(Key.get(Foo.class)).count());
+        assertEquals(1, metrics.snapshot(Key.get(Bar.class)).count());
+    }
+
+    @Test
+    public void testBindIndexed() {
+        final Injector injector = new GuiceContext()
+                .injector()
+                    .module()
+                        .bindIndexed(getClass().getClassLoader())
+                        .inject()
+                    .build();
+        final Baz baz = injector.getInstance(Key.get(Baz.class, named("baz")));
+        assertTrue(baz instanceof BazImpl);
+        assertSame(baz, injector.getInstance(Key.get(Baz.class, named("baz"))));
+    }
+
+    @Test
+    public void testMetered() {
+        final ProvisionMetrics metrics = new ProvisionMetrics();
+        final Injector injector = new GuiceContext()
+                .injector()
+                    .module()
+                        .metered(metrics)
+                        .bind(Bar.class)
+                            .to(BarImpl.class)
+                            .in(Singleton.class)
+                            .inject()
+                        .bind(Foo.class)
+                            .annotatedWith(named("foo"))
+                            .to(FooImpl.class)
+                            .inject()
+                        .inject()
+                    .module()
+                        .bind(FooImpl.class)
+                            .metered(metrics)
+                            .inject()
+                        .inject()
+                    .build();
+        assertInjector(injector);
+        for (int i = 0; i < 3; i++)
+            injector.getInstance(Key.get(Foo.class, named("foo")));
+        assertEquals(1, metrics.snapshot(Key.get(Bar.class)).count());
+        assertEquals(4, metrics.snapshot(
+                Key.get(Foo.class, named("foo"))).count());
+        final ProvisionMetrics.Snapshot impl =
+                metrics.snapshot(Key.get(FooImpl.class));
+        assertEquals(4, impl.count());
+        assertEquals(0, impl.errors());
+        long provisions = 0;
+        for (long count : impl.histogram())
+            provisions += count;
+        assertEquals(4, provisions);
+        assertEquals(3, metrics.snapshot().size());
+    }
+
+    @Test
+    public void testPooled() {
+        final Injector injector = new GuiceContext()
+                .injector()
+                    .module()
+                        .bind(Foo.class)
+                            .annotatedWith(named("foo"))
+                            .to(FooImpl.class)
+                            .pooled(1)
+                            .inject()
+                        .inject()
+                    .build();
+        final Pool<Foo> pool = injector.getInstance(
+                Key.get(new TypeLiteral<Pool<Foo>>() { }, named("foo")));
+        assertSame(pool, injector.getInstance(
+                Key.get(new TypeLiteral<Pool<Foo>>() { }, named("foo"))));
+        final Pool.Lease<Foo> lease1 = pool.lease();
+        final Pool.Lease<Foo> lease2 = pool.lease();
+        final Foo foo1 = lease1.get();
+        assertNotSame(foo1, lease2.get());
+        lease1.release();
+        lease2.release();
+        assertEquals(1, pool.size());
+        final Pool.Lease<Foo> lease3 = pool.lease();
+        assertSame(foo1, lease3.get());
+        lease3.release();
+        assertEquals(3, pool.leases());
+        assertEquals(2, pool.misses());
+        final Pool<Foo> nulls = new GuiceContext()
+                .injector()
+                    .module()
+                        .bind(Foo.class)
+                            .toProvider(new Provider<Foo>() {
+                                @Override public Foo get() { return null; }
+                            })
+                            .pooled(1)
+                            .inject()
+                        .inject()
+                    .build()
+                .getInstance(Key.get(new TypeLiteral<Pool<Foo>>() { }));
+        try {
+            nulls.lease();
+            fail();
+        } catch (ProvisionException expected) {
+        }
+    }
+
+    @Test
+    public void testCached() throws InterruptedException {
+        final CachingScope cache = new CachingScope(1, TimeUnit.HOURS, 1);
+        final Injector injector = new GuiceContext()
+                .injector()
+                    .module()
+                        .bind(Foo.class)
+                            .annotatedWith(named("foo"))
+                            .to(FooImpl.class)
+                            .in(cache)
+                            .inject()
+                        .bind(Foo.class)
+                            .annotatedWith(named("bar"))
+                            .to(FooImpl.class)
+                            .in(cache)
+                            .inject()
+                        .bind(Foo.class)
+                            .annotatedWith(named("expiring"))
+                            .to(FooImpl.class)
+                            .cached(1, TimeUnit.MILLISECONDS, 1)
+                            .inject()
+                        .inject()
+                    .build();
+        final Key<Foo> foo = Key.get(Foo.class, named("foo"));
+        final Key<Foo> bar = Key.get(Foo.class, named("bar"));
+        assertSame(injector.getInstance(foo), injector.getInstance(foo));
+        assertEquals(1, cache.hits());
+        assertEquals(1, cache.misses());
+        injector.getInstance(bar);
+        assertEquals(1, cache.size());
+        assertEquals(1, cache.evictions());
+        injector.getInstance(foo);
+        assertEquals(3, cache.misses());
+        final Key<Foo> expiring = Key.get(Foo.class, named("expiring"));
+        final Foo foo1 = injector.getInstance(expiring);
+        Thread.sleep(2);
+        assertNotSame(foo1, injector.getInstance(expiring));
+    }
+
+    @Test
+    public void testCachedRefreshAhead() throws Exception {
+        final long ttl = 2000;
+        final CachingScope cache = new CachingScope(ttl, TimeUnit.MILLISECONDS, 10);
+        final Object first = new Object(), second = new Object();
+        final CountDownLatch refreshing = new CountDownLatch(1);
+        final CountDownLatch refresh = new CountDownLatch(1);
+        final AtomicInteger provisions = new AtomicInteger();
+        final Provider<Object> refreshed = cache.scope(Key.get(Object.class),
+                new Provider<Object>() {
+            @Override public Object get() {
+                if (0 == provisions.getAndIncrement()) return first;
+                refreshing.countDown();
+                try {
+                    refresh.await();
+                } catch (InterruptedException ex) {
+                    throw new AssertionError(ex);
+                }
+                return second;
+            }
+        });
+        final AtomicInteger attempts = new AtomicInteger();
+        final Provider<Object> failing = cache.scope(
+                Key.get(Object.class, named("failing")),
+                new Provider<Object>() {
+            @Override public Object get() {
+                if (0 == attempts.getAndIncrement()) return first;
+                throw new IllegalStateException();
+            }
+        });
+        final long start = System.nanoTime();
+        assertSame(first, refreshed.get());
+        assertSame(first, failing.get());
+
+        // Wait for 85 percent of the TTL.
+        final long refreshAt = start + TimeUnit.MILLISECONDS.toNanos(ttl * 85 / 100);
+        for (long now; (now = System.nanoTime()) < refreshAt; )
+            Thread.sleep(Math.max(1, TimeUnit.NANOSECONDS.toMillis(refreshAt - now)));
+
+        // The first thread refreshes while the others keep getting the
+        // cached instance without blocking.
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            final Future<Object> refresher = executor.submit(new Callable<Object>() {
+                @Override public Object call() { return refreshed.get(); }
+            });
+            assertTrue(refreshing.await(1, TimeUnit.SECONDS));
+            assertSame(first, refreshed.get());
+            assertSame(first, refreshed.get());
+            refresh.countDown();
+            assertSame(second, refresher.get(1, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdown();
+        }
+        assertSame(second, refreshed.get());
+        assertEquals(2, provisions.get());
+
+        // A failed refresh keeps the cached instance until it expires.
+        assertSame(first, failing.get());
+        assertSame(first, failing.get());
+        assertEquals(3, attempts.get());
+        assertTrue("The TTL has passed too early.",
+                System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(ttl));
+        Thread.sleep(ttl * 15 / 100 + 10);
+        try {
+            failing.get();
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+    }
+
+    @Test
+    public void testBindAll() {
+        final List<BindingSpec<?>> specs = new ArrayList<BindingSpec<?>>();
+        specs.add(new BindingSpec<Bar>(Key.get(Bar.class),
+                BarImpl.class, Singleton.class));
+        specs.add(new BindingSpec<Foo>(Key.get(Foo.class, named("foo")),
+                FooImpl.class, null));
+        final Map<Class<?>, Class<?>> map = new HashMap<Class<?>, Class<?>>();
+        map.put(Baz.class, BazImpl.class);
+        final Injector injector = new GuiceContext()
+                .injector()
+                    .module()
+                        .bindAll(specs)
+                        .bindAll(map)
+                        .inject()
+                    .build();
+        assertInjector(injector);
+        assertTrue(injector.getInstance(Baz.class) instanceof BazImpl);
+        map.put(Foo.class, BarImpl.class);
+        try {
+            new GuiceContext().injector().module().bindAll(map);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    @Test
+    public void testBindConstants() throws IOException {
+        final File file = File.createTempFile("constants", ".properties");
+        try {
+            final Writer out = new OutputStreamWriter(
+                    new FileOutputStream(file), "ISO-8859-1");
+            try {
+                out.write("# comment\n"
+                        + "port = 8080\n"
+                        + "greeting: Hello \\\r\n"
+                        + "    World\\u0021\n");
+            } finally {
+                out.close();
+            }
+            final Injector injector = new GuiceContext()
+                    .injector()
+                        .module()
+                            .bindConstants(file)
+                            .bindConstants(new StringReader("debug true"))
+                            .inject()
+                        .build();
+            assertEquals(8080, (int) injector.getInstance(
+                    Key.get(Integer.class, named("port"))));
+            assertEquals("Hello World!", injector.getInstance(
+                    Key.get(String.class, named("greeting"))));
+            assertTrue(injector.getInstance(
+                    Key.get(Boolean.class, named("debug"))));
+        } finally {
+            file.delete();
+        }
+        try {
+            new GuiceContext()
+                    .injector()
+                        .module()
+                            .bindConstants(file)
+                            .inject()
+                        .build();
+            fail();
+        } catch (CreationException expected) {
+        }
+    }
+
+    @Test
+    public void testConcurrentModule() throws Exception {
+        final ModuleBuilder<InjectorBuilder> builder = new GuiceContext()
+                .injector()
+                    .concurrentModule();
+        final int threads = 4, bindings = 250;
+        final CyclicBarrier barrier = new CyclicBarrier(threads);
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            final List<Future<?>> futures = new ArrayList<Future<?>>();
+            for (int t = 0; t < threads; t++) {
+                final int thread = t;
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override public Void call() throws Exception {
+                        barrier.await();
+                        for (int i = 0; i < bindings; i++)
+                            builder
+                                .bind(Foo.class)
+                                    .annotatedWith(named(thread + "-" + i))
+                                    .to(FooImpl.class)
+                                    .inject();
+                        builder
+                            .module()
+                                .bindConstant()
+                                    .annotatedWith(named("thread" + thread))
+                                    .to(thread)
+                                    .inject()
+                                .inject();
+                        return null;
+                    }
+                }));
+            }
+            for (Future<?> future : futures)
+                future.get();
+        } finally {
+            executor.shutdown();
+        }
+        final CompiledModule module = (CompiledModule) builder.build();
+        assertEquals(threads * bindings, module.definitions.length);
+        for (int i = 1; i < module.definitions.length; i++)
+            assertTrue(0 > module.definitions[i - 1].key.toString()
+                    .compareTo(module.definitions[i].key.toString()));
+        assertEquals(threads, module.modules.length);
+        final Injector injector = Guice.createInjector(module);
+        for (int t = 0; t < threads; t++) {
+            assertEquals(t, (int) injector.getInstance(
+                    Key.get(Integer.class, named("thread" + t))));
+            assertEquals(named("thread" + t), ((CompiledModule)
+                    module.modules[t]).definitions[0].annotation);
+        }
+        assertNotNull(injector.getInstance(
+                Key.get(Foo.class, named("3-249"))));
+    }
+
+    @Test
+    public void testConcurrentModuleWithEqualNames() {
+        final List<String> orders = new ArrayList<String>();
+        for (String[] constants : new String[][] {
+                { "a=1", "b=2", "c=3" }, { "c=3", "a=1", "b=2" } }) {
+            final ModuleBuilder<InjectorBuilder> builder = new GuiceContext()
+                    .injector()
+                        .concurrentModule();
+            for (String constant : constants)
+                builder.bindConstants(new StringReader(constant));
+            final StringBuilder order = new StringBuilder();
+            for (Module module : ((CompiledModule) builder.build()).modules)
+                order.append(Arrays.toString(
+                        ((ConstantsModule) module).properties));
+            orders.add(order.toString());
+        }
+        assertEquals("[a, 1][b, 2][c, 3]", orders.get(0));
+        assertEquals(orders.get(0), orders.get(1));
+    }
+
+    @Test
+    public void testLazy() {
+        final AtomicInteger provisions = new AtomicInteger();
+        final Injector injector = new GuiceContext()
+                .injector()
+                    .module()
+                        .bind(Foo.class)
+                            .lazy()
+                            .toProvider(new Provider<Foo>() {
+                                @Override public Foo get() {
+                                    provisions.incrementAndGet();
+                                    return new FooImpl();
+                                }
+                            })
+                            .in(Singleton.class)
+                            .inject()
+                        .inject()
+                    .build();
+        final Foo foo1 = injector.getInstance(Foo.class);
+        final Foo foo2 = injector.getInstance(Foo.class);
+        assertEquals(0, provisions.get());
+        assertEquals(foo1.toString(), foo2.toString());
+        assertEquals(1, provisions.get());
+        try {
+            new GuiceContext()
+                    .injector()
+                        .module()
+                            .bind(FooImpl.class)
+                                .lazy()
+                                .to(FooImpl.class)
+                                .inject()
+                            .inject()
+                        .build();
+            fail();
+        } catch (CreationException expected) {
+        }
+    }
+
+    @Test
+    public void testLazyEquals() {
+        final Injector injector = new GuiceContext()
+                .injector()
+                    .module()
+                        .bind(Foo.class)
+                            .lazy()
+                            .to(FooImpl.class)
+                            .in(Singleton.class)
+                            .inject()
+                        .bind(Foo.class)
+                            .annotatedWith(named("unscoped"))
+                            .lazy()
+                            .to(FooImpl.class)
+                            .inject()
+                        .inject()
+                    .build();
+        final Foo foo = injector.getInstance(Foo.class);
+        assertTrue(foo.equals(foo));
+        assertEquals(foo, injector.getInstance(Foo.class));
+        assertEquals(foo.hashCode(), injector.getInstance(Foo.class).hashCode());
+        assertTrue(new HashSet<Foo>(Arrays.asList(foo)).contains(foo));
+        final Foo unscoped = injector.getInstance(
+                Key.get(Foo.class, named("unscoped")));
+        assertTrue(unscoped.equals(unscoped));
+        assertFalse(unscoped.equals(injector.getInstance(
+                Key.get(Foo.class, named("unscoped")))));
+        assertFalse(foo.equals(unscoped));
+        assertFalse(foo.equals(null));
+    }
+
+    @Test
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    public void testLazyNonPublicInterface() {
+        final Key<Object> key = (Key) Key.get(Secrets.SECRET);
+        final Injector injector = new GuiceContext()
+                .injector()
+                    .module()
+                        .bind(key)
+                            .lazy()
+                            .toInstance(Secrets.secret("secret"))
+                            .inject()
+                        .inject()
+                    .build();
+        assertEquals("secret", Secrets.value(injector.getInstance(key)));
+    }
+
+    @Test
+    public void testBindSetAndMap() {
+        final Foo foo = new FooImpl();
+        final Injector injector = new GuiceContext()
+                .injector()
+                    .module()
+                        .bindSet(Foo.class)
+                            .add(FooImpl.class)
+                            .addInstance(foo)
+                            .inject()
+                        .bindMap(TimeUnit.class, Foo.class)
+                            .put(TimeUnit.SECONDS, FooImpl.class)
+                            .putInstance(TimeUnit.DAYS, foo)
+                            .inject()
+                        .bindSet(Key.get(Foo.class, named("empty")))
+                            .inject()
+                        .inject()
+                    .build();
+        final Set<Foo> set = injector.getInstance(
+                Key.get(new TypeLiteral<Set<Foo>>() { }));
+        assertSame(set, injector.getInstance(
+                Key.get(new TypeLiteral<Set<Foo>>() { })));
+        assertEquals(2, set.size());
+        assertTrue(set.contains(foo));
+        final Iterator<Foo> it = set.iterator();
+        assertTrue(it.next() instanceof FooImpl);
+        assertSame(foo, it.next());
+        assertFalse(it.hasNext());
+        final Map<TimeUnit, Foo> map = injector.getInstance(
+                Key.get(new TypeLiteral<Map<TimeUnit, Foo>>() { }));
+        assertEquals(Arrays.asList(TimeUnit.SECONDS, TimeUnit.DAYS),
+                new ArrayList<TimeUnit>(map.keySet()));
+        assertSame(foo, map.get(TimeUnit.DAYS));
+        assertNull(map.get(TimeUnit.HOURS));
+        assertTrue(injector.getInstance(
+                Key.get(new TypeLiteral<Set<Foo>>() { }, named("empty")))
+                .isEmpty());
+        try {
+            new GuiceContext()
+                    .injector()
+                        .module()
+                            .bindMap(String.class, Foo.class)
+                                .put("foo", FooImpl.class)
+                                .putInstance("foo", foo)
+                                .inject();
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    @Test
+    public void testToFactory() {
+        final Injector injector = new GuiceContext()
+                .injector()
+                    .module()
+                        .bindConstant()
+                            .annotatedWith(named("greeting"))
+                            .to("Hello")
+                            .inject()
+                        .bind(GreetingFactory.class)
+                            .toFactory(GreetingFactory.class)
+                            .in(Singleton.class)
+                            .inject()
+                        .inject()
+                    .build();
+        final GreetingFactory factory = injector.getInstance(GreetingFactory.class);
+        assertFalse(java.lang.reflect.Proxy.isProxyClass(factory.getClass()));
+        final Greeting greeting = factory.greeting("World", 2);
+        assertEquals("Hello World!!", greeting.toString());
+        assertSame(injector, greeting.injector);
+        try {
+            new GuiceContext()
+                    .injector()
+                        .module()
+                            .bind(Foo.class)
+                                .toFactory(Foo.class);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    @Factory
+    interface GreetingFactory {
+        Greeting greeting(String name, int exclamations);
+    }
+
+    static class Greeting {
+        final String text;
+        final Injector injector;
+
+        @Inject Greeting(
+                @Assisted String name,
+                @Named("greeting") String greeting,
+                Injector injector,
+                @Assisted int exclamations) {
+            final StringBuilder text = new StringBuilder(greeting)
+                    .append(' ').append(name);
+            for (int i = 0; i < exclamations; i++) text.append('!');
+            this.text = text.toString();
+            this.injector = injector;
+        }
+
+        @Override public String toString() { return text; }
+    }
+
+    @Test
+    public void testFlattenPrivateModules() {
+        final Injector injector = new GuiceContext()
+                .injector()
+                    .module()
+                        .exposeAndBind(Bar.class)
+                            .to(BarImpl.class)
+                            .in(Singleton.class)
+                            .inject()
+                        .expose(Foo.class)
+                            .annotatedWith(named("foo"))
+                            .inject()
+                        .module()
+                            .exposeAndBind(Foo.class)
+                                .annotatedWith(named("foo"))
+                                .to(FooImpl.class)
+                                .inject()
+                            .inject()
+                        .inject()
+                    .module()
+                        .exposeAndBind(Baz.class)
+                            .to(BazImpl.class)
+                            .inject()
+                        .bind(String.class)
+                            .toInstance("private")
+                            .inject()
+                        .inject()
+                    .build();
+        assertInjector(injector);
+        assertFalse(injector.getBinding(Bar.class)
+                instanceof com.google.inject.spi.ExposedBinding);
+        assertFalse(injector.getBinding(Key.get(Foo.class, named("foo")))
+                instanceof com.google.inject.spi.ExposedBinding);
+        assertTrue(injector.getBinding(Baz.class)
+                instanceof com.google.inject.spi.ExposedBinding);
+        assertNull(injector.getExistingBinding(Key.get(String.class)));
+        try {
+            new GuiceContext()
+                    .injector()
+                        .module()
+                            .exposeAndBind(Bar.class)
+                                .to(BarImpl.class)
+                                .inject()
+                            .expose(Foo.class)
+                                .annotatedWith(named("foo"))
+                                .inject()
+                            .inject()
+                        .build();
+            fail();
+        } catch (CreationException expected) {
+            assertTrue(expected.getMessage().contains("Could not expose()"));
+        }
+    }
+
     private void assertInjector(final Injector injector) {
         final Bar bar1 = injector.getInstance(Bar.class);
         final Bar bar2 = injector.getInstance(Bar.class);
@@ -59,4 +731,10 @@ public class ModuleBuilderTest {
     private static class BarImpl implements Bar {
         @Inject BarImpl(@Named("foo") Foo foo) { }
     }
+
+    private interface Baz { }
+
+    @Indexed(value = Baz.class, named = "baz")
+    @Singleton
+    private static class BazImpl implements Baz { }
 }
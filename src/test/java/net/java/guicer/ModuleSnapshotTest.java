@@ -0,0 +1,248 @@
+/*
+ * Copyright (C) 2013 Schlichtherle IT Services.
+ * All rights reserved. Use is subject to license terms.
+ */
+package net.java.guicer;
+
+import com.google.inject.*;
+import static com.google.inject.name.Names.named;
+import java.io.*;
+import java.lang.annotation.ElementType;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+/**
+ * @author Christian Schlichtherle
+ */
+public class ModuleSnapshotTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        final File file = folder.newFile("snapshot");
+        final Definition definition = new Definition();
+        ModuleSnapshot.save(definition, file);
+        assertEquals(1, definition.builds.get());
+        final Module module = ModuleSnapshot.load(file, definition);
+        assertEquals(1, definition.builds.get());
+        final Injector injector = Guice.createInjector(module);
+        assertSame(injector.getInstance(Foo.class),
+                injector.getInstance(Foo.class));
+        assertEquals(42, (int) injector.getInstance(
+                Key.get(Integer.class, named("answer"))));
+        assertEquals(ElementType.FIELD, injector.getInstance(
+                Key.get(ElementType.class, named("element"))));
+        assertEquals('x', (char) injector.getInstance(
+                Key.get(Character.class, named("char"))));
+        assertTrue(injector.getInstance(
+                Key.get(new TypeLiteral<List<String>>() { }))
+                .isEmpty());
+    }
+
+    @Test
+    public void testMissingFile() throws IOException {
+        final Definition definition = new Definition();
+        ModuleSnapshot.load(new File(folder.getRoot(), "missing"), definition);
+        assertEquals(1, definition.builds.get());
+    }
+
+    @Test
+    public void testStaleSnapshot() throws IOException {
+        final File file = folder.newFile("snapshot");
+        ModuleSnapshot.save(new Definition(), file);
+        final AtomicInteger builds = new AtomicInteger();
+        ModuleSnapshot.load(file, new Builder<Module>() {
+            @Override public Module build() {
+                builds.incrementAndGet();
+                return new GuiceContext().injector().module().build();
+            }
+        });
+        assertEquals(1, builds.get());
+    }
+
+    @Test
+    public void testTruncatedSnapshot() throws IOException {
+        final File file = folder.newFile("snapshot");
+        final Definition definition = new Definition();
+        ModuleSnapshot.save(definition, file);
+        final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            for (long length = raf.length(); 14 < length; length--) {
+                raf.setLength(length - 1);
+                ModuleSnapshot.load(file, definition);
+            }
+        } finally {
+            raf.close();
+        }
+        assertTrue(1 < definition.builds.get());
+    }
+
+    @Test
+    public void testCorruptedSnapshot() throws IOException {
+        final File file = folder.newFile("snapshot");
+        final Definition definition = new Definition();
+        ModuleSnapshot.save(definition, file);
+        final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            // Keep the header with the fingerprint, but garble the body.
+            for (long i = 14; i < raf.length(); i++) {
+                raf.seek(i);
+                raf.write(0xff);
+            }
+        } finally {
+            raf.close();
+        }
+        ModuleSnapshot.load(file, definition);
+        assertEquals(2, definition.builds.get());
+    }
+
+    @Test
+    public void testConstants() throws IOException {
+        final File snapshot = folder.newFile("snapshot");
+        final File file = folder.newFile("constants.properties");
+        write(file, "file=1\n");
+        final AtomicInteger builds = new AtomicInteger();
+        final Builder<Module> definition = new Builder<Module>() {
+            @Override public Module build() {
+                builds.incrementAndGet();
+                return new GuiceContext()
+                        .injector()
+                            .module()
+                                .bindConstants(new StringReader("answer=42\n"))
+                                .bindConstants(file)
+                                .build();
+            }
+        };
+        ModuleSnapshot.save(definition, snapshot);
+        final Module module = ModuleSnapshot.load(snapshot, definition);
+        assertEquals(1, builds.get());
+        final Injector injector = Guice.createInjector(module);
+        assertEquals(42, (int) injector.getInstance(
+                Key.get(Integer.class, named("answer"))));
+        assertEquals("1", injector.getInstance(
+                Key.get(String.class, named("file"))));
+        write(file, "file=2\n");
+        assertEquals("2", Guice.createInjector(module).getInstance(
+                Key.get(String.class, named("file"))));
+    }
+
+    @Test
+    public void testCollections() throws IOException {
+        final File snapshot = folder.newFile("snapshot");
+        final AtomicInteger builds = new AtomicInteger();
+        final Builder<Module> definition = new Builder<Module>() {
+            @Override public Module build() {
+                builds.incrementAndGet();
+                return new GuiceContext()
+                        .injector()
+                            .module()
+                                .bind(Foo.class)
+                                    .to(FooImpl.class)
+                                    .in(Singleton.class)
+                                    .inject()
+                                .bindSet(Key.get(Foo.class, named("set")))
+                                    .add(Foo.class)
+                                    .inject()
+                                .module()
+                                    .lazySingletons()
+                                    .bindMap(ElementType.class, Foo.class)
+                                        .put(ElementType.FIELD, Foo.class)
+                                        .inject()
+                                    .inject()
+                                .build();
+            }
+        };
+        ModuleSnapshot.save(definition, snapshot);
+        final Module module = ModuleSnapshot.load(snapshot, definition);
+        assertEquals(1, builds.get());
+        final Injector injector = Guice.createInjector(module);
+        final Foo foo = injector.getInstance(Foo.class);
+        assertEquals(Collections.singleton(foo), injector.getInstance(
+                Key.get(new TypeLiteral<Set<Foo>>() { }, named("set"))));
+        final Map<ElementType, Foo> map = injector.getInstance(
+                Key.get(new TypeLiteral<Map<ElementType, Foo>>() { }));
+        assertEquals(1, map.size());
+        assertSame(foo, map.get(ElementType.FIELD));
+    }
+
+    private static void write(final File file, final String content)
+    throws IOException {
+        final Writer out = new OutputStreamWriter(
+                new FileOutputStream(file), "ISO-8859-1");
+        try {
+            out.write(content);
+        } finally {
+            out.close();
+        }
+    }
+
+    @Test(expected = NotSerializableException.class)
+    public void testInstance() throws IOException {
+        ModuleSnapshot.save(new Builder<Module>() {
+            @Override public Module build() {
+                return new GuiceContext()
+                        .injector()
+                            .module()
+                                .bind(Foo.class)
+                                    .toInstance(new FooImpl())
+                                    .inject()
+                                .build();
+            }
+        }, folder.newFile("snapshot"));
+    }
+
+    private static class Definition implements Builder<Module> {
+        final AtomicInteger builds = new AtomicInteger();
+
+        @Override public Module build() {
+            builds.incrementAndGet();
+            return new GuiceContext()
+                    .injector()
+                        .module()
+                            .bindConstant()
+                                .annotatedWith(named("answer"))
+                                .to(42)
+                                .inject()
+                            .bindConstant()
+                                .annotatedWith(named("element"))
+                                .to(ElementType.FIELD)
+                                .inject()
+                            .bindConstant()
+                                .annotatedWith(named("char"))
+                                .to('x')
+                                .inject()
+                            .bind(new TypeLiteral<List<String>>() { })
+                                .toConstructor(constructor())
+                                .inject()
+                            .module()
+                                .exposeAndBind(Foo.class)
+                                    .to(FooImpl.class)
+                                    .in(Singleton.class)
+                                    .inject()
+                                .inject()
+                            .build();
+        }
+
+        @SuppressWarnings({ "unchecked", "rawtypes" })
+        private static java.lang.reflect.Constructor<List<String>> constructor() {
+            try {
+                return (java.lang.reflect.Constructor) java.util.ArrayList.class
+                        .getConstructor();
+            } catch (NoSuchMethodException ex) {
+                throw new AssertionError(ex);
+            }
+        }
+    }
+
+    interface Foo { }
+
+    static class FooImpl implements Foo { }
+}
@@ -0,0 +1,251 @@
+/*
+ * Copyright (C) 2013 Schlichtherle IT Services.
+ * All rights reserved. Use is subject to license terms.
+ */
+package net.java.guicer;
+
+import com.google.inject.*;
+import static com.google.inject.name.Names.named;
+import java.io.*;
+import java.lang.annotation.ElementType;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+/**
+ * @author Christian Schlichtherle
+ */
+public class ModuleSourceGeneratorTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testGenerate() throws Exception {
+        final Injector injector = Guice.createInjector(
+                generate(new Definition()));
+        assertSame(injector.getInstance(Bar.class),
+                injector.getInstance(Bar.class));
+        assertTrue(injector.getInstance(Key.get(Foo.class, named("foo")))
+                instanceof FooImpl);
+        assertNull(injector.getExistingBinding(Key.get(Foo.class)));
+        assertEquals(42, (int) injector.getInstance(
+                Key.get(Integer.class, named("answer"))));
+        assertEquals(ElementType.FIELD, injector.getInstance(
+                Key.get(ElementType.class, named("element"))));
+        assertEquals("\"quoted\"\n", injector.getInstance(
+                Key.get(String.class, named("string"))));
+        assertTrue(injector.getInstance(
+                Key.get(new TypeLiteral<List<String>>() { }))
+                .isEmpty());
+        for (char c : CHARACTERS)
+            assertEquals(c, (char) injector.getInstance(
+                    Key.get(Character.class, named("char" + (int) c))));
+    }
+
+    private static final char[] CHARACTERS =
+            { '\'', '\\', '\n', '\r', '\t', '"', '\u00e9' };
+
+    @Test
+    public void testConstants() throws Exception {
+        final File file = folder.newFile("constants.properties");
+        write(file, "file=1\n");
+        final Module module = generate(new Builder<Module>() {
+            @Override public Module build() {
+                return new GuiceContext()
+                        .injector()
+                            .module()
+                                .bindConstants(new StringReader(
+                                        "answer=42\nquoted=\"\\u00e9\"\n"))
+                                .bindConstants(file)
+                                .build();
+            }
+        });
+        final Injector injector = Guice.createInjector(module);
+        assertEquals(42, (int) injector.getInstance(
+                Key.get(Integer.class, named("answer"))));
+        assertEquals("\"\u00e9\"", injector.getInstance(
+                Key.get(String.class, named("quoted"))));
+        assertEquals("1", injector.getInstance(
+                Key.get(String.class, named("file"))));
+        write(file, "file=2\n");
+        assertEquals("2", Guice.createInjector(module).getInstance(
+                Key.get(String.class, named("file"))));
+    }
+
+    @Test
+    public void testCollections() throws Exception {
+        final Injector injector = Guice.createInjector(generate(
+                new Builder<Module>() {
+            @Override public Module build() {
+                return new GuiceContext()
+                        .injector()
+                            .module()
+                                .bind(Foo.class)
+                                    .to(FooImpl.class)
+                                    .in(Singleton.class)
+                                    .inject()
+                                .bindSet(Key.get(Foo.class, named("set")))
+                                    .add(Foo.class)
+                                    .inject()
+                                .module()
+                                    .lazySingletons()
+                                    .bindMap(ElementType.class, Foo.class)
+                                        .put(ElementType.FIELD, Foo.class)
+                                        .inject()
+                                    .inject()
+                                .build();
+            }
+        }));
+        final Foo foo = injector.getInstance(Foo.class);
+        assertEquals(Collections.singleton(foo), injector.getInstance(
+                Key.get(new TypeLiteral<Set<Foo>>() { }, named("set"))));
+        final Map<ElementType, Foo> map = injector.getInstance(
+                Key.get(new TypeLiteral<Map<ElementType, Foo>>() { }));
+        assertEquals(1, map.size());
+        assertSame(foo, map.get(ElementType.FIELD));
+    }
+
+    private static void write(final File file, final String content)
+    throws IOException {
+        final Writer out = new OutputStreamWriter(
+                new FileOutputStream(file), "ISO-8859-1");
+        try {
+            out.write(content);
+        } finally {
+            out.close();
+        }
+    }
+
+    /** Generates, compiles and instantiates the module for the given definition. */
+    private Module generate(final Builder<Module> definition) throws Exception {
+        final File source = folder.newFile("GeneratedModule.java");
+        final Writer out = new OutputStreamWriter(
+                new FileOutputStream(source), "UTF-8");
+        try {
+            ModuleSourceGenerator.generate(definition,
+                    "generated.GeneratedModule", out);
+        } finally {
+            out.close();
+        }
+        final File classes = folder.newFolder("classes");
+        final JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        assertEquals(0, compiler.run(null, null, null,
+                "-classpath", classPath(),
+                "-d", classes.getPath(),
+                source.getPath()));
+        final ClassLoader loader = new URLClassLoader(
+                new URL[] { classes.toURI().toURL() },
+                getClass().getClassLoader());
+        return (Module) loader.loadClass("generated.GeneratedModule")
+                .newInstance();
+    }
+
+    private static String classPath() {
+        final String path = System.getProperty("surefire.test.class.path");
+        return null != path ? path : System.getProperty("java.class.path");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInstance() throws IOException {
+        ModuleSourceGenerator.generate(new Builder<Module>() {
+            @Override public Module build() {
+                return new GuiceContext()
+                        .injector()
+                            .module()
+                                .bind(Foo.class)
+                                    .toInstance(new FooImpl())
+                                    .inject()
+                                .build();
+            }
+        }, "generated.GeneratedModule", new StringBuilder());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testForeignModule() throws IOException {
+        ModuleSourceGenerator.generate(new Builder<Module>() {
+            @Override public Module build() {
+                return new GuiceContext()
+                        .injector()
+                            .module()
+                                .module(new ForeignModule())
+                                .build();
+            }
+        }, "generated.GeneratedModule", new StringBuilder());
+    }
+
+    public static class ForeignModule extends AbstractModule {
+        @Override protected void configure() { }
+    }
+
+    private static class Definition implements Builder<Module> {
+        @Override public Module build() {
+            final ModuleBuilder<InjectorBuilder> builder = new GuiceContext()
+                    .injector()
+                        .module();
+            for (char c : CHARACTERS)
+                builder.bindConstant()
+                        .annotatedWith(named("char" + (int) c))
+                        .to(c)
+                        .inject();
+            return builder
+                    .bind(Bar.class)
+                        .to(BarImpl.class)
+                        .in(Singleton.class)
+                        .inject()
+                    .bindConstant()
+                        .annotatedWith(named("answer"))
+                        .to(42)
+                        .inject()
+                    .bindConstant()
+                        .annotatedWith(named("element"))
+                        .to(ElementType.FIELD)
+                        .inject()
+                    .bindConstant()
+                        .annotatedWith(named("string"))
+                        .to("\"quoted\"\n")
+                        .inject()
+                    .bind(new TypeLiteral<List<String>>() { })
+                        .toConstructor(constructor())
+                        .inject()
+                    .module()
+                        .exposeAndBind(Foo.class)
+                            .annotatedWith(named("foo"))
+                            .to(FooImpl.class)
+                            .inject()
+                        .bind(Foo.class)
+                            .to(FooImpl.class)
+                            .inject()
+                        .inject()
+                    .build();
+        }
+
+        @SuppressWarnings({ "unchecked", "rawtypes" })
+        private static java.lang.reflect.Constructor<List<String>> constructor() {
+            try {
+                return (java.lang.reflect.Constructor) java.util.ArrayList.class
+                        .getConstructor();
+            } catch (NoSuchMethodException ex) {
+                throw new AssertionError(ex);
+            }
+        }
+    }
+
+    public interface Foo { }
+
+    public static class FooImpl implements Foo { }
+
+    public interface Bar { }
+
+    public static class BarImpl implements Bar {
+        @Inject public BarImpl(@javax.inject.Named("foo") Foo foo) { }
+    }
+}
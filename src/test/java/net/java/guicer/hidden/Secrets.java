@@ -0,0 +1,34 @@
+/*
+ * Copyright (C) 2013 Schlichtherle IT Services.
+ * All rights reserved. Use is subject to license terms.
+ */
+package net.java.guicer.hidden;
+
+/**
+ * Provides access to a package-private interface from another package.
+ *
+ * @author Christian Schlichtherle
+ */
+public final class Secrets {
+
+    /** The package-private interface. */
+    public static final Class<?> SECRET = Secret.class;
+
+    private Secrets() { }
+
+    /** Returns a new secret with the given value. */
+    public static Object secret(final String value) {
+        return new Secret() {
+            @Override public String value() { return value; }
+        };
+    }
+
+    /** Returns the value of the given secret. */
+    public static String value(final Object secret) {
+        return ((Secret) secret).value();
+    }
+
+    interface Secret {
+        String value();
+    }
+}